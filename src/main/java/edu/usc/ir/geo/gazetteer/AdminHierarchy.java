@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import edu.usc.ir.geo.gazetteer.domain.Location;
+
+/**
+ * Names of countries and of their first and second level administrative
+ * divisions, keyed the way GeoNames keys them: "US", "US.CA" and "US.CA.037".
+ * Built from the GeoNames countryInfo.txt, admin1CodesASCII.txt and
+ * admin2Codes.txt files and stored along with the index in {@link #HIERARCHY_FILE},
+ * so that results are enriched with readable names without any extra search.
+ * Every location of a division shares the one name instance held here.
+ */
+public class AdminHierarchy {
+
+	private static final Logger LOG = Logger.getLogger(AdminHierarchy.class.getName());
+	public static final String HIERARCHY_FILE = "admin-hierarchy.tsv";
+	public static final String COUNTRY_INFO_FILE = "countryInfo.txt";
+	public static final String ADMIN1_CODES_FILE = "admin1CodesASCII.txt";
+	public static final String ADMIN2_CODES_FILE = "admin2Codes.txt";
+	/** hierarchy of an index built without the GeoNames code files */
+	public static final AdminHierarchy EMPTY = new AdminHierarchy(new HashMap<String, String>());
+
+	private static final int COUNTRY_NAME_COLUMN = 4;
+
+	private final Map<String, String> names;
+
+	private AdminHierarchy(Map<String, String> names) {
+		this.names = names;
+	}
+
+	/**
+	 * Reads the GeoNames code files found in a directory, missing files are skipped
+	 * @param directory directory holding the files, usually the one of allCountries.txt
+	 * @return the hierarchy, empty if no file is found
+	 * @throws IOException
+	 */
+	public static AdminHierarchy fromGeoNames(File directory) throws IOException {
+		Map<String, String> names = new HashMap<>();
+		readColumns(new File(directory, COUNTRY_INFO_FILE), 0, COUNTRY_NAME_COLUMN, names);
+		readColumns(new File(directory, ADMIN1_CODES_FILE), 0, 1, names);
+		readColumns(new File(directory, ADMIN2_CODES_FILE), 0, 1, names);
+		return new AdminHierarchy(names);
+	}
+
+	/**
+	 * Reads the hierarchy stored along with an index
+	 * @param indexPath path to index, or root directory of a sharded index
+	 * @return the hierarchy, empty if the index has none
+	 * @throws IOException
+	 */
+	public static AdminHierarchy load(String indexPath) throws IOException {
+		File file = new File(indexPath, HIERARCHY_FILE);
+		if (!file.isFile()) {
+			return EMPTY;
+		}
+		Map<String, String> names = new HashMap<>();
+		readColumns(file, 0, 1, names);
+		return new AdminHierarchy(names);
+	}
+
+	private static void readColumns(File file, int keyColumn, int nameColumn,
+			Map<String, String> names) throws IOException {
+		if (!file.isFile()) {
+			LOG.info("No " + file + " found, skipping its names");
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] columns = line.split("\t");
+				if (columns.length > Math.max(keyColumn, nameColumn)) {
+					names.put(columns[keyColumn], columns[nameColumn]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores this hierarchy along with an index
+	 * @param indexPath path to index, or root directory of a sharded index
+	 * @throws IOException
+	 */
+	public void save(String indexPath) throws IOException {
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(indexPath, HIERARCHY_FILE)), StandardCharsets.UTF_8))) {
+			for (Map.Entry<String, String> entry : names.entrySet()) {
+				writer.write(entry.getKey());
+				writer.write('\t');
+				writer.write(entry.getValue());
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * @return number of countries and divisions named
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Sets country, admin1 and admin2 names of locations, where known
+	 * @param locations locations to enrich
+	 */
+	public void enrich(List<Location> locations) {
+		if (names.isEmpty()) {
+			return;
+		}
+		for (Location location : locations) {
+			String country = location.getCountryCode();
+			if (country == null || country.isEmpty()) {
+				continue;
+			}
+			location.setCountryName(names.get(country));
+			String admin1 = location.getAdmin1Code();
+			if (admin1 == null || admin1.isEmpty()) {
+				continue;
+			}
+			location.setAdmin1Name(names.get(country + "." + admin1));
+			String admin2 = location.getAdmin2Code();
+			if (admin2 != null && !admin2.isEmpty()) {
+				location.setAdmin2Name(names.get(country + "." + admin1 + "." + admin2));
+			}
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Alternate names of gazetteer entries read from the GeoNames
+ * alternateNamesV2.txt file, with their language and preferred / short name
+ * flags. Used while building an index, so that every alternate name is indexed
+ * as a value of its own instead of one comma joined string.
+ * <br/>
+ * Names of a geoname id are kept packed in a single string to hold the whole
+ * file in memory. Historic and colloquial names and the pseudo languages
+ * (links, postal codes, airport codes...) are left out.
+ */
+public class AlternateNames {
+
+	private static final Logger LOG = Logger.getLogger(AlternateNames.class.getName());
+	private static final Set<String> PSEUDO_LANGUAGES = new HashSet<>(Arrays.asList(
+			"link", "post", "iata", "icao", "faac", "fr_1793", "wkdt", "unlc", "tcid", "phon", "piny"));
+	private static final char ENTRY_SEPARATOR = '\u001e';
+	private static final char FIELD_SEPARATOR = '\u001f';
+	private static final String FLAGS_SEPARATOR = ":";
+	private static final String PREFERRED_FLAG = "p";
+	private static final String SHORT_FLAG = "s";
+
+	private final Map<Integer, String> names;
+
+	private AlternateNames(Map<Integer, String> names) {
+		this.names = names;
+	}
+
+	/**
+	 * An alternate name of a gazetteer entry
+	 */
+	public static class AlternateName {
+		private final String name;
+		private final String language;
+		private final boolean preferred;
+		private final boolean shortName;
+
+		public AlternateName(String name, String language, boolean preferred, boolean shortName) {
+			this.name = name;
+			this.language = language;
+			this.preferred = preferred;
+			this.shortName = shortName;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return ISO 639 language code, empty when unknown
+		 */
+		public String getLanguage() {
+			return language;
+		}
+
+		public boolean isPreferred() {
+			return preferred;
+		}
+
+		public boolean isShortName() {
+			return shortName;
+		}
+
+		/**
+		 * @return language and flags stored along with the name, e.g. en:ps
+		 */
+		public String getTag() {
+			return language + FLAGS_SEPARATOR + (preferred ? PREFERRED_FLAG : "")
+					+ (shortName ? SHORT_FLAG : "");
+		}
+
+		/**
+		 * @param tag a tag as returned by {@link #getTag()}
+		 * @param language ISO 639 language code, null for any language
+		 * @return true if tag flags a preferred or short name in the language
+		 */
+		public static boolean isPreferredTag(String tag, String language) {
+			int separator = tag.lastIndexOf(FLAGS_SEPARATOR);
+			if (separator < 0 || separator == tag.length() - 1) {
+				return false;
+			}
+			return language == null || tag.substring(0, separator).equalsIgnoreCase(language);
+		}
+	}
+
+	/**
+	 * Reads an alternateNamesV2.txt file
+	 * @param file the file
+	 * @return names by geoname id
+	 * @throws IOException
+	 */
+	public static AlternateNames load(File file) throws IOException {
+		long start = System.currentTimeMillis();
+		//appending to one builder per place, concatenating strings is quadratic in its names
+		Map<Integer, StringBuilder> packed = new HashMap<>();
+		int count = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split("\t");
+				if (columns.length < 4 || PSEUDO_LANGUAGES.contains(columns[2])
+						|| isSet(columns, 6) || isSet(columns, 7)) {
+					continue;
+				}
+				int geonameId;
+				try {
+					geonameId = Integer.parseInt(columns[1]);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				StringBuilder entries = packed.get(geonameId);
+				if (entries == null) {
+					entries = new StringBuilder();
+					packed.put(geonameId, entries);
+				} else {
+					entries.append(ENTRY_SEPARATOR);
+				}
+				entries.append(columns[2]).append(FIELD_SEPARATOR)
+						.append(isSet(columns, 4) ? PREFERRED_FLAG : "").append(isSet(columns, 5) ? SHORT_FLAG : "")
+						.append(FIELD_SEPARATOR).append(columns[3]);
+				count++;
+			}
+		}
+		Map<Integer, String> names = new HashMap<>(packed.size() * 4 / 3 + 1);
+		for (Map.Entry<Integer, StringBuilder> entries : packed.entrySet()) {
+			names.put(entries.getKey(), entries.getValue().toString());
+		}
+		LOG.info("Read " + count + " alternate names of " + names.size() + " places in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		return new AlternateNames(names);
+	}
+
+	private static boolean isSet(String[] columns, int column) {
+		return columns.length > column && "1".equals(columns[column]);
+	}
+
+	/**
+	 * @param geonameId geoname id of a gazetteer entry
+	 * @return alternate names of the entry, empty if there is none
+	 */
+	public List<AlternateName> get(int geonameId) {
+		String packed = names.get(geonameId);
+		if (packed == null) {
+			return Collections.emptyList();
+		}
+		List<AlternateName> alternateNames = new ArrayList<>();
+		int start = 0;
+		while (start <= packed.length()) {
+			int end = packed.indexOf(ENTRY_SEPARATOR, start);
+			if (end < 0) {
+				end = packed.length();
+			}
+			int language = packed.indexOf(FIELD_SEPARATOR, start);
+			int flags = packed.indexOf(FIELD_SEPARATOR, language + 1);
+			String flagValue = packed.substring(language + 1, flags);
+			alternateNames.add(new AlternateName(packed.substring(flags + 1, end),
+					packed.substring(start, language), flagValue.contains(PREFERRED_FLAG),
+					flagValue.contains(SHORT_FLAG)));
+			start = end + 1;
+		}
+		return alternateNames;
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import edu.usc.ir.geo.gazetteer.domain.AdminArea;
+
+/**
+ * Administrative boundaries loaded from a local GeoJSON file, answering which
+ * areas contain a coordinate. Boundaries are packed in an STR-tree of their
+ * bounding boxes, and every polygon ring is prepared with its edges bucketed
+ * in horizontal bands, so a point in polygon test only crosses the few edges
+ * of the band the point falls in.
+ * <br/>
+ * Polygon and MultiPolygon features are read, other geometries are skipped.
+ * The area name is read from the name property, its level from the
+ * admin_level property.
+ */
+public class BoundaryIndex {
+
+	private static final Logger LOG = Logger.getLogger(BoundaryIndex.class.getName());
+	private static final int NODE_CAPACITY = 16;
+	//edges per band of a prepared ring, on average
+	private static final int EDGES_PER_BAND = 8;
+	private static final int MAX_BANDS = 1024;
+	private static final String[] NAME_PROPERTIES = { "name", "NAME", "Name" };
+	private static final String[] LEVEL_PROPERTIES = { "admin_level", "level", "ADMIN_LEVEL" };
+
+	private final Node root;
+	private final int size;
+
+	private BoundaryIndex(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Reads a GeoJSON FeatureCollection of admin boundaries
+	 * @param file the GeoJSON file
+	 * @return the index
+	 * @throws IOException
+	 */
+	public static BoundaryIndex load(File file) throws IOException {
+		long start = System.currentTimeMillis();
+		JsonObject collection;
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			collection = new JsonParser().parse(reader).getAsJsonObject();
+		}
+		List<Node> leaves = new ArrayList<>();
+		JsonArray features = collection.getAsJsonArray("features");
+		if (features != null) {
+			for (JsonElement feature : features) {
+				Boundary boundary = readBoundary(feature.getAsJsonObject());
+				if (boundary != null) {
+					leaves.add(new Node(boundary));
+				}
+			}
+		}
+		BoundaryIndex index = new BoundaryIndex(leaves.isEmpty() ? null : pack(leaves), leaves.size());
+		LOG.info("Loaded " + leaves.size() + " boundaries from " + file + " in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		return index;
+	}
+
+	/**
+	 * @return number of boundaries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param latitude latitude of the point
+	 * @param longitude longitude of the point
+	 * @return areas containing the point, smallest first
+	 */
+	public List<AdminArea> containing(double latitude, double longitude) {
+		List<Boundary> found = new ArrayList<>();
+		if (root != null) {
+			Deque<Node> pending = new ArrayDeque<>();
+			pending.push(root);
+			while (!pending.isEmpty()) {
+				Node node = pending.pop();
+				if (!node.contains(longitude, latitude)) {
+					continue;
+				}
+				if (node.boundary != null) {
+					if (node.boundary.contains(longitude, latitude)) {
+						found.add(node.boundary);
+					}
+				} else {
+					for (Node child : node.children) {
+						pending.push(child);
+					}
+				}
+			}
+		}
+		Collections.sort(found, new Comparator<Boundary>() {
+			@Override
+			public int compare(Boundary o1, Boundary o2) {
+				return Double.compare(o1.size, o2.size);
+			}
+		});
+		List<AdminArea> areas = new ArrayList<>(found.size());
+		for (Boundary boundary : found) {
+			areas.add(boundary.area);
+		}
+		return areas;
+	}
+
+	private static Boundary readBoundary(JsonObject feature) {
+		JsonObject geometry = feature.has("geometry") && feature.get("geometry").isJsonObject()
+				? feature.getAsJsonObject("geometry") : null;
+		if (geometry == null || !geometry.has("coordinates")) {
+			return null;
+		}
+		String type = geometry.get("type").getAsString();
+		JsonArray coordinates = geometry.getAsJsonArray("coordinates");
+		List<Polygon> polygons = new ArrayList<>();
+		if ("Polygon".equals(type)) {
+			polygons.add(readPolygon(coordinates));
+		} else if ("MultiPolygon".equals(type)) {
+			for (JsonElement polygon : coordinates) {
+				polygons.add(readPolygon(polygon.getAsJsonArray()));
+			}
+		} else {
+			return null;
+		}
+
+		Map<String, String> properties = new LinkedHashMap<>();
+		if (feature.has("properties") && feature.get("properties").isJsonObject()) {
+			for (Map.Entry<String, JsonElement> property : feature.getAsJsonObject("properties").entrySet()) {
+				if (property.getValue().isJsonPrimitive()) {
+					properties.put(property.getKey(), property.getValue().getAsString());
+				}
+			}
+		}
+		AdminArea area = new AdminArea(firstOf(properties, NAME_PROPERTIES),
+				firstOf(properties, LEVEL_PROPERTIES), properties);
+		return new Boundary(area, polygons.toArray(new Polygon[polygons.size()]));
+	}
+
+	private static String firstOf(Map<String, String> properties, String[] keys) {
+		for (String key : keys) {
+			if (properties.containsKey(key)) {
+				return properties.get(key);
+			}
+		}
+		return null;
+	}
+
+	private static Polygon readPolygon(JsonArray rings) {
+		Ring outer = readRing(rings.get(0).getAsJsonArray());
+		Ring[] holes = new Ring[rings.size() - 1];
+		for (int i = 1; i < rings.size(); i++) {
+			holes[i - 1] = readRing(rings.get(i).getAsJsonArray());
+		}
+		return new Polygon(outer, holes);
+	}
+
+	private static Ring readRing(JsonArray positions) {
+		int n = positions.size();
+		//GeoJSON rings repeat the first position at the end
+		if (n > 1 && positions.get(0).equals(positions.get(n - 1))) {
+			n--;
+		}
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for (int i = 0; i < n; i++) {
+			JsonArray position = positions.get(i).getAsJsonArray();
+			xs[i] = position.get(0).getAsDouble();
+			ys[i] = position.get(1).getAsDouble();
+		}
+		return new Ring(xs, ys);
+	}
+
+	/**
+	 * Packs nodes into parents with the Sort-Tile-Recursive algorithm, up to a single root
+	 */
+	private static Node pack(List<Node> nodes) {
+		while (nodes.size() > 1) {
+			int parentCount = (nodes.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+			int sliceCount = (int) Math.ceil(Math.sqrt(parentCount));
+			int sliceSize = sliceCount * NODE_CAPACITY;
+			Collections.sort(nodes, new Comparator<Node>() {
+				@Override
+				public int compare(Node o1, Node o2) {
+					return Double.compare(o1.minX + o1.maxX, o2.minX + o2.maxX);
+				}
+			});
+			List<Node> parents = new ArrayList<>(parentCount);
+			for (int s = 0; s < nodes.size(); s += sliceSize) {
+				List<Node> slice = new ArrayList<>(nodes.subList(s, Math.min(s + sliceSize, nodes.size())));
+				Collections.sort(slice, new Comparator<Node>() {
+					@Override
+					public int compare(Node o1, Node o2) {
+						return Double.compare(o1.minY + o1.maxY, o2.minY + o2.maxY);
+					}
+				});
+				for (int c = 0; c < slice.size(); c += NODE_CAPACITY) {
+					parents.add(new Node(slice.subList(c, Math.min(c + NODE_CAPACITY, slice.size()))));
+				}
+			}
+			nodes = parents;
+		}
+		return nodes.get(0);
+	}
+
+	private static class Node {
+		private double minX = Double.MAX_VALUE;
+		private double minY = Double.MAX_VALUE;
+		private double maxX = -Double.MAX_VALUE;
+		private double maxY = -Double.MAX_VALUE;
+		private final Boundary boundary;
+		private final Node[] children;
+
+		Node(Boundary boundary) {
+			this.boundary = boundary;
+			this.children = null;
+			for (Polygon polygon : boundary.polygons) {
+				Ring ring = polygon.outer;
+				minX = Math.min(minX, ring.minX);
+				minY = Math.min(minY, ring.minY);
+				maxX = Math.max(maxX, ring.maxX);
+				maxY = Math.max(maxY, ring.maxY);
+			}
+		}
+
+		Node(List<Node> children) {
+			this.boundary = null;
+			this.children = children.toArray(new Node[children.size()]);
+			for (Node child : children) {
+				minX = Math.min(minX, child.minX);
+				minY = Math.min(minY, child.minY);
+				maxX = Math.max(maxX, child.maxX);
+				maxY = Math.max(maxY, child.maxY);
+			}
+		}
+
+		boolean contains(double x, double y) {
+			return x >= minX && x <= maxX && y >= minY && y <= maxY;
+		}
+	}
+
+	private static class Boundary {
+		private final AdminArea area;
+		private final Polygon[] polygons;
+		//planar area in square degrees, only used to order nested areas
+		private final double size;
+
+		Boundary(AdminArea area, Polygon[] polygons) {
+			this.area = area;
+			this.polygons = polygons;
+			double total = 0;
+			for (Polygon polygon : polygons) {
+				total += polygon.outer.size();
+			}
+			this.size = total;
+		}
+
+		boolean contains(double x, double y) {
+			for (Polygon polygon : polygons) {
+				if (polygon.contains(x, y)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class Polygon {
+		private final Ring outer;
+		private final Ring[] holes;
+
+		Polygon(Ring outer, Ring[] holes) {
+			this.outer = outer;
+			this.holes = holes;
+		}
+
+		boolean contains(double x, double y) {
+			if (!outer.contains(x, y)) {
+				return false;
+			}
+			for (Ring hole : holes) {
+				if (hole.contains(x, y)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A closed ring prepared for point in polygon tests
+	 */
+	private static class Ring {
+		private final double[] xs;
+		private final double[] ys;
+		private double minX = Double.MAX_VALUE;
+		private double minY = Double.MAX_VALUE;
+		private double maxX = -Double.MAX_VALUE;
+		private double maxY = -Double.MAX_VALUE;
+		private final int bandCount;
+		private final double bandHeight;
+		//indexes of the edges crossing each band
+		private final int[][] bandEdges;
+
+		Ring(double[] xs, double[] ys) {
+			this.xs = xs;
+			this.ys = ys;
+			for (int i = 0; i < xs.length; i++) {
+				minX = Math.min(minX, xs[i]);
+				minY = Math.min(minY, ys[i]);
+				maxX = Math.max(maxX, xs[i]);
+				maxY = Math.max(maxY, ys[i]);
+			}
+			int bands = Math.max(1, Math.min(MAX_BANDS, xs.length / EDGES_PER_BAND));
+			bandCount = bands;
+			bandHeight = (maxY - minY) / bands;
+			int[] counts = new int[bands];
+			for (int i = 0; i < xs.length; i++) {
+				for (int b = band(edgeMinY(i)); b <= band(edgeMaxY(i)); b++) {
+					counts[b]++;
+				}
+			}
+			bandEdges = new int[bands][];
+			for (int b = 0; b < bands; b++) {
+				bandEdges[b] = new int[counts[b]];
+				counts[b] = 0;
+			}
+			for (int i = 0; i < xs.length; i++) {
+				for (int b = band(edgeMinY(i)); b <= band(edgeMaxY(i)); b++) {
+					bandEdges[b][counts[b]++] = i;
+				}
+			}
+		}
+
+		private double edgeMinY(int i) {
+			return Math.min(ys[i], ys[(i + 1) % ys.length]);
+		}
+
+		private double edgeMaxY(int i) {
+			return Math.max(ys[i], ys[(i + 1) % ys.length]);
+		}
+
+		private int band(double y) {
+			if (bandHeight <= 0) {
+				return 0;
+			}
+			return Math.max(0, Math.min(bandCount - 1, (int) ((y - minY) / bandHeight)));
+		}
+
+		boolean contains(double x, double y) {
+			if (x < minX || x > maxX || y < minY || y > maxY) {
+				return false;
+			}
+			boolean inside = false;
+			for (int i : bandEdges[band(y)]) {
+				int j = (i + 1) % xs.length;
+				if ((ys[i] > y) != (ys[j] > y)
+						&& x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+					inside = !inside;
+				}
+			}
+			return inside;
+		}
+
+		/**
+		 * @return planar area enclosed by the ring, shoelace formula
+		 */
+		double size() {
+			double twiceArea = 0;
+			for (int i = 0; i < xs.length; i++) {
+				int j = (i + 1) % xs.length;
+				twiceArea += xs[i] * ys[j] - xs[j] * ys[i];
+			}
+			return Math.abs(twiceArea) / 2;
+		}
+	}
+}
@@ -0,0 +1,550 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import edu.usc.ir.geo.gazetteer.domain.Location;
+
+/**
+ * Geocodes every row of a large delimited file, e.g. a historical backfill,
+ * appending the best location of each row as extra columns. The first line of
+ * the input is a header, the delimiter (tab or comma) is the one it uses.
+ * <br/>
+ * Rows are read in chunks. The distinct lookups of a chunk are resolved once,
+ * single names in one batch search per country, by worker threads sharing the
+ * resolver, and chunks are written in input order.
+ * <br/>
+ * Progress is recorded in a checkpoint file next to the output, holding the
+ * input offset and output length of the last written chunk. A job restarted
+ * with the same input and output truncates the output to the checkpoint and
+ * carries on from the recorded input offset. The checkpoint is removed once
+ * the whole input is done.
+ */
+public class BulkGeocoder {
+
+	private static final Logger LOG = Logger.getLogger(BulkGeocoder.class.getName());
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+	public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	//checkpoints sync the output to disk, so they are taken at most this often
+	private static final long CHECKPOINT_INTERVAL_MS = 10000;
+	private static final String INPUT_PROP = "input.path";
+	private static final String INPUT_LENGTH_PROP = "input.length";
+	private static final String INPUT_MODIFIED_PROP = "input.modified";
+	private static final String INPUT_OFFSET_PROP = "input.offset";
+	private static final String OUTPUT_LENGTH_PROP = "output.length";
+	private static final String ROWS_PROP = "rows";
+	private static final String COLUMNS_PROP = "columns";
+	private static final String[] RESULT_COLUMNS = {"geonameId", "geoName", "geoLatitude", "geoLongitude",
+			"geoCountryCode", "geoAdmin1Code", "geoAdmin2Code", "geoPopulation", "geoDistance"};
+
+	private final GeoNameResolver resolver;
+	private final String columns;
+	private String countryCode;
+	private String language;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int workers = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param resolver the open resolver
+	 * @param columns columns looked up, by header name or 1 based number:
+	 * name=column for place names, or lat=column,lon=column for coordinates,
+	 * optionally with country=column restricting names to a country
+	 */
+	public BulkGeocoder(GeoNameResolver resolver, String columns) {
+		this.resolver = resolver;
+		this.columns = columns;
+	}
+
+	/**
+	 * @param countryCode ISO country code names are restricted to when the row has none
+	 */
+	public void setCountryCode(String countryCode) {
+		this.countryCode = countryCode;
+	}
+
+	/**
+	 * @param language ISO 639 code of names, null for any language
+	 */
+	public void setLanguage(String language) {
+		this.language = language;
+	}
+
+	/**
+	 * @param chunkSize number of rows resolved together
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * @param workers number of chunks resolved in parallel
+	 */
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+	/**
+	 * Geocodes the input, resuming from the checkpoint of an interrupted run
+	 * @param input delimited file with a header line
+	 * @param output written with the input columns followed by the location columns
+	 * @return number of rows written by this run
+	 * @throws IOException when the input changed since the checkpoint, or on failure
+	 */
+	public long run(File input, File output) throws IOException {
+		File checkpointFile = new File(output.getPath() + CHECKPOINT_SUFFIX);
+		Properties checkpoint = readCheckpoint(checkpointFile, input);
+		long rows = checkpoint == null ? 0 : Long.parseLong(checkpoint.getProperty(ROWS_PROP));
+
+		try (RecordReader reader = new RecordReader(new FileInputStream(input))) {
+			String header = reader.readRecord();
+			if (header == null) {
+				throw new IOException("Input is empty: " + input);
+			}
+			char delimiter = header.indexOf('\t') >= 0 ? '\t' : ',';
+			final Lookup lookup = new Lookup(parse(header, delimiter), columns);
+
+			if (checkpoint != null) {
+				long outputLength = Long.parseLong(checkpoint.getProperty(OUTPUT_LENGTH_PROP));
+				try (RandomAccessFile truncated = new RandomAccessFile(output, "rw")) {
+					truncated.setLength(outputLength);
+				}
+				reader.skipTo(Long.parseLong(checkpoint.getProperty(INPUT_OFFSET_PROP)));
+				LOG.info("Resuming " + input + " after " + rows + " rows");
+			}
+
+			ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+				private final AtomicInteger counter = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "gazetteer-bulk-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			long start = System.currentTimeMillis();
+			long written = 0;
+			try (FileOutputStream fileOut = new FileOutputStream(output, checkpoint != null);
+					Writer writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8),
+							1 << 16)) {
+				if (checkpoint == null) {
+					writer.write(header);
+					for (String column : RESULT_COLUMNS) {
+						writer.write(delimiter);
+						writer.write(column);
+					}
+					writer.write('\n');
+				}
+				Deque<Future<Chunk>> pending = new ArrayDeque<>();
+				long lastCheckpoint = System.currentTimeMillis();
+				boolean done = false;
+				while (!done || !pending.isEmpty()) {
+					if (!done && pending.size() < workers * 2) {
+						final List<String> records = new ArrayList<>(chunkSize);
+						String record;
+						while (records.size() < chunkSize && (record = reader.readRecord()) != null) {
+							records.add(record);
+						}
+						done = records.size() < chunkSize;
+						if (!records.isEmpty()) {
+							final char chunkDelimiter = delimiter;
+							final long endOffset = reader.getOffset();
+							pending.add(executor.submit(new Callable<Chunk>() {
+								@Override
+								public Chunk call() throws IOException {
+									return resolve(records, chunkDelimiter, lookup, endOffset);
+								}
+							}));
+						}
+						continue;
+					}
+					Chunk chunk = pending.poll().get();
+					for (String line : chunk.lines) {
+						writer.write(line);
+						writer.write('\n');
+					}
+					rows += chunk.lines.size();
+					written += chunk.lines.size();
+					if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+						writer.flush();
+						fileOut.getChannel().force(false);
+						writeCheckpoint(checkpointFile, input, chunk.endOffset, fileOut.getChannel().size(), rows);
+						lastCheckpoint = System.currentTimeMillis();
+						LOG.info("Geocoded " + rows + " rows, "
+								+ written * 1000 / Math.max(1, lastCheckpoint - start) + " rows/s");
+					}
+				}
+				writer.flush();
+				fileOut.getChannel().force(false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while geocoding " + input);
+			} catch (ExecutionException e) {
+				throw new IOException("Failed to geocode " + input, e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+			Files.deleteIfExists(checkpointFile.toPath());
+			LOG.info("Geocoded " + rows + " rows of " + input + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+			return written;
+		}
+	}
+
+	private Chunk resolve(List<String> records, char delimiter, Lookup lookup, long endOffset)
+			throws IOException {
+		List<List<String>> rows = new ArrayList<>(records.size());
+		//distinct lookups of the chunk, names by country, and coordinates
+		Map<String, Map<String, String>> namesByCountry = new LinkedHashMap<>();
+		Map<String, double[]> coordinates = new LinkedHashMap<>();
+		List<String> keys = new ArrayList<>(records.size());
+		for (String record : records) {
+			List<String> row = parse(record, delimiter);
+			rows.add(row);
+			String key = null;
+			if (lookup.nameColumn >= 0) {
+				String name = lookup.value(row, lookup.nameColumn);
+				String country = lookup.countryColumn >= 0 ? lookup.value(row, lookup.countryColumn) : null;
+				if (country == null || country.isEmpty()) {
+					country = countryCode;
+				}
+				if (name != null && !name.trim().isEmpty()) {
+					String normalized = name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+					key = country + '\t' + normalized;
+					Map<String, String> names = namesByCountry.get(country);
+					if (names == null) {
+						names = new LinkedHashMap<>();
+						namesByCountry.put(country, names);
+					}
+					if (!names.containsKey(normalized)) {
+						names.put(normalized, name.trim());
+					}
+				}
+			} else {
+				String latitudeValue = lookup.value(row, lookup.latitudeColumn);
+				String longitudeValue = lookup.value(row, lookup.longitudeColumn);
+				try {
+					if (latitudeValue != null && longitudeValue != null) {
+						double latitude = Double.parseDouble(latitudeValue.trim());
+						double longitude = Double.parseDouble(longitudeValue.trim());
+						if (Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180) {
+							key = latitude + "," + longitude;
+							coordinates.put(key, new double[] {latitude, longitude});
+						}
+					}
+				} catch (NumberFormatException e) {
+					//left unresolved
+				}
+			}
+			keys.add(key);
+		}
+
+		Map<String, Location> resolved = new HashMap<>();
+		for (Map.Entry<String, Map<String, String>> names : namesByCountry.entrySet()) {
+			List<String> searched = new ArrayList<>(names.getValue().values());
+			Map<String, List<Location>> locations = resolver.searchGeoName(searched, 1, names.getKey(),
+					language, false);
+			for (Map.Entry<String, String> name : names.getValue().entrySet()) {
+				List<Location> found = locations.get(name.getValue());
+				if (found != null && !found.isEmpty()) {
+					resolved.put(names.getKey() + '\t' + name.getKey(), found.get(0));
+				}
+			}
+		}
+		for (Map.Entry<String, double[]> coordinate : coordinates.entrySet()) {
+			List<Location> found = resolver.searchNearest(coordinate.getValue()[0], coordinate.getValue()[1], 1,
+					GeoNameResolver.DEFAULT_MAX_NEAREST_RADIUS, GeoNameResolver.NearbyOrder.DISTANCE);
+			if (!found.isEmpty()) {
+				resolved.put(coordinate.getKey(), found.get(0));
+			}
+		}
+
+		List<String> lines = new ArrayList<>(records.size());
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < records.size(); i++) {
+			line.setLength(0);
+			line.append(records.get(i));
+			for (int column = rows.get(i).size(); column < lookup.headerSize; column++) {
+				line.append(delimiter);
+			}
+			Location location = keys.get(i) == null ? null : resolved.get(keys.get(i));
+			for (String value : locationColumns(location)) {
+				line.append(delimiter);
+				appendField(line, value, delimiter);
+			}
+			lines.add(line.toString());
+		}
+		return new Chunk(lines, endOffset);
+	}
+
+	private static String[] locationColumns(Location location) {
+		if (location == null) {
+			return new String[RESULT_COLUMNS.length];
+		}
+		return new String[] {String.valueOf(location.getGeonameId()), location.getName(),
+				String.valueOf(location.getLatitude()), String.valueOf(location.getLongitude()),
+				location.getCountryCode(), location.getAdmin1Code(), location.getAdmin2Code(),
+				String.valueOf(location.getPopulation()),
+				location.getDistance() == null ? null : String.valueOf(location.getDistance())};
+	}
+
+	private static void appendField(StringBuilder line, String value, char delimiter) {
+		if (value == null) {
+			return;
+		}
+		if (value.indexOf(delimiter) >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+				|| value.indexOf('\r') >= 0) {
+			line.append('"').append(value.replace("\"", "\"\"")).append('"');
+		} else {
+			line.append(value);
+		}
+	}
+
+	/**
+	 * Splits a record, fields may be quoted with double quotes, a quote
+	 * inside a quoted field being doubled
+	 */
+	static List<String> parse(String record, char delimiter) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		boolean wasQuoted = false;
+		for (int i = 0; i < record.length(); i++) {
+			char c = record.charAt(i);
+			if (quoted) {
+				if (c == '"') {
+					if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+						field.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"' && field.length() == 0 && !wasQuoted) {
+				quoted = true;
+				wasQuoted = true;
+			} else if (c == delimiter) {
+				fields.add(field.toString());
+				field.setLength(0);
+				wasQuoted = false;
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private Properties readCheckpoint(File checkpointFile, File input) throws IOException {
+		if (!checkpointFile.exists()) {
+			return null;
+		}
+		Properties checkpoint = new Properties();
+		try (InputStream in = new FileInputStream(checkpointFile)) {
+			checkpoint.load(in);
+		}
+		if (!input.getAbsolutePath().equals(checkpoint.getProperty(INPUT_PROP))
+				|| !String.valueOf(input.length()).equals(checkpoint.getProperty(INPUT_LENGTH_PROP))
+				|| !String.valueOf(input.lastModified()).equals(checkpoint.getProperty(INPUT_MODIFIED_PROP))
+				|| !columns.equals(checkpoint.getProperty(COLUMNS_PROP))) {
+			throw new IOException("Checkpoint " + checkpointFile + " was taken for another input or columns, "
+					+ "delete it to start over");
+		}
+		return checkpoint;
+	}
+
+	private void writeCheckpoint(File checkpointFile, File input, long inputOffset, long outputLength, long rows)
+			throws IOException {
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty(INPUT_PROP, input.getAbsolutePath());
+		checkpoint.setProperty(INPUT_LENGTH_PROP, String.valueOf(input.length()));
+		checkpoint.setProperty(INPUT_MODIFIED_PROP, String.valueOf(input.lastModified()));
+		checkpoint.setProperty(COLUMNS_PROP, columns);
+		checkpoint.setProperty(INPUT_OFFSET_PROP, String.valueOf(inputOffset));
+		checkpoint.setProperty(OUTPUT_LENGTH_PROP, String.valueOf(outputLength));
+		checkpoint.setProperty(ROWS_PROP, String.valueOf(rows));
+		File staging = new File(checkpointFile.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(staging)) {
+			checkpoint.store(out, "bulk geocoding progress");
+			out.getChannel().force(false);
+		}
+		Files.move(staging.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Columns looked up, resolved against the header
+	 */
+	private static class Lookup {
+		private final int headerSize;
+		private int nameColumn = -1;
+		private int countryColumn = -1;
+		private int latitudeColumn = -1;
+		private int longitudeColumn = -1;
+
+		private Lookup(List<String> header, String spec) {
+			headerSize = header.size();
+			for (String part : spec.split(",")) {
+				String[] pair = part.split("=", 2);
+				if (pair.length != 2) {
+					throw new IllegalArgumentException("Expected role=column, got " + part);
+				}
+				int column = column(header, pair[1].trim());
+				switch (pair[0].trim().toLowerCase(Locale.ROOT)) {
+				case "name":
+					nameColumn = column;
+					break;
+				case "country":
+					countryColumn = column;
+					break;
+				case "lat":
+					latitudeColumn = column;
+					break;
+				case "lon":
+					longitudeColumn = column;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown column role " + pair[0]
+							+ ", expected name, country, lat or lon");
+				}
+			}
+			if (nameColumn < 0 && (latitudeColumn < 0 || longitudeColumn < 0)) {
+				throw new IllegalArgumentException("Columns need a name, or a lat and a lon: " + spec);
+			}
+		}
+
+		private static int column(List<String> header, String column) {
+			int index = header.indexOf(column);
+			if (index >= 0) {
+				return index;
+			}
+			if (column.matches("\\d+") && Integer.parseInt(column) >= 1
+					&& Integer.parseInt(column) <= header.size()) {
+				return Integer.parseInt(column) - 1;
+			}
+			throw new IllegalArgumentException("No column " + column + " in header " + header);
+		}
+
+		private String value(List<String> row, int column) {
+			return column < row.size() ? row.get(column) : null;
+		}
+	}
+
+	private static class Chunk {
+		private final List<String> lines;
+		//input offset following the last record of the chunk
+		private final long endOffset;
+
+		private Chunk(List<String> lines, long endOffset) {
+			this.lines = lines;
+			this.endOffset = endOffset;
+		}
+	}
+
+	/**
+	 * Reads UTF-8 records while counting bytes, so a checkpoint can record
+	 * where the input stopped. A record goes on past a line end inside quotes.
+	 */
+	private static class RecordReader implements AutoCloseable {
+		private final InputStream in;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+		private long offset;
+
+		private RecordReader(InputStream in) {
+			this.in = new BufferedInputStream(in, 1 << 16);
+		}
+
+		private long getOffset() {
+			return offset;
+		}
+
+		private void skipTo(long target) throws IOException {
+			while (offset < target) {
+				long skipped = in.skip(target - offset);
+				if (skipped <= 0) {
+					throw new IOException("Input is shorter than the checkpoint offset " + target);
+				}
+				offset += skipped;
+			}
+		}
+
+		/**
+		 * @return next record without its line end, null at end of input
+		 */
+		private String readRecord() throws IOException {
+			line.reset();
+			int quotes = 0;
+			int b;
+			boolean read = false;
+			while ((b = in.read()) != -1) {
+				offset++;
+				read = true;
+				if (b == '"') {
+					quotes++;
+				} else if (b == '\n' && quotes % 2 == 0) {
+					break;
+				}
+				line.write(b);
+			}
+			if (!read) {
+				return null;
+			}
+			String record = new String(line.toByteArray(), StandardCharsets.UTF_8);
+			return record.endsWith("\r") ? record.substring(0, record.length() - 1) : record;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import edu.usc.ir.geo.gazetteer.domain.Location;
+
+/**
+ * Disambiguates the names of one batch together. Names mentioned together
+ * usually refer to places close to each other, so "Paris" next to "Dallas"
+ * and "Texas" is Paris, TX rather than Paris, France.
+ * <br/>
+ * Every combination of candidates is scored by the ranking weights of its
+ * candidates plus the geographic coherence of every pair of them: shared
+ * country, shared admin1 division and proximity. Combinations are explored
+ * with a beam search, names with fewer candidates first, keeping the compute
+ * budget bounded by the beam width and the candidates considered per name.
+ */
+class ContextDisambiguator {
+
+	static final int CANDIDATES_PER_NAME = 5;
+	private static final int BEAM_WIDTH = 8;
+	private static final int WEIGHT_SAME_COUNTRY = 2000;
+	private static final int WEIGHT_SAME_ADMIN1 = 3000;
+	private static final int WEIGHT_PROXIMITY = 3000;
+	//pairs farther apart get no proximity weight
+	private static final double PROXIMITY_HORIZON_KM = 1000;
+	private static final double EARTH_RADIUS_KM = 6371.0088;
+	private static final int MAX_PAIR_WEIGHT = WEIGHT_SAME_COUNTRY + WEIGHT_SAME_ADMIN1 + WEIGHT_PROXIMITY;
+	//admin code of places not within any division
+	private static final String NO_ADMIN_CODE = "00";
+
+	/**
+	 * Moves the most coherent candidate of every name to the head of its list
+	 * @param rankedCandidates candidates of every name, best ranked first with
+	 * weights set. Lists are reordered in place.
+	 */
+	void disambiguate(Map<String, List<Location>> rankedCandidates) {
+		List<List<Location>> lists = new ArrayList<>();
+		boolean ambiguous = false;
+		for (List<Location> candidates : rankedCandidates.values()) {
+			if (!candidates.isEmpty()) {
+				lists.add(candidates);
+				ambiguous |= candidates.size() > 1;
+			}
+		}
+		if (lists.size() < 2 || !ambiguous) {
+			return;
+		}
+		//unambiguous names first, they give context to others for free
+		Collections.sort(lists, new Comparator<List<Location>>() {
+			@Override
+			public int compare(List<Location> o1, List<Location> o2) {
+				return Integer.compare(Math.min(o1.size(), CANDIDATES_PER_NAME),
+						Math.min(o2.size(), CANDIDATES_PER_NAME));
+			}
+		});
+		Candidate[][] candidates = new Candidate[lists.size()][];
+		for (int n = 0; n < lists.size(); n++) {
+			candidates[n] = prune(lists.get(n), (lists.size() - 1) * MAX_PAIR_WEIGHT);
+		}
+
+		List<State> beam = Collections.singletonList(new State(new int[0], 0));
+		for (int n = 0; n < candidates.length; n++) {
+			List<State> next = new ArrayList<>(beam.size() * candidates[n].length);
+			for (State state : beam) {
+				for (int c = 0; c < candidates[n].length; c++) {
+					long score = state.score + candidates[n][c].weight;
+					for (int m = 0; m < n; m++) {
+						score += coherence(candidates[n][c], candidates[m][state.choices[m]]);
+					}
+					int[] choices = Arrays.copyOf(state.choices, n + 1);
+					choices[n] = c;
+					next.add(new State(choices, score));
+				}
+			}
+			Collections.sort(next);
+			beam = next.size() > BEAM_WIDTH ? next.subList(0, BEAM_WIDTH) : next;
+		}
+
+		int[] best = beam.get(0).choices;
+		for (int n = 0; n < candidates.length; n++) {
+			Location chosen = candidates[n][best[n]].location;
+			List<Location> list = lists.get(n);
+			if (list.get(0) != chosen) {
+				list.remove(chosen);
+				list.add(0, chosen);
+			}
+		}
+	}
+
+	/**
+	 * Takes top candidates of a name, leaving out those whose weight is too far
+	 * behind the best one to be made up by any context
+	 */
+	private static Candidate[] prune(List<Location> ranked, long maxContextWeight) {
+		int size = Math.min(ranked.size(), CANDIDATES_PER_NAME);
+		List<Candidate> kept = new ArrayList<>(size);
+		long best = ranked.get(0).getWeight();
+		for (int i = 0; i < size; i++) {
+			Location location = ranked.get(i);
+			if (best - location.getWeight() <= maxContextWeight) {
+				kept.add(new Candidate(location));
+			}
+		}
+		return kept.toArray(new Candidate[kept.size()]);
+	}
+
+	private static long coherence(Candidate a, Candidate b) {
+		long weight = 0;
+		if (a.countryCode != null && a.countryCode.equals(b.countryCode)) {
+			weight += WEIGHT_SAME_COUNTRY;
+			if (a.admin1Code != null && a.admin1Code.equals(b.admin1Code)) {
+				weight += WEIGHT_SAME_ADMIN1;
+			}
+		}
+		double distance = distanceKm(a, b);
+		if (distance < PROXIMITY_HORIZON_KM) {
+			weight += Math.round(WEIGHT_PROXIMITY * (1 - distance / PROXIMITY_HORIZON_KM));
+		}
+		return weight;
+	}
+
+	/**
+	 * Haversine distance over precomputed radians
+	 */
+	private static double distanceKm(Candidate a, Candidate b) {
+		double sinLat = Math.sin((b.latitude - a.latitude) / 2);
+		double sinLon = Math.sin((b.longitude - a.longitude) / 2);
+		double h = sinLat * sinLat + a.cosLatitude * b.cosLatitude * sinLon * sinLon;
+		return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+	}
+
+	private static class Candidate {
+		private final Location location;
+		private final long weight;
+		private final String countryCode;
+		private final String admin1Code;
+		private final double latitude;
+		private final double longitude;
+		private final double cosLatitude;
+
+		Candidate(Location location) {
+			this.location = location;
+			this.weight = location.getWeight();
+			this.countryCode = location.getCountryCode();
+			String admin1 = location.getAdmin1Code();
+			this.admin1Code = admin1 == null || admin1.isEmpty() || NO_ADMIN_CODE.equals(admin1)
+					? null : admin1;
+			this.latitude = Math.toRadians(location.getLatitude());
+			this.longitude = Math.toRadians(location.getLongitude());
+			this.cosLatitude = Math.cos(latitude);
+		}
+	}
+
+	private static class State implements Comparable<State> {
+		private final int[] choices;
+		private final long score;
+
+		State(int[] choices, long score) {
+			this.choices = choices;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(State o) {
+			return Long.compare(o.score, score);
+		}
+	}
+}
@@ -18,6 +18,8 @@
 package edu.usc.ir.geo.gazetteer;
 
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -128,6 +130,34 @@ public class CustomLuceneGeoGazetteerComparator {
 				return EnumUtils.isValidEnum(FeatureCode.class, val);
 			}
 		}
+
+		//rank of every known code, avoids exception driven Enum.valueOf lookups
+		private static final Map<String, Integer> RANKS = new HashMap<>();
+		static {
+			for (FeatureCode code : FeatureCode.values()) {
+				RANKS.put(code.name(), code.ordinal());
+			}
+		}
+		/** Rank of codes missing from FeatureCode, sorted after all known codes */
+		static final int UNKNOWN_RANK = Integer.MAX_VALUE;
+
+		/**
+		 * @param featureCode a GeoNames feature code
+		 * @return position of the code in sort order, {@link #UNKNOWN_RANK} if not known
+		 */
+		static int rankOf(String featureCode) {
+			Integer rank = RANKS.get(StringUtils.trim(featureCode));
+			return rank == null ? UNKNOWN_RANK : rank;
+		}
+
+		private static int rankOf(Location location) {
+			int rank = location.getFeatureRank();
+			if (rank < 0) {
+				rank = rankOf(location.getFeatureCode());
+				location.setFeatureRank(rank);
+			}
+			return rank;
+		}
 		
 		@Override
 		public int compare(Location o1, Location o2) {
@@ -140,24 +170,9 @@ public class CustomLuceneGeoGazetteerComparator {
 				return -1;
 			}
 
-			String code1 = StringUtils.trim(o1.getFeatureCode());
-			String code2 = StringUtils.trim(o2.getFeatureCode());
-
-			int res;
-			try {
-				res = FeatureCode.valueOf(code1).compareTo(FeatureCode.valueOf(code2));
-
-			} catch (IllegalArgumentException e) {
-				// If feature code is not present in Enum return 0.
-				// This is to safeguard from future changes in GeoNamesdata set
-				// LOG.warning(e.getMessage()); //Uncomment when implemented all codes
-
-				// give higher rank to values present in enum
-				// if enum is present it's treated as smaller than other
-				res = !FeatureCode.exists(code1) ? !FeatureCode.exists(code2) ? 0 : 1000 : -1000;
-			}
-
-			return res;
+			// Codes not present in Enum compare equal to each other and after known codes.
+			// This is to safeguard from future changes in GeoNamesdata set
+			return Integer.compare(rankOf(o1), rankOf(o2));
 		}
 
 	}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * Defines how the index directory is opened for searching and how much of it
+ * is kept resident in memory.
+ */
+public enum DirectoryMode {
+	/** Lets lucene pick the best implementation for the platform */
+	FS,
+	/** Memory mapped files, pages are loaded on demand */
+	MMAP,
+	/** Memory mapped files, all pages are touched once when the index is opened */
+	MMAP_PRELOAD,
+	/** Positional reads through a FileChannel */
+	NIO,
+	/** Copies the whole index to heap, only suitable for small indexes */
+	RAM;
+
+	/**
+	 * Opens directory at given path
+	 * @param path path of index directory
+	 * @return opened directory
+	 * @throws IOException
+	 */
+	public Directory open(Path path) throws IOException {
+		switch (this) {
+		case MMAP:
+		case MMAP_PRELOAD:
+			return new MMapDirectory(path);
+		case NIO:
+			return new NIOFSDirectory(path);
+		case RAM:
+			try (Directory fsDir = FSDirectory.open(path)) {
+				return new RAMDirectory(fsDir, IOContext.READONCE);
+			}
+		default:
+			return FSDirectory.open(path);
+		}
+	}
+
+	/**
+	 * @return true if the whole directory should be paged in on open
+	 */
+	public boolean isPreload() {
+		return this == MMAP_PRELOAD;
+	}
+
+	/**
+	 * @return the option value of this mode, e.g. mmap-preload
+	 */
+	public String getOptionValue() {
+		return name().toLowerCase().replace('_', '-');
+	}
+
+	/**
+	 * Parses the CLI / system property form of a mode, e.g. mmap-preload
+	 * @param value mode name, null for {@link #FS}
+	 * @return parsed mode
+	 * @throws IllegalArgumentException if value is not a known mode
+	 */
+	public static DirectoryMode parse(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return FS;
+		}
+		return valueOf(value.trim().toUpperCase().replace('-', '_'));
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FloatDocValuesField;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.queries.CustomScoreProvider;
+import org.apache.lucene.queries.CustomScoreQuery;
+import org.apache.lucene.search.Query;
+
+import com.spatial4j.core.distance.DistanceUtils;
+
+import edu.usc.ir.geo.gazetteer.GeoNameResolver.NearbyOrder;
+import edu.usc.ir.geo.gazetteer.domain.Location;
+
+/**
+ * Great circle distances in miles from one coordinate. Places are points of
+ * the unit sphere, indexed as the three float doc values of their vector, so
+ * the distance to a place is a chord length and one asin instead of the
+ * trigonometry of its latitude and longitude. Distances of many places are
+ * computed in one loop by {@link #annotate}, and hits of a name query are
+ * scored by distance inside Lucene by {@link #rank}.
+ */
+public class DistanceKernel {
+
+	public static final String FIELD_NAME_UNIT_X = "unitX";
+	public static final String FIELD_NAME_UNIT_Y = "unitY";
+	public static final String FIELD_NAME_UNIT_Z = "unitZ";
+
+	private final double latitude;
+	private final double longitude;
+	private final double x;
+	private final double y;
+	private final double z;
+
+	/**
+	 * @param latitude latitude distances are measured from
+	 * @param longitude longitude distances are measured from
+	 */
+	public DistanceKernel(double latitude, double longitude) {
+		this.latitude = latitude;
+		this.longitude = longitude;
+		double[] vector = unitVector(latitude, longitude);
+		this.x = vector[0];
+		this.y = vector[1];
+		this.z = vector[2];
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * @return x, y and z of the point of the unit sphere at a coordinate
+	 */
+	public static double[] unitVector(double latitude, double longitude) {
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double cosLat = Math.cos(lat);
+		return new double[] { cosLat * Math.cos(lon), cosLat * Math.sin(lon), Math.sin(lat) };
+	}
+
+	/**
+	 * Adds the unit vector of a place to its document
+	 */
+	static void addUnitVector(Document doc, double latitude, double longitude) {
+		double[] vector = unitVector(latitude, longitude);
+		doc.add(new FloatDocValuesField(FIELD_NAME_UNIT_X, (float) vector[0]));
+		doc.add(new FloatDocValuesField(FIELD_NAME_UNIT_Y, (float) vector[1]));
+		doc.add(new FloatDocValuesField(FIELD_NAME_UNIT_Z, (float) vector[2]));
+	}
+
+	/**
+	 * @return miles to the point of the unit sphere (x, y, z)
+	 */
+	public double miles(double x, double y, double z) {
+		double dx = this.x - x;
+		double dy = this.y - y;
+		double dz = this.z - z;
+		//a chord of length c spans an angle of 2 asin(c / 2)
+		double halfChord = Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+		return 2 * Math.asin(Math.min(halfChord, 1)) * DistanceUtils.EARTH_EQUATORIAL_RADIUS_MI;
+	}
+
+	/**
+	 * @return miles to a location
+	 */
+	public double miles(Location location) {
+		double[] vector = unitVector(location.getLatitude(), location.getLongitude());
+		return miles(vector[0], vector[1], vector[2]);
+	}
+
+	/**
+	 * Sets the distance of every location to the distance in miles from the
+	 * coordinate of this kernel
+	 */
+	public void annotate(List<Location> locations) {
+		int n = locations.size();
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		double[] zs = new double[n];
+		for (int i = 0; i < n; i++) {
+			Location location = locations.get(i);
+			double lat = Math.toRadians(location.getLatitude());
+			double lon = Math.toRadians(location.getLongitude());
+			double cosLat = Math.cos(lat);
+			xs[i] = cosLat * Math.cos(lon);
+			ys[i] = cosLat * Math.sin(lon);
+			zs[i] = Math.sin(lat);
+		}
+		for (int i = 0; i < n; i++) {
+			locations.get(i).setDistance(miles(xs[i], ys[i], zs[i]));
+		}
+	}
+
+	/**
+	 * @param nameQuery query matching the searched name
+	 * @param order order the hits are scored in
+	 * @return query scoring the hits of nameQuery by their distance from the
+	 * coordinate of this kernel, population for {@link NearbyOrder#POPULATION}
+	 */
+	public Query rank(Query nameQuery, NearbyOrder order) {
+		return new ProximityQuery(nameQuery, this, order);
+	}
+
+	/**
+	 * @return score of a hit, higher first, ordering hits as the comparator
+	 * of the order does
+	 */
+	static float score(NearbyOrder order, double distance, long population) {
+		switch (order) {
+		case POPULATION:
+			return (float) Math.log10(1 + Math.max(population, 0));
+		case BLEND:
+			return (float) (1 / (1 + distance / (1 + Math.log10(1 + Math.max(population, 0)))));
+		default:
+			return (float) (1 / (1 + distance));
+		}
+	}
+
+	private static class ProximityQuery extends CustomScoreQuery {
+
+		private final DistanceKernel kernel;
+		private final NearbyOrder order;
+
+		ProximityQuery(Query nameQuery, DistanceKernel kernel, NearbyOrder order) {
+			super(nameQuery);
+			this.kernel = kernel;
+			this.order = order;
+		}
+
+		@Override
+		protected CustomScoreProvider getCustomScoreProvider(LeafReaderContext context) throws IOException {
+			LeafReader reader = context.reader();
+			final SortedNumericDocValues population = DocValues.getSortedNumeric(reader,
+					GeoNameResolver.FIELD_NAME_POPULATION);
+			//indexes built before vectors were indexed score every hit as infinitely far
+			final boolean indexed = reader.getNumericDocValues(FIELD_NAME_UNIT_X) != null;
+			final NumericDocValues xs = DocValues.getNumeric(reader, FIELD_NAME_UNIT_X);
+			final NumericDocValues ys = DocValues.getNumeric(reader, FIELD_NAME_UNIT_Y);
+			final NumericDocValues zs = DocValues.getNumeric(reader, FIELD_NAME_UNIT_Z);
+			return new CustomScoreProvider(context) {
+				@Override
+				public float customScore(int doc, float subQueryScore, float[] valSrcScores) {
+					population.setDocument(doc);
+					double distance = indexed ? kernel.miles(Float.intBitsToFloat((int) xs.get(doc)),
+							Float.intBitsToFloat((int) ys.get(doc)), Float.intBitsToFloat((int) zs.get(doc)))
+							: Double.POSITIVE_INFINITY;
+					return score(order, distance, population.count() == 0 ? 0 : population.valueAt(0));
+				}
+			};
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!super.equals(obj)) {
+				return false;
+			}
+			ProximityQuery other = (ProximityQuery) obj;
+			return order == other.order && kernel.latitude == other.kernel.latitude
+					&& kernel.longitude == other.kernel.longitude;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * super.hashCode() + order.hashCode();
+		}
+
+		@Override
+		public String name() {
+			return "proximity";
+		}
+	}
+}
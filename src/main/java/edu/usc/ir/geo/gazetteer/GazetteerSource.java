@@ -0,0 +1,410 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+
+import edu.usc.ir.geo.gazetteer.domain.IndexStatus;
+import edu.usc.ir.geo.gazetteer.domain.ResidencyStatus;
+
+/**
+ * A named gazetteer index searched by {@link GeoNameResolver}. Candidates of a
+ * source are weighted by its priority weight when several sources are
+ * federated. Every source can be reloaded on its own, searches running
+ * against the previous index complete before it is closed, using the name
+ * analysis, name filter and admin names of that index. A source is either
+ * a single lucene index or a sharded index described by a {@link ShardLayout}.
+ */
+public class GazetteerSource implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(GazetteerSource.class.getName());
+	public static final float DEFAULT_WEIGHT = 1.0f;
+
+	private final String name;
+	private final String path;
+	private final float weight;
+	private final DirectoryMode directoryMode;
+
+	//swapped as a whole on reload, so a search sees the files of one index
+	private volatile Shards shards;
+	private long touchIntervalSeconds;
+
+	/**
+	 * Opens a gazetteer source
+	 * @param name name of source, reported with every candidate of it
+	 * @param path path to lucene index, or root directory of a sharded index
+	 * @param weight priority weight multiplied to candidate weights
+	 * @param directoryMode how the index directory is opened
+	 * @throws IOException
+	 */
+	public GazetteerSource(String name, String path, float weight,
+			DirectoryMode directoryMode) throws IOException {
+		this.name = name;
+		this.path = path;
+		this.weight = weight;
+		this.directoryMode = directoryMode;
+		open();
+	}
+
+	/**
+	 * Parses a source specification of form name=path or name=path@weight
+	 * @param spec the source specification
+	 * @param directoryMode how the index directory is opened
+	 * @return opened source
+	 * @throws IOException
+	 * @throws IllegalArgumentException if spec is malformed
+	 */
+	public static GazetteerSource parse(String spec, DirectoryMode directoryMode) throws IOException {
+		int eq = spec.indexOf('=');
+		if (eq <= 0) {
+			throw new IllegalArgumentException("Expected name=path[@weight] but found " + spec);
+		}
+		String name = spec.substring(0, eq).trim();
+		String path = spec.substring(eq + 1).trim();
+		float weight = DEFAULT_WEIGHT;
+		int at = path.lastIndexOf('@');
+		if (at > 0) {
+			weight = Float.parseFloat(path.substring(at + 1).trim());
+			path = path.substring(0, at);
+		}
+		return new GazetteerSource(name, path, weight, directoryMode);
+	}
+
+	private synchronized void open() throws IOException {
+		IndexSnapshot.recover(path);
+		ShardLayout layout = ShardLayout.load(path);
+		List<Shard> opened = new ArrayList<>();
+		try {
+			if (layout == null) {
+				opened.add(openShard(new File(path)));
+			} else {
+				for (int i = 0; i < layout.getShardCount(); i++) {
+					opened.add(openShard(ShardLayout.shardDirectory(path, i)));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Shard shard : opened) {
+				shard.close();
+			}
+			throw e;
+		}
+
+		Shards old = shards;
+		shards = new Shards(layout, opened.toArray(new Shard[opened.size()]), AdminHierarchy.load(path),
+				NameFilter.load(path), IndexSnapshot.installedId(path), readAnalyzer(opened.get(0)));
+		if (old != null) {
+			//searchers in use keep their readers open until released
+			old.close();
+		}
+		StartupTimer.mark("open " + name);
+	}
+
+	private static NameAnalyzer readAnalyzer(Shard shard) throws IOException {
+		IndexSearcher searcher = shard.manager.acquire();
+		try {
+			return NameAnalyzer.fromCommitData(((DirectoryReader) searcher.getIndexReader())
+					.getIndexCommit().getUserData());
+		} finally {
+			shard.manager.release(searcher);
+		}
+	}
+
+	private Shard openShard(File indexfile) throws IOException {
+		if (!indexfile.isDirectory()) {
+			throw new IndexNotFoundException("No Lucene Index Directory Found at "
+					+ indexfile + ", Invoke indexBuild() First !");
+		}
+		Directory directory = directoryMode.open(indexfile.toPath());
+		if (!DirectoryReader.indexExists(directory)) {
+			directory.close();
+			throw new IndexNotFoundException("No Lucene Index Directory Found at "
+					+ indexfile + ", Invoke indexBuild() First !");
+		}
+		PageCacheToucher toucher = new PageCacheToucher(directory);
+		if (directoryMode.isPreload()) {
+			LOG.info("Preloading index " + indexfile);
+			toucher.touch(true);
+		}
+		if (touchIntervalSeconds > 0) {
+			toucher.start(touchIntervalSeconds);
+		}
+		return new Shard(directory, new SearcherManager(directory, null), toucher);
+	}
+
+	/**
+	 * Re-opens the index of this source from its path. Use this after the
+	 * index directory was replaced or rebuilt.
+	 * @throws IOException
+	 */
+	public void reload() throws IOException {
+		LOG.info("Reloading gazetteer source " + name + " from " + path);
+		open();
+	}
+
+	/**
+	 * Validates a snapshot archive, installs it at the path of this source and
+	 * re-opens the source from it. Searches run against the current index until
+	 * the new one is open.
+	 * @param archive archive written by {@link IndexSnapshot#export}
+	 * @return manifest of the installed snapshot
+	 * @throws IOException if the archive is invalid, the source is unchanged then
+	 */
+	public synchronized Properties installSnapshot(File archive) throws IOException {
+		Properties manifest = IndexSnapshot.install(archive, path);
+		reload();
+		return manifest;
+	}
+
+	/**
+	 * Acquires a searcher per shard, which must be released with
+	 * {@link #release(Searchers)}
+	 * @return current searchers of this source
+	 * @throws IOException
+	 */
+	public Searchers acquire() throws IOException {
+		while (true) {
+			Shards current = shards;
+			IndexSearcher[] searchers = new IndexSearcher[current.shards.length];
+			try {
+				for (int i = 0; i < searchers.length; i++) {
+					searchers[i] = current.shards[i].manager.acquire();
+				}
+				return new Searchers(current, searchers);
+			} catch (AlreadyClosedException e) {
+				release(new Searchers(current, searchers));
+				if (current == shards) {
+					throw e;
+				}
+				//swapped by a concurrent reload, retry on new shards
+			}
+		}
+	}
+
+	/**
+	 * Releases searchers obtained from {@link #acquire()}
+	 * @param searchers the searchers
+	 * @throws IOException
+	 */
+	public void release(Searchers searchers) throws IOException {
+		if (searchers == null) {
+			return;
+		}
+		for (IndexSearcher searcher : searchers.searchers) {
+			if (searcher != null) {
+				//same as SearcherManager.release(), but safe across reloads
+				searcher.getIndexReader().decRef();
+			}
+		}
+	}
+
+	/**
+	 * Starts a background pass that periodically touches the hot index files,
+	 * keeping them resident in the page cache
+	 * @param intervalSeconds seconds between two passes
+	 */
+	public synchronized void startResidencyToucher(long intervalSeconds) {
+		touchIntervalSeconds = intervalSeconds;
+		if (intervalSeconds > 0) {
+			for (Shard shard : shards.shards) {
+				shard.toucher.start(intervalSeconds);
+			}
+		}
+	}
+
+	/**
+	 * @return generation, document and segment counts of the open index.
+	 * For a sharded index counts are totals and generation is the highest of all shards.
+	 */
+	public IndexStatus getStatus() {
+		IndexStatus status = new IndexStatus();
+		status.setName(name);
+		status.setDirectoryMode(directoryMode.getOptionValue());
+		Shards current = shards;
+		status.setShardCount(current.shards.length);
+		status.setSnapshot(current.snapshotId);
+		ResidencyStatus residency = new ResidencyStatus();
+		for (Shard shard : current.shards) {
+			ResidencyStatus shardResidency = shard.toucher.getStatus();
+			residency.setPasses(Math.max(residency.getPasses(), shardResidency.getPasses()));
+			residency.setLastPassMillis(residency.getLastPassMillis() + shardResidency.getLastPassMillis());
+			residency.setLastPassPages(residency.getLastPassPages() + shardResidency.getLastPassPages());
+			residency.setLastPassFaults(residency.getLastPassFaults() + shardResidency.getLastPassFaults());
+			residency.setLastPassFaultMillis(residency.getLastPassFaultMillis()
+					+ shardResidency.getLastPassFaultMillis());
+		}
+		status.setResidency(residency);
+		Searchers searchers = null;
+		try {
+			searchers = acquire();
+			for (IndexSearcher searcher : searchers.getSearchers()) {
+				DirectoryReader reader = (DirectoryReader) searcher.getIndexReader();
+				status.setNumDocs(status.getNumDocs() + reader.numDocs());
+				status.setSegmentCount(status.getSegmentCount() + reader.leaves().size());
+				status.setVersion(Math.max(status.getVersion(), reader.getVersion()));
+				IndexCommit commit = reader.getIndexCommit();
+				status.setGeneration(Math.max(status.getGeneration(), commit.getGeneration()));
+				if (status.getBuild() == null) {
+					status.setBuild(commit.getUserData());
+				}
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Unable to read index commit of " + name, e);
+		} finally {
+			try {
+				release(searchers);
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Unable to release searcher of " + name, e);
+			}
+		}
+		return status;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public float getWeight() {
+		return weight;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		shards.close();
+	}
+
+	/**
+	 * Searchers of all shards of a source, acquired together, along with the
+	 * files stored with the same index
+	 */
+	public static class Searchers {
+		private final Shards shards;
+		private final IndexSearcher[] searchers;
+
+		Searchers(Shards shards, IndexSearcher[] searchers) {
+			this.shards = shards;
+			this.searchers = searchers;
+		}
+
+		/**
+		 * @return names of countries and admin divisions stored with the index,
+		 * empty if it was built without them
+		 */
+		public AdminHierarchy getAdminHierarchy() {
+			return shards.adminHierarchy;
+		}
+
+		/**
+		 * @return filter of the name terms of the index, null if it has none
+		 */
+		public NameFilter getNameFilter() {
+			return shards.nameFilter;
+		}
+
+		/**
+		 * @return analyzer the names of the index were indexed with, which
+		 * queries to these searchers must use
+		 */
+		public NameAnalyzer getAnalyzer() {
+			return shards.analyzer;
+		}
+
+		/**
+		 * @return one searcher per shard
+		 */
+		public IndexSearcher[] getSearchers() {
+			return searchers;
+		}
+
+		/**
+		 * @param countryCode country filter of a query, null if not filtered
+		 * @return the shard holding all entries of the country, or -1 if every shard
+		 * must be searched
+		 */
+		public int routeToShard(String countryCode) {
+			ShardLayout layout = shards.layout;
+			if (countryCode == null || layout == null || !layout.isCountryRouted()) {
+				return -1;
+			}
+			return layout.shardForCountry(countryCode);
+		}
+	}
+
+	private static class Shards implements Closeable {
+		private final ShardLayout layout;
+		private final Shard[] shards;
+		private final AdminHierarchy adminHierarchy;
+		private final NameFilter nameFilter;
+		private final String snapshotId;
+		private final NameAnalyzer analyzer;
+
+		Shards(ShardLayout layout, Shard[] shards, AdminHierarchy adminHierarchy, NameFilter nameFilter,
+				String snapshotId, NameAnalyzer analyzer) {
+			this.layout = layout;
+			this.shards = shards;
+			this.adminHierarchy = adminHierarchy;
+			this.nameFilter = nameFilter;
+			this.snapshotId = snapshotId;
+			this.analyzer = analyzer;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (Shard shard : shards) {
+				shard.close();
+			}
+		}
+	}
+
+	private static class Shard implements Closeable {
+		private final Directory directory;
+		private final SearcherManager manager;
+		private final PageCacheToucher toucher;
+
+		Shard(Directory directory, SearcherManager manager, PageCacheToucher toucher) {
+			this.directory = directory;
+			this.manager = manager;
+			this.toucher = toucher;
+		}
+
+		@Override
+		public void close() throws IOException {
+			toucher.close();
+			manager.close();
+			directory.close();
+		}
+	}
+}
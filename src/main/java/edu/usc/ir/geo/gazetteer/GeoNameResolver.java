@@ -17,21 +17,47 @@
 
 package edu.usc.ir.geo.gazetteer;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,53 +71,126 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.IntField;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortedNumericSortField;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
 import org.apache.lucene.spatial.SpatialStrategy;
 import org.apache.lucene.spatial.prefix.RecursivePrefixTreeStrategy;
 import org.apache.lucene.spatial.prefix.tree.GeohashPrefixTree;
-import org.apache.lucene.spatial.prefix.tree.SpatialPrefixTree;
 import org.apache.lucene.spatial.query.SpatialArgs;
 import org.apache.lucene.spatial.query.SpatialOperation;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import com.google.gson.Gson;
 import com.spatial4j.core.context.SpatialContext;
 import com.spatial4j.core.distance.DistanceUtils;
 import com.spatial4j.core.shape.Point;
 
+import edu.usc.ir.geo.gazetteer.domain.AdminArea;
+import edu.usc.ir.geo.gazetteer.domain.IndexStatus;
 import edu.usc.ir.geo.gazetteer.domain.Location;
+import edu.usc.ir.geo.gazetteer.domain.ReverseGeocode;
+import edu.usc.ir.geo.gazetteer.domain.Toponym;
 import edu.usc.ir.geo.gazetteer.service.Launcher;
+import edu.usc.ir.geo.gazetteer.service.LoadGenerator;
 
 public class GeoNameResolver implements Closeable {
-	//UPPER BOUND FOR SEARCHING AN AREA IN MILES
-	private static final double REVERSE_DISTANCE_LIMIT = 5;
+	//radius in miles the search for nearest locations starts with, and its default upper bound
+	public static final double INITIAL_NEAREST_RADIUS = 1;
+	public static final double DEFAULT_MAX_NEAREST_RADIUS = 250;
+	private static final String DEFAULT_SERVER_URL = "http://localhost:8765";
+	private static final double RADIUS_GROWTH = 2;
+	//candidates fetched per location returned when blending distance and population
+	private static final int BLEND_CANDIDATES = 4;
+	//locations held by a reverse cache entry of a searchNearby or searchNearest cell
+	private static final int NEARBY_ENTRY_SIZE = 128;
+	private static final int NEAREST_ENTRY_SIZE = 32;
+	//distance then population, the order of the spatial sort
+	private static final Comparator<Location> NEAREST_FIRST = new Comparator<Location>() {
+		@Override
+		public int compare(Location o1, Location o2) {
+			int byDistance = Double.compare(o1.getDistance(), o2.getDistance());
+			return byDistance != 0 ? byDistance : Long.compare(o2.getPopulation(), o1.getPopulation());
+		}
+	};
 	private static final String JSON_OPT = "json";
 	private static final String REVERSE_OPT = "r";
 	private static final String REVERSE_LONG_OPT = "enable-reverse";
 	private static final String SEARCH_REVERSE_OPT = "sr";
 	private static final String SEARCH_REVERSE_LONG_OPT = "search-reverse";
+	private static final String WARMUP_LONG_OPT = "warmup";
+	private static final String DIRECTORY_MODE_LONG_OPT = "directory-mode";
+	private static final String TOUCH_INTERVAL_LONG_OPT = "touch-interval";
+	private static final String SOURCE_LONG_OPT = "source";
+	private static final String SHARDS_LONG_OPT = "shards";
+	private static final String SHARD_BY_LONG_OPT = "shard-by";
+	private static final String COUNTRY_LONG_OPT = "country";
+	private static final String TAG_LONG_OPT = "tag";
+	private static final String DISAMBIGUATE_LONG_OPT = "disambiguate";
+	private static final String ANALYSIS_LONG_OPT = "analysis";
+	private static final String ALTERNATE_NAMES_LONG_OPT = "alternate-names";
+	private static final String LANGUAGE_LONG_OPT = "lang";
+	private static final String RANKING_LONG_OPT = "ranking";
+	private static final String EVALUATE_LONG_OPT = "evaluate";
+	private static final String TAG_MIN_POPULATION_LONG_OPT = "min-population";
+	private static final String BOUNDARIES_LONG_OPT = "boundaries";
+	private static final String MAX_RADIUS_LONG_OPT = "max-radius";
+	private static final String ORDER_LONG_OPT = "order";
+	private static final String PROFILE_LONG_OPT = "profile";
+	private static final String SIZE_REPORT_LONG_OPT = "size-report";
+	private static final String EXPORT_SNAPSHOT_LONG_OPT = "export-snapshot";
+	private static final String IMPORT_SNAPSHOT_LONG_OPT = "import-snapshot";
+	private static final String STREAM_LONG_OPT = "stream";
+	private static final String BATCH_SIZE_LONG_OPT = "batch-size";
+	private static final String WORKERS_LONG_OPT = "workers";
+	private static final String FLUSH_LONG_OPT = "flush";
+	private static final String GEOCODE_LONG_OPT = "geocode";
+	private static final String OUTPUT_LONG_OPT = "output";
+	private static final String COLUMNS_LONG_OPT = "columns";
+	private static final String CHUNK_SIZE_LONG_OPT = "chunk-size";
+	private static final String REVERSE_CACHE_LONG_OPT = "reverse-cache";
+	private static final String CLIENT_LIMIT_LONG_OPT = "client-limit";
+	private static final String LOAD_TEST_LONG_OPT = "load-test";
+	private static final String URL_LONG_OPT = "url";
+	private static final String RATE_LONG_OPT = "rate";
+	private static final String DURATION_LONG_OPT = "duration";
+	private static final String CONNECTIONS_LONG_OPT = "connections";
+	private static final String NEAR_LONG_OPT = "near";
+	private static final String SNAPSHOT_DIR_LONG_OPT = "snapshot-dir";
 	/**
 	 * Below constants define name of field in lucene index
 	 */
@@ -105,6 +204,27 @@ public class GeoNameResolver implements Closeable {
 	public static final String FIELD_NAME_ADMIN1_CODE = "admin1Code";
 	public static final String FIELD_NAME_ADMIN2_CODE = "admin2Code";
 	public static final String FIELD_NAME_POPULATION = "population";
+	public static final String FIELD_NAME_NORMALIZED_NAME = "normalizedName";
+	public static final String FIELD_NAME_NORMALIZED_ALTERNATE_NAMES = "normalizedAlternatenames";
+	public static final String FIELD_NAME_ALTERNATE_NAME_TAGS = "alternateNameTags";
+	//ranking features, doc values only
+	public static final String FIELD_NAME_FEATURE_RANK = "featureRank";
+	public static final String FIELD_NAME_ALTERNATE_NAME_COUNT = "alternateNameCount";
+	public static final String FIELD_NAME_EXACT_NAME = "exactName";
+	//alternate names of one language are also indexed in a field of this prefix and the language code
+	public static final String FIELD_NAME_ALTERNATE_NAMES_LANGUAGE_PREFIX = "alternatenames_";
+	//stored fields read for a candidate, alternate names are big and only needed to weigh matches
+	private static final Set<String> CANDIDATE_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			FIELD_NAME_ID, FIELD_NAME_NAME, FIELD_NAME_LONGITUDE, FIELD_NAME_LATITUDE, FIELD_NAME_COUNTRY_CODE,
+			FIELD_NAME_ADMIN1_CODE, FIELD_NAME_ADMIN2_CODE, FIELD_NAME_FEATURE_CODE, FIELD_NAME_NORMALIZED_NAME)));
+	private static final Set<String> WEIGHED_CANDIDATE_FIELDS;
+	static {
+		Set<String> fields = new HashSet<>(CANDIDATE_FIELDS);
+		fields.add(FIELD_NAME_ALTERNATE_NAMES);
+		fields.add(FIELD_NAME_ALTERNATE_NAME_TAGS);
+		fields.add(FIELD_NAME_NORMALIZED_ALTERNATE_NAMES);
+		WEIGHED_CANDIDATE_FIELDS = Collections.unmodifiableSet(fields);
+	}
 	/**
 	 * Below constants define weight multipliers used for result relevance.
 	 */
@@ -112,23 +232,112 @@ public class GeoNameResolver implements Closeable {
 	private static final int WEIGHT_SIZE_ALT_NAME = 50;
 	private static final int WEIGHT_NAME_MATCH = 20000;
 	private static final int WEIGHT_NAME_PART_MATCH = 15000;
+	private static final int WEIGHT_PREFERRED_NAME_MATCH = 5000;
 
 	private static final Logger LOG = Logger.getLogger(GeoNameResolver.class
 			.getName());
 	private static final Double OUT_OF_BOUNDS = 999999.0;
-	private static Analyzer analyzer = new StandardAnalyzer();
+	//build options recorded in the commit user data of an index
+	private static final String SOURCE_FILE_COMMIT_KEY = "source.file";
+	private static final String SOURCE_MODIFIED_COMMIT_KEY = "source.modified";
+	private static final String REVERSE_COMMIT_KEY = "reverse.enabled";
+	private static final String ALTERNATE_NAMES_COMMIT_KEY = "alternate.names";
+	//compact indexes keep coordinates as fixed point doc values, in 1e-7 degrees
+	private static final double COORDINATE_SCALE = 1e7;
+	//codes only searched by filters, without norms or frequencies
+	private static final FieldType CODE_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+	static {
+		CODE_TYPE.setOmitNorms(true);
+		CODE_TYPE.setIndexOptions(IndexOptions.DOCS);
+		CODE_TYPE.freeze();
+	}
+	private NameAnalyzer analyzer = new NameAnalyzer(NameAnalyzer.Mode.STANDARD);
 	private static IndexWriter indexWriter;
 	private static Directory indexDir;
-	private static int hitsPerPage = 8;
+	private static final int HITS_PER_PAGE = 8;
+	//avoid heavy computation for big batches
+	private static final int HITS_PER_PAGE_BIG_BATCH = 5;
+	private static final int BIG_BATCH_SIZE = 200;
+	private static final int MISSED_NAMES_CAPACITY = 100000;
 
 	//sort descending on population
 	SortField populationSort = new SortedNumericSortField(FIELD_NAME_POPULATION, SortField.Type.LONG, true);
 
-	private IndexReader indexReader;
-	private SpatialContext ctx = SpatialContext.GEO;
-	private SpatialPrefixTree grid = new GeohashPrefixTree(ctx, 11);
-	private SpatialStrategy strategy = new RecursivePrefixTreeStrategy(grid, "location");
+	private final List<GazetteerSource> sources = new ArrayList<>();
+	private ExecutorService searchExecutor;
+	private DirectoryMode directoryMode = DirectoryMode.FS;
+	private volatile boolean warm;
+	private volatile long warmupMillis = -1;
+	private volatile ToponymTagger toponymTagger;
+	private long taggerMinPopulation = ToponymTagger.DEFAULT_MIN_POPULATION;
+	private boolean contextDisambiguation = true;
+	private AlternateNames alternateNames;
+	private volatile RankingModel rankingModel;
+	private volatile BoundaryIndex boundaries;
+	private IndexProfile indexProfile = IndexProfile.FULL;
+	//bumped once a source is re-opened, cached answers of earlier generations are stale
+	private final AtomicLong cacheGeneration = new AtomicLong();
+	//generation of names which matched nothing, by canonical name, country and language
+	private final LruCache<String, Long> missedNames = new LruCache<>(MISSED_NAMES_CAPACITY);
+	//names not searched as the name filter of every source rejected them
+	private final AtomicLong filteredNames = new AtomicLong();
+	//locations around recently searched coordinates, null when disabled
+	private volatile ReverseCache reverseCache = new ReverseCache(ReverseCache.DEFAULT_PRECISION,
+			ReverseCache.DEFAULT_CAPACITY);
+	//identical searches running concurrently, by canonical names and options
+	private final SingleFlight<List<Object>, Map.Entry<List<String>, HashMap<String, List<Location>>>> searchFlights =
+			new SingleFlight<>();
+
+	/**
+	 * Spatial context and strategy, only loaded by searches near a coordinate
+	 * and builds of reverse enabled indexes, so name searches start without them
+	 */
+	private static class Spatial {
+		private static final SpatialContext CTX = SpatialContext.GEO;
+		private static final SpatialStrategy STRATEGY = new RecursivePrefixTreeStrategy(
+				new GeohashPrefixTree(CTX, 11), "location");
+	}
 	 
+	/**
+	 * Orders of locations found near a coordinate
+	 */
+	public enum NearbyOrder {
+		/** nearest first */
+		DISTANCE(new Comparator<Location>() {
+			@Override
+			public int compare(Location o1, Location o2) {
+				return Double.compare(o1.getDistance(), o2.getDistance());
+			}
+		}),
+		/** most populated first */
+		POPULATION(new Comparator<Location>() {
+			@Override
+			public int compare(Location o1, Location o2) {
+				return Long.compare(o2.getPopulation(), o1.getPopulation());
+			}
+		}),
+		/**
+		 * distance shrunk by the order of magnitude of the population first,
+		 * so a city a few miles away comes before the hamlet next door
+		 */
+		BLEND(new Comparator<Location>() {
+			@Override
+			public int compare(Location o1, Location o2) {
+				return Double.compare(blend(o1), blend(o2));
+			}
+
+			private double blend(Location location) {
+				return location.getDistance() / (1 + Math.log10(1 + location.getPopulation()));
+			}
+		});
+
+		private final Comparator<Location> comparator;
+
+		NearbyOrder(Comparator<Location> comparator) {
+			this.comparator = comparator;
+		}
+	}
+
 	public GeoNameResolver(){
 	}
 
@@ -138,7 +347,154 @@ public class GeoNameResolver implements Closeable {
 	 * @throws IOException
 	 */
 	public GeoNameResolver(String indexPath) throws IOException {
-		this.indexReader = createIndexReader(indexPath);
+		this(indexPath, DirectoryMode.FS);
+	}
+
+	/**
+	 * Creates a GeoNameResolver for given path
+	 * @param indexPath the path to lucene index
+	 * @param directoryMode how the index directory is opened
+	 * @throws IOException
+	 */
+	public GeoNameResolver(String indexPath, DirectoryMode directoryMode) throws IOException {
+		this(Collections.singletonList(new GazetteerSource(new File(indexPath).getName(),
+				indexPath, GazetteerSource.DEFAULT_WEIGHT, directoryMode)));
+		this.directoryMode = directoryMode;
+	}
+
+	/**
+	 * Creates a GeoNameResolver federating several gazetteer indexes. Every
+	 * source is queried concurrently and candidates are merged, weighted by
+	 * the priority weight of their source, before picking the best ones.
+	 * @param sources opened gazetteer sources, closed along with this resolver
+	 */
+	public GeoNameResolver(List<GazetteerSource> sources) {
+		this.sources.addAll(sources);
+	}
+
+	/**
+	 * Opens the main index along with additional federated sources
+	 * @param indexPath the path to main lucene index
+	 * @param sourceSpecs additional sources as name=path[@weight], may be empty
+	 * @param directoryMode how the index directories are opened
+	 * @return resolver federating all sources
+	 * @throws IOException
+	 */
+	public static GeoNameResolver federate(String indexPath, List<String> sourceSpecs,
+			DirectoryMode directoryMode) throws IOException {
+		List<GazetteerSource> opened = new ArrayList<>();
+		try {
+			opened.add(new GazetteerSource(new File(indexPath).getName(), indexPath,
+					GazetteerSource.DEFAULT_WEIGHT, directoryMode));
+			for (String spec : sourceSpecs) {
+				opened.add(GazetteerSource.parse(spec, directoryMode));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (GazetteerSource source : opened) {
+				source.close();
+			}
+			throw e;
+		}
+		GeoNameResolver resolver = new GeoNameResolver(opened);
+		resolver.directoryMode = directoryMode;
+		return resolver;
+	}
+
+	/**
+	 * Opens the main index and the sources given with --source, configured
+	 * like this resolver
+	 * @param indexPath the path to main lucene index
+	 * @param line parsed command line
+	 * @return resolver federating all sources
+	 * @throws IOException
+	 */
+	private GeoNameResolver federateConfigured(String indexPath, CommandLine line) throws IOException {
+		List<String> sourceSpecs = line.hasOption(SOURCE_LONG_OPT)
+				? Arrays.asList(line.getOptionValues(SOURCE_LONG_OPT))
+				: Collections.<String>emptyList();
+		return configure(federate(indexPath, sourceSpecs, directoryMode));
+	}
+
+	/**
+	 * Copies the search settings of this resolver, as set from the command
+	 * line, to a resolver opened on an index
+	 * @return the given resolver
+	 */
+	private GeoNameResolver configure(GeoNameResolver opened) {
+		opened.contextDisambiguation = contextDisambiguation;
+		opened.rankingModel = rankingModel;
+		opened.reverseCache = reverseCache;
+		return opened;
+	}
+
+	/**
+	 * @return gazetteer sources searched by this resolver
+	 */
+	public List<GazetteerSource> getSources() {
+		return Collections.unmodifiableList(sources);
+	}
+
+	/**
+	 * Re-opens one gazetteer source, other sources keep serving meanwhile
+	 * @param sourceName name of the source
+	 * @throws IOException
+	 * @throws IllegalArgumentException if there is no such source
+	 */
+	public void reload(String sourceName) throws IOException {
+		getSource(sourceName).reload();
+		//dictionary is rebuilt from the new index on next use
+		toponymTagger = null;
+		invalidateCaches();
+	}
+
+	/**
+	 * Installs an index snapshot in place of one gazetteer source and re-opens
+	 * it, other sources keep serving meanwhile
+	 * @param sourceName name of the source, null for the main source
+	 * @param archive archive written by {@link IndexSnapshot#export}
+	 * @return manifest of the installed snapshot
+	 * @throws IOException if the archive is invalid, the source is unchanged then
+	 * @throws IllegalArgumentException if there is no such source
+	 */
+	public Properties installSnapshot(String sourceName, File archive) throws IOException {
+		Properties manifest = (sourceName == null ? sources.get(0) : getSource(sourceName))
+				.installSnapshot(archive);
+		toponymTagger = null;
+		invalidateCaches();
+		return manifest;
+	}
+
+	/**
+	 * Makes answers cached so far stale. Searches read the generation before
+	 * acquiring searchers, and the generation is bumped once the new searchers
+	 * are in place, so answers of searches still running on the former index
+	 * are tagged with an older generation and never served, even when they are
+	 * put after the caches were cleared.
+	 */
+	private void invalidateCaches() {
+		cacheGeneration.incrementAndGet();
+		missedNames.clear();
+		clearReverseCache();
+	}
+
+	private GazetteerSource getSource(String sourceName) {
+		for (GazetteerSource source : sources) {
+			if (source.getName().equals(sourceName)) {
+				return source;
+			}
+		}
+		throw new IllegalArgumentException("Unknown gazetteer source " + sourceName);
+	}
+
+	/**
+	 * Starts a background pass that periodically touches the hot index files,
+	 * keeping them resident in the page cache
+	 * @param intervalSeconds seconds between two passes
+	 */
+	public void startResidencyToucher(long intervalSeconds) {
+		for (GazetteerSource source : sources) {
+			source.startResidencyToucher(intervalSeconds);
+		}
 	}
 
 	/**
@@ -150,7 +506,120 @@ public class GeoNameResolver implements Closeable {
 	 */
 	public HashMap<String, List<Location>> searchGeoName(List<String> locationNames,
 													   int count) throws IOException {
-		return resolveEntities(locationNames, count, this.indexReader);
+		return searchGeoName(locationNames, count, null);
+	}
+
+	/**
+	 *
+	 * @param locationNames List of location names
+	 * @param count Number of results per location
+	 * @param countryCode ISO country code results are restricted to, null for any country.
+	 * Only the matching shard is searched in a country sharded index.
+	 * @return resolved Geo Names
+	 * @throws IOException
+	 */
+	public HashMap<String, List<Location>> searchGeoName(List<String> locationNames,
+													   int count, String countryCode) throws IOException {
+		return searchGeoName(locationNames, count, countryCode, null);
+	}
+
+	/**
+	 *
+	 * @param locationNames List of location names
+	 * @param count Number of results per location
+	 * @param countryCode ISO country code results are restricted to, null for any country.
+	 * @param language ISO 639 code, names are then only matched against the main name and
+	 * alternate names of this language, and preferred names of the language rank first.
+	 * Requires an index built with alternateNamesV2.txt, null for any language.
+	 * @return resolved Geo Names
+	 * @throws IOException
+	 */
+	public HashMap<String, List<Location>> searchGeoName(List<String> locationNames,
+													   int count, String countryCode, String language) throws IOException {
+		return searchCoalesced(locationNames, count, countryCode, language, contextDisambiguation);
+	}
+
+	/**
+	 *
+	 * @param locationNames List of location names
+	 * @param count Number of results per location
+	 * @param countryCode ISO country code results are restricted to, null for any country.
+	 * @param language ISO 639 code of names, null for any language
+	 * @param related false if names are not related, e.g. names of different documents
+	 * searched in one batch, so they are not disambiguated together
+	 * @return resolved Geo Names
+	 * @throws IOException
+	 */
+	public HashMap<String, List<Location>> searchGeoName(List<String> locationNames,
+													   int count, String countryCode, String language,
+													   boolean related) throws IOException {
+		return searchCoalesced(locationNames, count, countryCode, language, related && contextDisambiguation);
+	}
+
+	/**
+	 * Searches names near a coordinate: the hits of every name are scored by
+	 * their distance to the coordinate inside the index, and every result
+	 * carries its distance. Replaces the ranking model and context
+	 * disambiguation for this search.
+	 * @param locationNames List of location names
+	 * @param count Number of results per location
+	 * @param countryCode ISO country code results are restricted to, null for any country.
+	 * @param language ISO 639 code of names, null for any language
+	 * @param latitude latitude of the coordinate
+	 * @param longitude longitude of the coordinate
+	 * @param order nearest first, most populated first, or distance weighed
+	 * down by population
+	 * @return resolved Geo Names
+	 * @throws IOException
+	 */
+	public HashMap<String, List<Location>> searchGeoNameNear(List<String> locationNames, int count,
+			String countryCode, String language, double latitude, double longitude, NearbyOrder order)
+			throws IOException {
+		return resolveEntities(locationNames, count, countryCode, language, false, sources,
+				new DistanceKernel(latitude, longitude), order);
+	}
+
+	/**
+	 * Searches names unless an identical search, i.e. of the same names up to
+	 * case and whitespace and with the same options, is already running, in
+	 * which case its result is shared. Spikes of requests for one name then
+	 * cost one search.
+	 */
+	private HashMap<String, List<Location>> searchCoalesced(final List<String> locationNames, final int count,
+			final String countryCode, final String language, final boolean disambiguateContext) throws IOException {
+		List<String> canonicalNames = new ArrayList<>(locationNames.size());
+		for (String name : locationNames) {
+			canonicalNames.add(canonicalName(name));
+		}
+		List<Object> key = Arrays.<Object>asList(canonicalNames, count,
+				countryCode == null ? null : countryCode.trim().toLowerCase(),
+				language == null ? null : language.trim().toLowerCase(), disambiguateContext, rankingModel);
+		Map.Entry<List<String>, HashMap<String, List<Location>>> flight = searchFlights.execute(key,
+				new Callable<Map.Entry<List<String>, HashMap<String, List<Location>>>>() {
+					@Override
+					public Map.Entry<List<String>, HashMap<String, List<Location>>> call() throws IOException {
+						return new AbstractMap.SimpleImmutableEntry<>(locationNames, resolveEntities(locationNames,
+								count, countryCode, language, disambiguateContext, sources, null, null));
+					}
+				});
+		//the shared result is keyed by the names of the caller that ran the search
+		HashMap<String, List<Location>> resolved = new HashMap<>();
+		List<String> searchedNames = flight.getKey();
+		for (int i = 0; i < locationNames.size(); i++) {
+			List<Location> locations = flight.getValue().get(searchedNames.get(i));
+			if (locations != null) {
+				resolved.put(locationNames.get(i), new ArrayList<>(locations));
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * @return name trimmed, with single spaces and lower cased, equal for
+	 * names searched the same way
+	 */
+	private static String canonicalName(String name) {
+		return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
 	}
 
 	/**
@@ -168,131 +637,988 @@ public class GeoNameResolver implements Closeable {
 	public HashMap<String, List<Location>> searchGeoName(String indexerPath,
 													   List<String> locationNameEntities,
 													   int count) throws IOException {
+		return searchGeoName(indexerPath, locationNameEntities, count, null);
+	}
+
+	/**
+	 * Search corresponding GeoName for each location entity
+	 * @param indexerPath path to lucene index, or root directory of a sharded index
+	 * @param locationNameEntities location names
+	 * @param count Number of results for one locations
+	 * @param countryCode ISO country code results are restricted to, null for any country
+	 * @return HashMap each name has a list of resolved entities
+	 * @throws IOException
+	 */
+	public HashMap<String, List<Location>> searchGeoName(String indexerPath,
+													   List<String> locationNameEntities,
+													   int count, String countryCode) throws IOException {
+
+		if (locationNameEntities.size() == 0
+				|| locationNameEntities.get(0).length() == 0)
+			return new HashMap<String, List<Location>>();
+		try (GazetteerSource source = new GazetteerSource(new File(indexerPath).getName(),
+				indexerPath, GazetteerSource.DEFAULT_WEIGHT, directoryMode)) {
+			return resolveEntities(locationNameEntities, count, countryCode, null, contextDisambiguation,
+					Collections.singletonList(source), null, null);
+		}
+
+	}
+	
+	/**
+	 * Returns a list of location near a certain coordinate. 
+	 * @param latitude, @param longitude - Center of search area 
+	 * @param distanceInMiles - Search Radius in miles
+	 * @param indexerPath - Path to Lucene index
+	 * @param count - Upper bound to number of results
+	 * @return - List of locations sorted by population
+	 * @throws IOException
+	 */
+	public List<Location> searchNearby(Double latitude, Double longitude, Double distanceInMiles, String indexerPath, int count) throws IOException {
+		try (GeoNameResolver resolver = new GeoNameResolver(indexerPath, directoryMode)) {
+			return resolver.searchNearby(latitude, longitude, distanceInMiles, count);
+		}
+	}
+
+	/**
+	 * Returns a list of location near a certain coordinate, searching the
+	 * open gazetteer sources of this resolver.
+	 * @param latitude, @param longitude - Center of search area
+	 * @param distanceInMiles - Search Radius in miles
+	 * @param count - Upper bound to number of results
+	 * @return - List of locations sorted by population
+	 * @throws IOException
+	 */
+	public List<Location> searchNearby(double latitude, double longitude, double distanceInMiles, int count)
+			throws IOException {
+		ReverseCache cache = reverseCache;
+		if (cache == null) {
+			return searchNearbyUncached(latitude, longitude, distanceInMiles, count);
+		}
+		long generation = cacheGeneration.get();
+		ReverseCache.Cell cell = cache.cell(latitude, longitude);
+		String key = "nearby\t" + cell.geohash + "\t" + distanceInMiles;
+		ReverseCache.Entry entry = cache.get(key, generation);
+		boolean cached = entry != null;
+		if (!cached) {
+			//the circle around the center holds the circle around any point of the cell
+			int size = Math.max(NEARBY_ENTRY_SIZE, 2 * count);
+			List<Location> found = searchNearbyUncached(cell.latitude, cell.longitude,
+					distanceInMiles + cell.halfDiagonal, size);
+			entry = new ReverseCache.Entry(found, found.size() < size, distanceInMiles + cell.halfDiagonal,
+					generation);
+			cache.put(key, entry);
+			cache.miss();
+		}
+		//population ordered, the most populated locations within the radius of
+		//the point are these of the entry unless the entry has too few of them
+		List<Location> nearby = locatedWithin(entry.locations, latitude, longitude, distanceInMiles);
+		if (!entry.complete && nearby.size() < count) {
+			if (cached) {
+				cache.bypass();
+			}
+			return searchNearbyUncached(latitude, longitude, distanceInMiles, count);
+		}
+		if (cached) {
+			cache.hit();
+		}
+		return nearby.size() > count ? new ArrayList<>(nearby.subList(0, count)) : nearby;
+	}
+
+	private List<Location> searchNearbyUncached(double latitude, double longitude, double distanceInMiles,
+			int count) throws IOException {
+		double distanceInDeg = DistanceUtils.dist2Degrees(distanceInMiles,DistanceUtils.EARTH_EQUATORIAL_RADIUS_MI);
+		SpatialArgs spatialArgs = new SpatialArgs(SpatialOperation.IsWithin,
+				Spatial.CTX.makeCircle(longitude,latitude, distanceInDeg));
+		
+		String key = latitude+"-"+longitude;
+		Filter filter = Spatial.STRATEGY.makeFilter(spatialArgs);
+		Map<String, Query> queries = new HashMap<>();
+		queries.put(key, new MatchAllDocsQuery());
+
+		List<Location> nearby = new ArrayList<>();
+		List<GazetteerSource.Searchers> acquired = new ArrayList<>();
+		try {
+			for (GazetteerSource source : sources) {
+				acquired.add(source.acquire());
+			}
+			List<Map<String, TopDocs>> sourceHits = scatterGather(acquired,
+					Collections.nCopies(sources.size(), queries), filter, null, new Sort(populationSort), count);
+			DistanceKernel kernel = new DistanceKernel(latitude, longitude);
+			for (int i = 0; i < sources.size(); i++) {
+				List<Location> candidates = getMatchingCandidates(acquired.get(i).getSearchers(),
+						sourceHits.get(i).get(key).scoreDocs, count, false, false);
+				for (Location location : candidates) {
+					location.setSource(sources.get(i).getName());
+				}
+				kernel.annotate(candidates);
+				acquired.get(i).getAdminHierarchy().enrich(candidates);
+				nearby.addAll(candidates);
+			}
+		} finally {
+			release(sources, acquired);
+		}
+		if (sources.size() > 1) {
+			Collections.sort(nearby, new Comparator<Location>() {
+				@Override
+				public int compare(Location o1, Location o2) {
+					return Long.compare(o2.getPopulation(), o1.getPopulation());
+				}
+			});
+			if (nearby.size() > count) {
+				nearby = new ArrayList<>(nearby.subList(0, count));
+			}
+		}
+		return nearby;
+	}
+
+	/**
+	 * Returns the locations nearest to a coordinate. The search starts within
+	 * {@link #INITIAL_NEAREST_RADIUS} miles and the radius grows geometrically,
+	 * faster where places are sparse, until count locations are found or the
+	 * maximum radius is searched. Dense areas are answered from a small circle
+	 * while sparse areas still get an answer.
+	 * @param latitude latitude of the coordinate
+	 * @param longitude longitude of the coordinate
+	 * @param count number of locations to find
+	 * @param maxDistanceInMiles radius the search stops growing at
+	 * @param order order of the returned locations
+	 * @return at most count locations, with their distance to the coordinate
+	 * @throws IOException
+	 */
+	public List<Location> searchNearest(double latitude, double longitude, int count, double maxDistanceInMiles,
+			NearbyOrder order) throws IOException {
+		//a blend may prefer a populated place a little farther than the count nearest ones
+		int topN = order == NearbyOrder.BLEND ? count * BLEND_CANDIDATES : count;
+		List<Location> nearest = null;
+		ReverseCache cache = reverseCache;
+		if (cache != null) {
+			nearest = searchNearestCached(cache, latitude, longitude, topN, maxDistanceInMiles);
+		}
+		if (nearest == null) {
+			nearest = searchNearestUncached(latitude, longitude, count, topN, maxDistanceInMiles);
+		}
+		Collections.sort(nearest, order.comparator);
+		if (nearest.size() > count) {
+			nearest = new ArrayList<>(nearest.subList(0, count));
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return the topN locations nearest to a coordinate picked from the
+	 * entry of its cell, null when the entry may miss some of them
+	 */
+	private List<Location> searchNearestCached(ReverseCache cache, double latitude, double longitude, int topN,
+			double maxDistanceInMiles) throws IOException {
+		long generation = cacheGeneration.get();
+		ReverseCache.Cell cell = cache.cell(latitude, longitude);
+		String key = "nearest\t" + cell.geohash + "\t" + maxDistanceInMiles;
+		ReverseCache.Entry entry = cache.get(key, generation);
+		boolean cached = entry != null;
+		if (!cached) {
+			int size = Math.max(NEAREST_ENTRY_SIZE, 2 * topN);
+			double radius = maxDistanceInMiles + cell.halfDiagonal;
+			List<Location> found = searchNearestUncached(cell.latitude, cell.longitude, size, size, radius);
+			boolean complete = found.size() < size;
+			//locations as far as the last one may have been cut
+			entry = new ReverseCache.Entry(found, complete,
+					complete ? radius : Math.nextAfter(found.get(found.size() - 1).getDistance(), 0), generation);
+			cache.put(key, entry);
+			cache.miss();
+		}
+		//every location within this distance of the point lies within the entry radius
+		double within = Math.min(maxDistanceInMiles, entry.radius - cell.halfDiagonal);
+		List<Location> nearest = locatedWithin(entry.locations, latitude, longitude, within);
+		if (!entry.complete && nearest.size() < topN) {
+			if (cached) {
+				cache.bypass();
+			}
+			return null;
+		}
+		if (cached) {
+			cache.hit();
+		}
+		Collections.sort(nearest, NEAREST_FIRST);
+		return nearest.size() > topN ? new ArrayList<>(nearest.subList(0, topN)) : nearest;
+	}
+
+	/**
+	 * @return the topN locations nearest to a coordinate within the first
+	 * circle holding count locations, nearest first
+	 */
+	private List<Location> searchNearestUncached(double latitude, double longitude, int count, int topN,
+			double maxDistanceInMiles) throws IOException {
+		//degrees of haversine distance to miles
+		double milesPerDegree = DistanceUtils.degrees2Dist(1, DistanceUtils.EARTH_EQUATORIAL_RADIUS_MI);
+		Point center = Spatial.CTX.makePoint(longitude, latitude);
+		SortField distanceSort = Spatial.STRATEGY.makeDistanceValueSource(center, milesPerDegree).getSortField(false);
+		String key = latitude + "-" + longitude;
+		Map<String, Query> queries = new HashMap<>();
+		queries.put(key, new MatchAllDocsQuery());
+
+		List<Location> nearest = new ArrayList<>();
+		List<GazetteerSource.Searchers> acquired = new ArrayList<>();
+		try {
+			for (GazetteerSource source : sources) {
+				acquired.add(source.acquire());
+			}
+			//the k nearest lie within the first circle holding k locations
+			Sort sort = new Sort(distanceSort, populationSort);
+			double radius = Math.min(INITIAL_NEAREST_RADIUS, maxDistanceInMiles);
+			List<Map<String, TopDocs>> sourceHits;
+			while (true) {
+				Filter filter = Spatial.STRATEGY.makeFilter(new SpatialArgs(SpatialOperation.IsWithin,
+						Spatial.CTX.makeCircle(center, radius / milesPerDegree)));
+				sourceHits = scatterGather(acquired, Collections.nCopies(sources.size(), queries), filter, null,
+						sort, topN);
+				int found = 0;
+				for (Map<String, TopDocs> hits : sourceHits) {
+					found += hits.get(key).totalHits;
+				}
+				if (found >= count || radius >= maxDistanceInMiles) {
+					break;
+				}
+				//jump to the radius the density found so far predicts, at least doubling it
+				double growth = found == 0 ? RADIUS_GROWTH
+						: Math.max(RADIUS_GROWTH, Math.sqrt((double) count / found));
+				radius = Math.min(radius * growth, maxDistanceInMiles);
+			}
+
+			DistanceKernel kernel = new DistanceKernel(latitude, longitude);
+			for (int i = 0; i < sources.size(); i++) {
+				List<Location> candidates = readCandidates(acquired.get(i).getSearchers(),
+						sourceHits.get(i).get(key).scoreDocs, false, false);
+				for (Location location : candidates) {
+					location.setSource(sources.get(i).getName());
+				}
+				kernel.annotate(candidates);
+				acquired.get(i).getAdminHierarchy().enrich(candidates);
+				nearest.addAll(candidates);
+			}
+		} finally {
+			release(sources, acquired);
+		}
+		Collections.sort(nearest, NEAREST_FIRST);
+		return nearest;
+	}
+
+	/**
+	 * @return copies of the locations within a distance of a coordinate, in
+	 * the same order, with their distance to that coordinate
+	 */
+	private static List<Location> locatedWithin(List<Location> locations, double latitude, double longitude,
+			double distanceInMiles) {
+		DistanceKernel kernel = new DistanceKernel(latitude, longitude);
+		List<Location> within = new ArrayList<>();
+		for (Location location : locations) {
+			double distance = kernel.miles(location);
+			if (distance <= distanceInMiles) {
+				Location copy = new Location(location);
+				copy.setDistance(distance);
+				within.add(copy);
+			}
+		}
+		return within;
+	}
+
+	/**
+	 * Reverse geocodes a coordinate: the admin boundaries containing it, when
+	 * boundaries are set, and the places nearest to it.
+	 * @param latitude latitude of the coordinate
+	 * @param longitude longitude of the coordinate
+	 * @param count Upper bound to number of nearby places
+	 * @return areas and nearby places
+	 * @throws IOException
+	 */
+	public ReverseGeocode reverseGeocode(double latitude, double longitude, int count) throws IOException {
+		return reverseGeocode(latitude, longitude, count, DEFAULT_MAX_NEAREST_RADIUS, NearbyOrder.DISTANCE);
+	}
+
+	/**
+	 * Reverse geocodes a coordinate: the admin boundaries containing it, when
+	 * boundaries are set, and the places nearest to it.
+	 * @param latitude latitude of the coordinate
+	 * @param longitude longitude of the coordinate
+	 * @param count Upper bound to number of nearby places
+	 * @param maxDistanceInMiles radius the search for nearby places stops growing at
+	 * @param order order of nearby places
+	 * @return areas and nearby places
+	 * @throws IOException
+	 */
+	public ReverseGeocode reverseGeocode(double latitude, double longitude, int count, double maxDistanceInMiles,
+			NearbyOrder order) throws IOException {
+		BoundaryIndex index = boundaries;
+		List<AdminArea> areas = index == null ? Collections.<AdminArea>emptyList()
+				: index.containing(latitude, longitude);
+		return new ReverseGeocode(latitude, longitude, areas,
+				searchNearest(latitude, longitude, count, maxDistanceInMiles, order));
+	}
+
+	/**
+	 * Finds place names in free text and resolves them. Distinct names are
+	 * resolved in one batch, so a name repeated in the text is searched once.
+	 * @param text the text
+	 * @param count Number of results per place name
+	 * @param countryCode ISO country code restricting results, may be null
+	 * @return place names in order of appearance, with their locations. Names
+	 * which do not resolve are left out.
+	 * @throws IOException
+	 */
+	public List<Toponym> tag(String text, int count, String countryCode) throws IOException {
+		List<Toponym> toponyms = getToponymTagger().tag(text);
+		Set<String> names = new LinkedHashSet<>();
+		for (Toponym toponym : toponyms) {
+			names.add(toponym.getText());
+		}
+		if (names.isEmpty()) {
+			return toponyms;
+		}
+		Map<String, List<Location>> resolved = searchGeoName(new ArrayList<>(names), count, countryCode);
+		List<Toponym> found = new ArrayList<>();
+		for (Toponym toponym : toponyms) {
+			List<Location> locations = resolved.get(toponym.getText());
+			if (locations != null && !locations.isEmpty()) {
+				toponym.setLocations(locations);
+				found.add(toponym);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Sets the analysis of name fields used by {@link #buildIndex}. Searches
+	 * always use the analysis each index was built with.
+	 * @param analyzer analyzer of name fields
+	 */
+	public void setAnalyzer(NameAnalyzer analyzer) {
+		this.analyzer = analyzer;
+	}
+
+	/**
+	 * Sets alternate names indexed by {@link #buildIndex} in place of the
+	 * comma joined alternate names of the gazetteer file
+	 * @param alternateNames names read from alternateNamesV2.txt, null to use the gazetteer file
+	 */
+	public void setAlternateNames(AlternateNames alternateNames) {
+		this.alternateNames = alternateNames;
+	}
+
+	/**
+	 * Sets the model ranking candidates inside Lucene scoring. Only indexes
+	 * having the ranking features in doc values, built by this version, rank
+	 * well with a model.
+	 * @param rankingModel the model, null for the built-in ranking
+	 */
+	public void setRankingModel(RankingModel rankingModel) {
+		this.rankingModel = rankingModel;
+	}
+
+	/**
+	 * Sets admin boundaries reported by {@link #reverseGeocode}
+	 * @param boundaries the boundaries, null to only report nearby places
+	 */
+	public void setBoundaries(BoundaryIndex boundaries) {
+		this.boundaries = boundaries;
+	}
+
+	/**
+	 * Sets the precision of the cache of searches near a coordinate, whose
+	 * answers are served to later searches within the same geohash cell
+	 * @param precision geohash length of cells, 0 disables the cache
+	 */
+	public void setReverseCachePrecision(int precision) {
+		this.reverseCache = precision > 0
+				? new ReverseCache(precision, ReverseCache.DEFAULT_CAPACITY) : null;
+	}
+
+	private void clearReverseCache() {
+		ReverseCache cache = reverseCache;
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Enables or disables disambiguation of the names of a batch by their
+	 * geographic coherence, enabled by default. Big batches are never
+	 * disambiguated together.
+	 * @param contextDisambiguation true to pick coherent candidates for names searched together
+	 */
+	public void setContextDisambiguation(boolean contextDisambiguation) {
+		this.contextDisambiguation = contextDisambiguation;
+	}
+
+	/**
+	 * Sets the minimum population of places whose names are tagged in text.
+	 * Takes effect next time the toponym dictionary is built.
+	 * @param minPopulation minimum population
+	 */
+	public void setTaggerMinPopulation(long minPopulation) {
+		this.taggerMinPopulation = minPopulation;
+		this.toponymTagger = null;
+	}
+
+	private synchronized ToponymTagger getToponymTagger() throws IOException {
+		if (toponymTagger == null) {
+			List<GazetteerSource.Searchers> acquired = new ArrayList<>();
+			try {
+				List<IndexReader> readers = new ArrayList<>();
+				for (GazetteerSource source : sources) {
+					GazetteerSource.Searchers searchers = source.acquire();
+					acquired.add(searchers);
+					for (IndexSearcher searcher : searchers.getSearchers()) {
+						readers.add(searcher.getIndexReader());
+					}
+				}
+				//names are matched as the main source analyzes them
+				toponymTagger = ToponymTagger.build(readers, acquired.get(0).getAnalyzer(),
+						taggerMinPopulation, true);
+			} finally {
+				release(sources, acquired);
+			}
+		}
+		return toponymTagger;
+	}
+
+	/**
+	 * Opens the index once and preloads doc values and term dictionaries, then
+	 * replays the given names through the resolver so that the first real
+	 * queries do not pay the cold start cost. The resolver counts as warm
+	 * afterwards even if warm up failed, it then serves from a cold index.
+	 * @param names popular location names to replay, may be empty
+	 * @throws IOException
+	 */
+	public void warmUp(List<String> names) throws IOException {
+		long start = System.currentTimeMillis();
+		List<GazetteerSource.Searchers> acquired = new ArrayList<>();
+		try {
+			List<IndexReader> readers = new ArrayList<>();
+			for (GazetteerSource source : sources) {
+				GazetteerSource.Searchers searchers = source.acquire();
+				acquired.add(searchers);
+				for (IndexSearcher searcher : searchers.getSearchers()) {
+					readers.add(searcher.getIndexReader());
+				}
+			}
+			new IndexWarmer(readers).warm(this, names);
+			LOG.info("Index warmed up in " + (System.currentTimeMillis() - start) + "ms");
+		} finally {
+			release(sources, acquired);
+			warmupMillis = System.currentTimeMillis() - start;
+			warm = true;
+		}
+	}
+
+	/**
+	 * @return true once {@link #warmUp(List)} has completed
+	 */
+	public boolean isWarm() {
+		return warm;
+	}
+
+	/**
+	 * @return generation, document and segment counts of the open index
+	 * along with its warm status. When several sources are federated document
+	 * and segment counts are totals and every source is reported on its own.
+	 */
+	public IndexStatus getIndexStatus() {
+		IndexStatus status;
+		if (sources.size() == 1) {
+			status = sources.get(0).getStatus();
+		} else {
+			status = new IndexStatus();
+			List<IndexStatus> sourceStatuses = new ArrayList<>();
+			for (GazetteerSource source : sources) {
+				IndexStatus sourceStatus = source.getStatus();
+				sourceStatus.setWarm(warm);
+				status.setNumDocs(status.getNumDocs() + sourceStatus.getNumDocs());
+				status.setSegmentCount(status.getSegmentCount() + sourceStatus.getSegmentCount());
+				status.setShardCount(status.getShardCount() + sourceStatus.getShardCount());
+				sourceStatuses.add(sourceStatus);
+			}
+			status.setSources(sourceStatuses);
+		}
+		status.setWarm(warm);
+		status.setWarmupMillis(warmupMillis);
+		status.setCoalescedSearches(searchFlights.getCoalesced());
+		status.setFilteredNames(filteredNames.get());
+		status.setMissedNameHits(missedNames.getHits());
+		ReverseCache cache = reverseCache;
+		if (cache != null) {
+			status.setReverseCache(cache.getStatus());
+		}
+		return status;
+	}
+
+	private HashMap<String, List<Location>> resolveEntities(List<String> locationNames,
+														  int count, String countryCode, String language,
+														  boolean disambiguateContext,
+														  List<GazetteerSource> searchSources,
+														  DistanceKernel near, NearbyOrder nearOrder) throws IOException {
+		if (language != null) {
+			language = language.trim().toLowerCase();
+		}
+		//case and whitespace variants of a name are searched once, as spelled first
+		Map<String, String> spellings = new HashMap<>();
+		Map<String, String> variants = new LinkedHashMap<>();
+		List<String> distinctNames = new ArrayList<>(locationNames.size());
+		for (String name : locationNames) {
+			String canonical = canonicalName(name);
+			String spelling = spellings.get(canonical);
+			if (spelling == null) {
+				spellings.put(canonical, name);
+				distinctNames.add(name);
+			} else if (!spelling.equals(name)) {
+				variants.put(name, spelling);
+			}
+		}
+		locationNames = distinctNames;
+		int hitsPerPage = locationNames.size() >= BIG_BATCH_SIZE ? HITS_PER_PAGE_BIG_BATCH : HITS_PER_PAGE;
+
+		RankingModel model = rankingModel;
+		//names searched near a coordinate are disambiguated by their distance to it
+		boolean disambiguate = disambiguateContext && near == null && locationNames.size() > 1
+				&& locationNames.size() < BIG_BATCH_SIZE;
+		//names found matching nothing before are not searched again until a source changes
+		boolean cacheMisses = searchSources == sources;
+		Long generation = cacheGeneration.get();
+		String missKeySuffix = "\t" + (countryCode == null ? "" : countryCode.trim().toLowerCase())
+				+ "\t" + (language == null ? "" : language);
+		if (cacheMisses) {
+			List<String> searchedNames = new ArrayList<>(locationNames.size());
+			for (String name : locationNames) {
+				if (!generation.equals(missedNames.get(canonicalName(name) + missKeySuffix))) {
+					searchedNames.add(name);
+				}
+			}
+			locationNames = searchedNames;
+		}
+		HashMap<String, List<Location>> allCandidates = new HashMap<String, List<Location>>();
+		Map<String, Float> sourceWeights = new HashMap<>();
+		Map<String, Map<String, String>> normalizedNames = new HashMap<>();
+		Set<String> possibleNames = new HashSet<>();
+		//analysis, filter and admin names are read from the acquired index, which a reload does not change
+		List<GazetteerSource.Searchers> acquired = new ArrayList<>();
+		try {
+			for (GazetteerSource source : searchSources) {
+				sourceWeights.put(source.getName(), source.getWeight());
+				acquired.add(source.acquire());
+			}
+			//sources built with the same analysis share their queries
+			Map<NameAnalyzer, Map<String, Query>> analyzerQueries = new HashMap<>();
+			List<Map<String, Query>> sourceQueries = new ArrayList<>();
+			for (int i = 0; i < searchSources.size(); i++) {
+				NameAnalyzer sourceAnalyzer = acquired.get(i).getAnalyzer();
+				//names having a term no name of the source has cannot match there
+				NameFilter nameFilter = acquired.get(i).getNameFilter();
+				List<String> sourceNames = locationNames;
+				if (nameFilter != null) {
+					sourceNames = new ArrayList<>(locationNames.size());
+					for (String name : locationNames) {
+						if (nameFilter.mightMatch(name, sourceAnalyzer)) {
+							sourceNames.add(name);
+						}
+					}
+				}
+				possibleNames.addAll(sourceNames);
+				Map<String, Query> parsed = analyzerQueries.get(sourceAnalyzer);
+				if (parsed == null) {
+					parsed = new HashMap<>();
+					analyzerQueries.put(sourceAnalyzer, parsed);
+				}
+				List<String> unparsed = new ArrayList<>();
+				for (String name : sourceNames) {
+					if (!parsed.containsKey(name)) {
+						unparsed.add(name);
+					}
+				}
+				Map<String, Query> parsedNow = parseQueries(unparsed, sourceAnalyzer, language);
+				if (near != null) {
+					for (Map.Entry<String, Query> query : parsedNow.entrySet()) {
+						query.setValue(near.rank(query.getValue(), nearOrder));
+					}
+				} else if (model != null) {
+					for (Map.Entry<String, Query> query : parsedNow.entrySet()) {
+						query.setValue(model.rank(query.getValue(), sourceAnalyzer.normalize(query.getKey())));
+					}
+				}
+				parsed.putAll(parsedNow);
+				Map<String, Query> queries = new HashMap<>();
+				for (String name : sourceNames) {
+					if (parsed.containsKey(name)) {
+						queries.put(name, parsed.get(name));
+					}
+				}
+				sourceQueries.add(queries);
+				if (sourceAnalyzer.isNormalizing()) {
+					Map<String, String> normalized = new HashMap<>();
+					for (String name : sourceNames) {
+						normalized.put(name, sourceAnalyzer.normalize(name));
+					}
+					normalizedNames.put(searchSources.get(i).getName(), normalized);
+				}
+			}
+			filteredNames.addAndGet(locationNames.size() - possibleNames.size());
+			if (possibleNames.isEmpty()) {
+				return new HashMap<String, List<Location>>();
+			}
+			Filter filter = null;
+			if (countryCode != null) {
+				filter = new QueryWrapperFilter(new TermQuery(new Term(FIELD_NAME_COUNTRY_CODE,
+						countryCode.trim().toLowerCase())));
+			}
+
+			List<Map<String, TopDocs>> sourceHits;
+			boolean ranked = model != null || near != null;
+			if (!ranked) {
+				//Fetch 3 times desired values, these will be sorted on code and only desired number will be kept
+				sourceHits = scatterGather(acquired, sourceQueries, filter, countryCode,
+						new Sort(populationSort), hitsPerPage * 3);
+			} else {
+				//the model or the distance selects the top candidates, ties broken by population
+				sourceHits = scatterGather(acquired, sourceQueries, filter, countryCode,
+						new Sort(SortField.FIELD_SCORE, populationSort),
+						disambiguate ? Math.max(count, ContextDisambiguator.CANDIDATES_PER_NAME) : count);
+			}
+			//candidates of every source are appended in order of sources
+			for (int i = 0; i < searchSources.size(); i++) {
+				for (Map.Entry<String, TopDocs> entry : sourceHits.get(i).entrySet()) {
+					//only candidates weighed by pickBestCandidates need their alternate names
+					List<Location> candidates = getMatchingCandidates(acquired.get(i).getSearchers(),
+							entry.getValue().scoreDocs, hitsPerPage, ranked, !ranked);
+					for (Location location : candidates) {
+						location.setSource(searchSources.get(i).getName());
+					}
+					List<Location> merged = allCandidates.get(entry.getKey());
+					if (merged == null) {
+						merged = new ArrayList<>();
+						allCandidates.put(entry.getKey(), merged);
+					}
+					merged.addAll(candidates);
+				}
+			}
+		} finally {
+			release(searchSources, acquired);
+		}
+		if (cacheMisses) {
+			for (String name : possibleNames) {
+				List<Location> candidates = allCandidates.get(name);
+				if (candidates == null || candidates.isEmpty()) {
+					missedNames.put(canonicalName(name) + missKeySuffix, generation);
+				}
+			}
+		}
 
-		if (locationNameEntities.size() == 0
-				|| locationNameEntities.get(0).length() == 0)
-			return new HashMap<String, List<Location>>();
-		IndexReader reader = createIndexReader(indexerPath);
-		HashMap<String, List<Location>> resolvedEntities =
-				resolveEntities(locationNameEntities, count, reader);
-		reader.close();
+		HashMap<String, List<Location>> resolvedEntities = new HashMap<String, List<Location>>();
+		disambiguate &= allCandidates.size() > 1;
+		int candidateCount = disambiguate ? Math.max(count, ContextDisambiguator.CANDIDATES_PER_NAME) : count;
+		if (near != null) {
+			pickNearestCandidates(resolvedEntities, allCandidates, candidateCount, near, nearOrder);
+		} else if (model != null) {
+			pickRankedCandidates(resolvedEntities, allCandidates, candidateCount, sourceWeights);
+		} else {
+			pickBestCandidates(resolvedEntities, allCandidates, candidateCount, sourceWeights, normalizedNames,
+					language);
+		}
+		if (disambiguate) {
+			new ContextDisambiguator().disambiguate(resolvedEntities);
+			for (Map.Entry<String, List<Location>> entry : resolvedEntities.entrySet()) {
+				if (entry.getValue().size() > count) {
+					entry.setValue(new ArrayList<>(entry.getValue().subList(0, count)));
+				}
+			}
+		}
+		enrich(resolvedEntities, searchSources, acquired);
+		for (Map.Entry<String, String> variant : variants.entrySet()) {
+			List<Location> locations = resolvedEntities.get(variant.getValue());
+			if (locations != null) {
+				resolvedEntities.put(variant.getKey(), new ArrayList<>(locations));
+			}
+		}
 		return resolvedEntities;
+	}
 
+	private static Map<String, Query> parseQueries(List<String> locationNames, Analyzer nameAnalyzer,
+			String language) {
+		String[] fields = { FIELD_NAME_NAME, language == null ? FIELD_NAME_ALTERNATE_NAMES
+				: FIELD_NAME_ALTERNATE_NAMES_LANGUAGE_PREFIX + language };
+		Map<String, Query> queries = new HashMap<>();
+		for (String name : locationNames) {
+			if (!queries.containsKey(name)) {
+				try {
+					//query is wrapped in additional quotes (") to avoid query tokenization on space
+					queries.put(name, new MultiFieldQueryParser(fields, nameAnalyzer).parse(String.format("\"%s\"", name) ));
+				} catch (org.apache.lucene.queryparser.classic.ParseException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return queries;
 	}
-	
+
 	/**
-	 * Returns a list of location near a certain coordinate. 
-	 * @param latitude, @param longitude - Center of search area 
-	 * @param distanceInMiles - Search Radius in miles
-	 * @param indexerPath - Path to Lucene index
-	 * @param count - Upper bound to number of results
-	 * @return - List of locations sorted by population
-	 * @throws IOException
+	 * Sets country and admin division names of results from the hierarchy
+	 * of the source each result came from
 	 */
-	public List<Location> searchNearby(Double latitude, Double longitude, Double distanceInMiles, String indexerPath, int count) throws IOException {
-		
-		double distanceInDeg = DistanceUtils.dist2Degrees(distanceInMiles,DistanceUtils.EARTH_EQUATORIAL_RADIUS_MI);
-		SpatialArgs spatialArgs = new SpatialArgs(SpatialOperation.IsWithin,
-				ctx.makeCircle(longitude,latitude, distanceInDeg));
-		
-		String key = latitude+"-"+longitude;
-		Filter filter = strategy.makeFilter(spatialArgs);
-		
-		IndexSearcher searcher = new IndexSearcher(createIndexReader(indexerPath));
-		Sort sort = new Sort(populationSort);
-		TopDocs topDocs = searcher.search(new MatchAllDocsQuery(), filter, count, sort);
-
-		ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-		HashMap<String, List<Location>> allCandidates = new HashMap<String, List<Location>>();
+	private void enrich(Map<String, List<Location>> resolvedEntities, List<GazetteerSource> searchSources,
+			List<GazetteerSource.Searchers> searched) {
+		if (searchSources.size() == 1) {
+			for (List<Location> locations : resolvedEntities.values()) {
+				searched.get(0).getAdminHierarchy().enrich(locations);
+			}
+			return;
+		}
+		Map<String, AdminHierarchy> hierarchies = new HashMap<>();
+		for (int i = 0; i < searchSources.size(); i++) {
+			hierarchies.put(searchSources.get(i).getName(), searched.get(i).getAdminHierarchy());
+		}
+		for (List<Location> locations : resolvedEntities.values()) {
+			for (Location location : locations) {
+				AdminHierarchy hierarchy = hierarchies.get(location.getSource());
+				if (hierarchy != null) {
+					hierarchy.enrich(Collections.singletonList(location));
+				}
+			}
+		}
+	}
 
-		getMatchingCandidates(searcher, allCandidates, key, scoreDocs);
-		List<Location> results = allCandidates.get(key);
-		
+	/**
+	 * Scatters queries to every shard of every source, concurrently when there are
+	 * several shards, and gathers the top hits of each source by population.
+	 * A country filtered query is only sent to the matching shard of a country
+	 * sharded source.
+	 * @param sourceSearchers acquired searchers of each source
+	 * @param queries queries by key
+	 * @param filter filter applied to every query, may be null
+	 * @param countryCode country filter used for routing, may be null
+	 * @param topN number of hits to keep per query
+	 * @return for each source, hits by key of the query. ScoreDoc.shardIndex is the index
+	 * of the searcher of the source the hit belongs to.
+	 */
+	private List<Map<String, TopDocs>> scatterGather(List<GazetteerSource.Searchers> sourceSearchers,
+			List<Map<String, Query>> sourceQueries, final Filter filter, String countryCode,
+			final Sort sort, final int topN) throws IOException {
+		List<Callable<Map<String, TopFieldDocs>>> tasks = new ArrayList<>();
+		//source and shard index of each task
+		List<int[]> taskShards = new ArrayList<>();
+		for (int s = 0; s < sourceSearchers.size(); s++) {
+			IndexSearcher[] searchers = sourceSearchers.get(s).getSearchers();
+			int routedShard = sourceSearchers.get(s).routeToShard(countryCode);
+			final Map<String, Query> queries = sourceQueries.get(s);
+			for (int i = 0; i < searchers.length; i++) {
+				if (routedShard >= 0 && routedShard != i) {
+					continue;
+				}
+				final IndexSearcher searcher = searchers[i];
+				tasks.add(new Callable<Map<String, TopFieldDocs>>() {
+					@Override
+					public Map<String, TopFieldDocs> call() throws IOException {
+						Map<String, TopFieldDocs> hits = new HashMap<>();
+						//sorts on a function, e.g. a distance, are bound to the searcher
+						Sort searcherSort = sort.rewrite(searcher);
+						for (Map.Entry<String, Query> query : queries.entrySet()) {
+							hits.put(query.getKey(), searcher.search(query.getValue(), filter, topN, searcherSort));
+						}
+						return hits;
+					}
+				});
+				taskShards.add(new int[] { s, i });
+			}
+		}
+		List<Map<String, TopFieldDocs>> shardHits = invokeAll(tasks);
+
+		Sort mergeSort = sourceSearchers.isEmpty() ? sort : sort.rewrite(sourceSearchers.get(0).getSearchers()[0]);
+		TopFieldDocs noHits = new TopFieldDocs(0, new ScoreDoc[0], mergeSort.getSort(), Float.NaN);
+		List<Map<String, TopDocs>> results = new ArrayList<>();
+		for (int s = 0; s < sourceSearchers.size(); s++) {
+			int shardCount = sourceSearchers.get(s).getSearchers().length;
+			Map<String, TopDocs> gathered = new HashMap<>();
+			for (String key : sourceQueries.get(s).keySet()) {
+				TopFieldDocs[] hits = new TopFieldDocs[shardCount];
+				Arrays.fill(hits, noHits);
+				for (int t = 0; t < tasks.size(); t++) {
+					if (taskShards.get(t)[0] == s) {
+						hits[taskShards.get(t)[1]] = shardHits.get(t).get(key);
+					}
+				}
+				gathered.put(key, TopDocs.merge(mergeSort, topN, hits));
+			}
+			results.add(gathered);
+		}
 		return results;
 	}
 
-	private IndexReader createIndexReader(String indexerPath) throws IOException {
-		File indexfile = new File(indexerPath);
-		indexDir = FSDirectory.open(indexfile.toPath());
-
-
-		if (!DirectoryReader.indexExists(indexDir)) {
-			LOG.log(Level.SEVERE,
-					"No Lucene Index Dierctory Found, Invoke indexBuild() First !");
-			System.exit(1);
+	/**
+	 * Runs tasks in the search thread pool, or in calling thread if there is only one
+	 * @return results in order of tasks
+	 */
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<>();
+		try {
+			if (tasks.size() == 1) {
+				results.add(tasks.get(0).call());
+				return results;
+			}
+			for (Future<T> future : getSearchExecutor().invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while searching gazetteer shards");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
 		}
-
-		return DirectoryReader.open(indexDir);
+		return results;
 	}
 
-	private HashMap<String, List<Location>> resolveEntities(List<String> locationNames,
-														  int count, IndexReader reader) throws IOException {
-		if (locationNames.size() >= 200)
-			hitsPerPage = 5; // avoid heavy computation
-		IndexSearcher searcher = new IndexSearcher(reader);
-		Query q = null;
-
-		HashMap<String, List<Location>> allCandidates = new HashMap<String, List<Location>>();
-
-		for (String name : locationNames) {
-
-			if (!allCandidates.containsKey(name)) {
-				try {
-					//query is wrapped in additional quotes (") to avoid query tokenization on space
-					q = new MultiFieldQueryParser(new String[] { FIELD_NAME_NAME,
-							FIELD_NAME_ALTERNATE_NAMES }, analyzer).parse(String.format("\"%s\"", name) );
+	private synchronized ExecutorService getSearchExecutor() {
+		if (searchExecutor == null) {
+			searchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+				private final AtomicInteger counter = new AtomicInteger();
 
-					Sort sort = new Sort(populationSort);
-					//Fetch 3 times desired values, these will be sorted on code and only desired number will be kept
-					ScoreDoc[] hits = searcher.search(q, hitsPerPage * 3 , sort).scoreDocs;
-
-					getMatchingCandidates(searcher, allCandidates, name, hits);
-				} catch (org.apache.lucene.queryparser.classic.ParseException e) {
-					e.printStackTrace();
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "gazetteer-search-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
 				}
-			}
+			});
 		}
+		return searchExecutor;
+	}
 
-		HashMap<String, List<Location>> resolvedEntities = new HashMap<String, List<Location>>();
-		pickBestCandidates(resolvedEntities, allCandidates, count);
-		return resolvedEntities;
+	private static void release(List<GazetteerSource> searchSources,
+			List<GazetteerSource.Searchers> acquired) throws IOException {
+		for (int i = 0; i < acquired.size(); i++) {
+			searchSources.get(i).release(acquired.get(i));
+		}
 	}
 
-	private void getMatchingCandidates(IndexSearcher searcher, HashMap<String, List<Location>> allCandidates,
-			String name, ScoreDoc[] hits) {
+	private List<Location> getMatchingCandidates(IndexSearcher[] searchers, ScoreDoc[] hits, int topCount,
+			boolean ranked, boolean withAlternateNames) {
+		List<Location> topHits = readCandidates(searchers, hits, ranked, withAlternateNames);
+		if (ranked) {
+			return topHits;
+		}
+		//Picking topCount number of locations from feature code sorted list 
+		return pickTopSortedByCode(topHits, topCount);
+	}
+
+	/**
+	 * Reads locations of hits, in order of hits
+	 * @param withAlternateNames true to read the alternate names too, which
+	 * are only needed by {@link #pickBestCandidates}
+	 */
+	private List<Location> readCandidates(IndexSearcher[] searchers, ScoreDoc[] hits, boolean ranked,
+			boolean withAlternateNames) {
 		List<Location> topHits = new ArrayList<Location>();
+		Set<String> fieldsToLoad = withAlternateNames ? WEIGHED_CANDIDATE_FIELDS : CANDIDATE_FIELDS;
 
 		for (int i = 0; i < hits.length; ++i) {
 			Location tmpLocObj = new Location();
 
 			int docId = hits[i].doc;
+			IndexSearcher searcher = searchers[Math.max(hits[i].shardIndex, 0)];
 			Document d;
 			try {
-				d = searcher.doc(docId);
+				d = searcher.doc(docId, fieldsToLoad);
 				tmpLocObj.setName(d.get(FIELD_NAME_NAME));
-				tmpLocObj.setLongitude(d.get(FIELD_NAME_LONGITUDE));
-				tmpLocObj.setLatitude(d.get(FIELD_NAME_LATITUDE));
-				//If alternate names are empty put name as actual name
-				//This covers missing data and equals weight for later computation
-				if (d.get(FIELD_NAME_ALTERNATE_NAMES).isEmpty()){
-					tmpLocObj.setAlternateNames(d.get(FIELD_NAME_NAME));
-				}else{
-					tmpLocObj.setAlternateNames(d.get(FIELD_NAME_ALTERNATE_NAMES));
+				IndexableField id = d.getField(FIELD_NAME_ID);
+				if (id != null) {
+					tmpLocObj.setGeonameId(id.numericValue().intValue());
+					tmpLocObj.setLongitude(d.getField(FIELD_NAME_LONGITUDE).numericValue().doubleValue());
+					tmpLocObj.setLatitude(d.getField(FIELD_NAME_LATITUDE).numericValue().doubleValue());
+					tmpLocObj.setCountryCode(d.get(FIELD_NAME_COUNTRY_CODE));
+					tmpLocObj.setAdmin1Code(d.get(FIELD_NAME_ADMIN1_CODE));
+					tmpLocObj.setAdmin2Code(d.get(FIELD_NAME_ADMIN2_CODE));
+					tmpLocObj.setFeatureCode(d.get(FIELD_NAME_FEATURE_CODE));
+				} else {
+					//built with the compact profile
+					readDocValues(searcher.getIndexReader(), docId, tmpLocObj);
+				}
+				String normalizedName = d.get(FIELD_NAME_NORMALIZED_NAME);
+				if (normalizedName != null) {
+					tmpLocObj.setNormalizedName(normalizedName);
+				}
+				if (withAlternateNames) {
+					readAlternateNames(d, tmpLocObj);
+				}
+				//hits are sorted on population last, the last sort value is the population
+				if (hits[i] instanceof FieldDoc) {
+					Object[] sortValues = ((FieldDoc) hits[i]).fields;
+					Object population = sortValues[sortValues.length - 1];
+					if (population instanceof Number) {
+						tmpLocObj.setPopulation(((Number) population).longValue());
+					}
+					//ranked hits are sorted on the score of the ranking model first
+					if (ranked && sortValues[0] instanceof Number) {
+						tmpLocObj.setWeight(Math.round(((Number) sortValues[0]).floatValue()));
+					}
 				}
-				tmpLocObj.setCountryCode(d.get(FIELD_NAME_COUNTRY_CODE));
-				tmpLocObj.setAdmin1Code(d.get(FIELD_NAME_ADMIN1_CODE));
-				tmpLocObj.setAdmin2Code(d.get(FIELD_NAME_ADMIN2_CODE));
-				tmpLocObj.setFeatureCode(d.get(FIELD_NAME_FEATURE_CODE));
 
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 			topHits.add(tmpLocObj);
 		}
-		//Picking hitsPerPage number of locations from feature code sorted list 
-		allCandidates.put(name, pickTopSortedByCode(topHits,hitsPerPage));
+		return topHits;
 	}
 	
+	/**
+	 * Sets the alternate names of a location from its document
+	 */
+	private static void readAlternateNames(Document d, Location location) {
+		//If alternate names are empty put name as actual name
+		//This covers missing data and equals weight for later computation
+		String[] altNames = d.getValues(FIELD_NAME_ALTERNATE_NAMES);
+		//names indexed from alternateNamesV2.txt are tagged, one value per name, a single
+		//one included, older indexes hold one comma joined value
+		String[] altNameTags = d.getValues(FIELD_NAME_ALTERNATE_NAME_TAGS);
+		if (altNameTags.length > 0) {
+			location.setAlternateNameList(altNames, altNameTags);
+		}else if (altNames.length == 0 || altNames[0].isEmpty()){
+			location.setAlternateNames(d.get(FIELD_NAME_NAME));
+		}else{
+			location.setAlternateNames(altNames[0]);
+		}
+		//a normalizing index ranks on normalized names, so accents do not count as edits
+		String normalizedName = location.getNormalizedName();
+		if (normalizedName != null) {
+			String[] normalizedAltNames = d.getValues(FIELD_NAME_NORMALIZED_ALTERNATE_NAMES);
+			if (altNameTags.length > 0) {
+				location.setAlternateNameList(normalizedAltNames, altNameTags);
+			} else {
+				location.setAlternateNames(normalizedAltNames.length == 0
+						|| normalizedAltNames[0].isEmpty() ? normalizedName : normalizedAltNames[0]);
+			}
+		}
+	}
+
+	/**
+	 * Reads the fields a compact index keeps in doc values instead of stored fields
+	 */
+	private static void readDocValues(IndexReader reader, int docId, Location location) throws IOException {
+		List<LeafReaderContext> leaves = reader.leaves();
+		LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+		LeafReader leafReader = leaf.reader();
+		int doc = docId - leaf.docBase;
+		location.setGeonameId((int) DocValues.getNumeric(leafReader, FIELD_NAME_ID).get(doc));
+		location.setLongitude(DocValues.getNumeric(leafReader, FIELD_NAME_LONGITUDE).get(doc) / COORDINATE_SCALE);
+		location.setLatitude(DocValues.getNumeric(leafReader, FIELD_NAME_LATITUDE).get(doc) / COORDINATE_SCALE);
+		location.setCountryCode(DocValues.getSorted(leafReader, FIELD_NAME_COUNTRY_CODE).get(doc).utf8ToString());
+		location.setAdmin1Code(DocValues.getSorted(leafReader, FIELD_NAME_ADMIN1_CODE).get(doc).utf8ToString());
+		location.setAdmin2Code(DocValues.getSorted(leafReader, FIELD_NAME_ADMIN2_CODE).get(doc).utf8ToString());
+		location.setFeatureCode(DocValues.getSorted(leafReader, FIELD_NAME_FEATURE_CODE).get(doc).utf8ToString());
+	}
+
 	/**
 	 * Sorts inputLocations as per FeatureCodeComparator and returns at most topCount locations 
 	 * @param inputLocations List of locations to be sorted
@@ -305,7 +1631,7 @@ public class GeoNameResolver implements Closeable {
 		}
 		
 		Collections.sort(inputLocations, new CustomLuceneGeoGazetteerComparator.FeatureCodeComparator());
-		return inputLocations.subList(0, inputLocations.size() > topCount ? topCount : inputLocations.size() - 1);
+		return new ArrayList<>(inputLocations.subList(0, Math.min(topCount, inputLocations.size())));
 	}
 
 	/**
@@ -321,13 +1647,21 @@ public class GeoNameResolver implements Closeable {
 	 *            collection for all hitted documents
 	 * @param count
 	 * 			  Number of results for one locations
+	 * @param sourceWeights
+	 *            priority weight of each gazetteer source by name
+	 * @param normalizedNames
+	 *            searched names as normalized by each normalizing source, by source name
+	 * @param language
+	 *            language whose preferred names rank first, null for any language
 	 * @throws IOException
 	 * @throws RuntimeException
 	 */
 
 	private void pickBestCandidates(
 			HashMap<String, List<Location>> resolvedEntities,
-			HashMap<String, List<Location>> allCandidates, int count) {
+			HashMap<String, List<Location>> allCandidates, int count,
+			Map<String, Float> sourceWeights, Map<String, Map<String, String>> normalizedNames,
+			String language) {
 
 		for (String extractedName : allCandidates.keySet()) {
 
@@ -350,27 +1684,50 @@ public class GeoNameResolver implements Closeable {
 				int weight = 0;
 				// get cur's ith resolved entry's name
 				String resolvedName = String.format(" %s ", cur.get(i).getName());
-				if (resolvedName.contains(String.format(" %s ", extractedName))) {
+				String searchedName = extractedName;
+				Map<String, String> normalized = normalizedNames.get(cur.get(i).getSource());
+				if (normalized != null && cur.get(i).getNormalizedName() != null) {
+					//compare names as indexed, where accented and plain spellings are equal
+					resolvedName = String.format(" %s ", cur.get(i).getNormalizedName());
+					searchedName = normalized.get(extractedName);
+				}
+				if (resolvedName.contains(String.format(" %s ", searchedName))) {
 					// Assign a weight as per configuration if extracted name is found as a exact word in name
 					weight = WEIGHT_NAME_MATCH;
-				} else if (resolvedName.contains(extractedName)) {
+				} else if (resolvedName.contains(searchedName)) {
 					// Assign a weight as per configuration if extracted name is found partly in name
 					weight = WEIGHT_NAME_PART_MATCH;
 				}
 				// get all alternate names of cur's ith resolved entry's
-				String[] altNames = cur.get(i).getAlternateNames().split(",");
+				String[] altNames = cur.get(i).getAlternateNameList();
+				String[] altNameTags = cur.get(i).getAlternateNameTags();
 				float altEditDist = 0;
-				for(String altName : altNames){
-					if(altName.contains(extractedName)){
-						altEditDist+=StringUtils.getLevenshteinDistance(extractedName, altName);
+				boolean preferredMatch = false;
+				for(int j = 0; j < altNames.length; j++){
+					String altName = altNames[j];
+					if(altName.contains(searchedName)){
+						altEditDist+=StringUtils.getLevenshteinDistance(searchedName, altName);
+						// preferred and short names, e.g. UK, are how the place is usually called
+						if (altNameTags != null && !preferredMatch && altName.equalsIgnoreCase(searchedName)) {
+							preferredMatch = AlternateNames.AlternateName.isPreferredTag(altNameTags[j], language);
+						}
 					}
 				}
+				if (preferredMatch) {
+					weight += WEIGHT_PREFERRED_NAME_MATCH;
+				}
 				//lesser the edit distance more should be the weight
 				weight += getCalibratedWeight(altNames.length, altEditDist);
 
 				//Give preference to sorted results. 0th result should have more priority
 				weight += (cur.size()-i) * WEIGHT_SORT_ORDER;
 
+				//Scale by priority of the gazetteer the candidate came from
+				Float sourceWeight = sourceWeights.get(cur.get(i).getSource());
+				if (sourceWeight != null && sourceWeight != GazetteerSource.DEFAULT_WEIGHT) {
+					weight = Math.round(weight * sourceWeight);
+				}
+
 				cur.get(i).setWeight(weight);
 
 				if (weight > maxWeight) {
@@ -386,13 +1743,72 @@ public class GeoNameResolver implements Closeable {
 			List<Location> resultList = new ArrayList<>();
 
 			for(int i =0 ; i< count && !pq.isEmpty() ; i++){
-				resultList.add(pq.poll());
+				Location location = pq.poll();
+				//alternate names are only needed for ranking, keep results lean
+				location.releaseAlternateNames();
+				resultList.add(location);
 			}
 
 			resolvedEntities.put(extractedName, resultList);
 		}
 	}
 
+	/**
+	 * Picks candidates ranked by the ranking model. Candidates of every source
+	 * are already in order, only those of federated sources are merged by
+	 * their score scaled by the source weight.
+	 */
+	private void pickRankedCandidates(HashMap<String, List<Location>> resolvedEntities,
+			HashMap<String, List<Location>> allCandidates, int count, Map<String, Float> sourceWeights) {
+		for (Map.Entry<String, List<Location>> entry : allCandidates.entrySet()) {
+			List<Location> cur = entry.getValue();
+			if (cur.isEmpty()) {
+				continue;
+			}
+			if (sourceWeights.size() > 1) {
+				for (Location location : cur) {
+					Float sourceWeight = sourceWeights.get(location.getSource());
+					if (sourceWeight != null && sourceWeight != GazetteerSource.DEFAULT_WEIGHT) {
+						location.setWeight(Math.round(location.getWeight() * sourceWeight));
+					}
+				}
+				Collections.sort(cur, new Comparator<Location>() {
+					@Override
+					public int compare(Location o1, Location o2) {
+						return Integer.compare(o2.getWeight(), o1.getWeight());
+					}
+				});
+			}
+			List<Location> resultList = new ArrayList<>(cur.subList(0, Math.min(count, cur.size())));
+			for (Location location : resultList) {
+				location.releaseAlternateNames();
+			}
+			resolvedEntities.put(entry.getKey(), resultList);
+		}
+	}
+
+	/**
+	 * Keeps the count first candidates of every name in the order of distance
+	 * to a coordinate, every candidate carrying its distance
+	 */
+	private static void pickNearestCandidates(HashMap<String, List<Location>> resolvedEntities,
+			HashMap<String, List<Location>> allCandidates, int count, DistanceKernel near, NearbyOrder order) {
+		for (Map.Entry<String, List<Location>> entry : allCandidates.entrySet()) {
+			List<Location> cur = entry.getValue();
+			if (cur.isEmpty()) {
+				continue;
+			}
+			near.annotate(cur);
+			//candidates of several sources are merged by distance, whatever their weight
+			Collections.sort(cur, order.comparator);
+			List<Location> resultList = new ArrayList<>(cur.subList(0, Math.min(count, cur.size())));
+			for (Location location : resultList) {
+				location.releaseAlternateNames();
+			}
+			resolvedEntities.put(entry.getKey(), resultList);
+		}
+	}
+
 	/**
 	 * Returns a weight for average edit distance for set of alternate name<br/><br/>
 	 * altNamesSize * WEIGHT_SIZE_ALT_NAME - (altEditDist/altNamesSize) ;<br/><br/>
@@ -423,8 +1839,7 @@ public class GeoNameResolver implements Closeable {
 		File indexfile = new File(indexerPath);
 		indexDir = FSDirectory.open(indexfile.toPath());
 		if (!DirectoryReader.indexExists(indexDir)) {
-			IndexWriterConfig config = new IndexWriterConfig(analyzer);
-			indexWriter = new IndexWriter(indexDir, config);
+			indexWriter = new IndexWriter(indexDir, newIndexWriterConfig());
 			Logger logger = Logger.getLogger(this.getClass().getName());
 			logger.log(Level.WARNING, "Start Building Index for Gazatteer");
 			BufferedReader filereader = new BufferedReader(
@@ -448,7 +1863,141 @@ public class GeoNameResolver implements Closeable {
 			}
 			logger.log(Level.WARNING, "Building Finished");
 			filereader.close();
+			indexProfile.finish(indexWriter);
+			indexWriter.setCommitData(commitData(gazetteerPath, reverseGeocodingEnabled));
 			indexWriter.close();
+			saveAdminHierarchy(gazetteerPath, indexerPath);
+			NameFilter.build(indexerPath).save(indexerPath);
+		}
+	}
+
+	/**
+	 * Build the gazetteer index partitioned into shards, which are built in parallel.
+	 * A single shard layout builds a plain index, same as
+	 * {@link #buildIndex(String, String, boolean)}.
+	 *
+	 * @param gazetteerPath
+	 *            path of the gazetteer file
+	 * @param indexerPath
+	 *            path to the created index directory, holding one lucene index per shard
+	 * @param reverseGeocodingEnabled
+	 *            true to index locations for reverse geocoding
+	 * @param layout
+	 *            number of shards and how entries are partitioned
+	 * @throws IOException
+	 */
+	public void buildIndex(String gazetteerPath, String indexerPath, boolean reverseGeocodingEnabled,
+			ShardLayout layout) throws IOException {
+		if (layout.getShardCount() == 1) {
+			buildIndex(gazetteerPath, indexerPath, reverseGeocodingEnabled);
+		} else {
+			if (new ShardedIndexBuilder(this).build(gazetteerPath, indexerPath,
+					reverseGeocodingEnabled, layout)) {
+				saveAdminHierarchy(gazetteerPath, indexerPath);
+				NameFilter.build(indexerPath).save(indexerPath);
+			}
+		}
+	}
+
+	/**
+	 * @return config of writers building an index with the analyzer and profile of this resolver
+	 */
+	IndexWriterConfig newIndexWriterConfig() {
+		return indexProfile.configure(new IndexWriterConfig(analyzer));
+	}
+
+	/**
+	 * @param gazetteerPath path of the gazetteer file the index is built from
+	 * @param reverseGeocodingEnabled true if locations are indexed for reverse geocoding
+	 * @return commit user data recording how an index of this resolver is built
+	 */
+	Map<String, String> commitData(String gazetteerPath, boolean reverseGeocodingEnabled) {
+		Map<String, String> commitData = new HashMap<>(analyzer.toCommitData());
+		commitData.put(IndexProfile.COMMIT_DATA_KEY, indexProfile.getOptionValue());
+		File gazetteer = new File(gazetteerPath);
+		commitData.put(SOURCE_FILE_COMMIT_KEY, gazetteer.getName());
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		commitData.put(SOURCE_MODIFIED_COMMIT_KEY, format.format(new Date(gazetteer.lastModified())));
+		commitData.put(REVERSE_COMMIT_KEY, String.valueOf(reverseGeocodingEnabled));
+		if (alternateNames != null) {
+			commitData.put(ALTERNATE_NAMES_COMMIT_KEY, "true");
+		}
+		return commitData;
+	}
+
+	/**
+	 * @return profile of indexes built by this resolver
+	 */
+	IndexProfile getIndexProfile() {
+		return indexProfile;
+	}
+
+	/**
+	 * Sets what {@link #buildIndex} stores besides the searched fields
+	 * @param indexProfile the profile
+	 */
+	public void setIndexProfile(IndexProfile indexProfile) {
+		this.indexProfile = indexProfile;
+	}
+
+	/**
+	 * Stores names of countries and admin divisions with the index, read from the
+	 * GeoNames code files downloaded next to the gazetteer file
+	 */
+	private void saveAdminHierarchy(String gazetteerPath, String indexerPath) throws IOException {
+		File gazetteerDir = new File(gazetteerPath).getAbsoluteFile().getParentFile();
+		AdminHierarchy hierarchy = AdminHierarchy.fromGeoNames(gazetteerDir);
+		if (hierarchy.size() > 0) {
+			hierarchy.save(indexerPath);
+			LOG.info("Stored " + hierarchy.size() + " country and admin division names");
+		}
+	}
+
+	/**
+	 * @return comma joined names, each normalized by the analyzer of this resolver
+	 */
+	private String normalizeAll(String alternateNames) {
+		if (alternateNames.isEmpty()) {
+			return alternateNames;
+		}
+		StringBuilder normalized = new StringBuilder(alternateNames.length());
+		for (String alternateName : alternateNames.split(",")) {
+			if (normalized.length() > 0) {
+				normalized.append(',');
+			}
+			normalized.append(analyzer.normalize(alternateName));
+		}
+		return normalized.toString();
+	}
+
+	/**
+	 * Adds every alternate name as a value of its own, tagged with its language
+	 * and flags, and also to the field of its language. The position gap of
+	 * {@link NameAnalyzer} keeps phrase queries from matching across two names.
+	 */
+	private void addAlternateNames(Document doc, int geonameId, String commaJoinedNames) {
+		List<AlternateNames.AlternateName> names = alternateNames.get(geonameId);
+		if (names.isEmpty()) {
+			//not in alternateNamesV2.txt, fall back to the names of the gazetteer line
+			names = new ArrayList<>();
+			for (String name : commaJoinedNames.split(",")) {
+				if (!name.isEmpty()) {
+					names.add(new AlternateNames.AlternateName(name, "", false, false));
+				}
+			}
+		}
+		boolean storeAll = indexProfile.storesAllFields();
+		for (AlternateNames.AlternateName name : names) {
+			doc.add(new TextField(FIELD_NAME_ALTERNATE_NAMES, name.getName(),
+					storeAll ? Field.Store.YES : Field.Store.NO));
+			if (storeAll) {
+				doc.add(new StoredField(FIELD_NAME_ALTERNATE_NAME_TAGS, name.getTag()));
+			}
+			if (!name.getLanguage().isEmpty()) {
+				doc.add(new TextField(FIELD_NAME_ALTERNATE_NAMES_LANGUAGE_PREFIX + name.getLanguage(),
+						name.getName(), Field.Store.NO));
+			}
 		}
 	}
 
@@ -462,7 +2011,7 @@ public class GeoNameResolver implements Closeable {
 	 * @throws IOException
 	 * @throws NumberFormatException
 	 */
-	private void addDoc(IndexWriter indexWriter, final String line, final boolean reverseGeocodingEnabled) {
+	void addDoc(IndexWriter indexWriter, final String line, final boolean reverseGeocodingEnabled) {
 		String[] tokens = line.split("\t");
 
 		int ID = Integer.parseInt(tokens[0]);
@@ -496,21 +2045,60 @@ public class GeoNameResolver implements Closeable {
 		String admin1Code = tokens[10];// eg US State
 		String admin2Code = tokens[11];// eg county
 
+		boolean storeAll = indexProfile.storesAllFields();
 		Document doc = new Document();
-		doc.add(new IntField(FIELD_NAME_ID, ID, Field.Store.YES));
 		doc.add(new TextField(FIELD_NAME_NAME, name, Field.Store.YES));
-		doc.add(new DoubleField(FIELD_NAME_LONGITUDE, longitude, Field.Store.YES));
-		doc.add(new DoubleField(FIELD_NAME_LATITUDE, latitude, Field.Store.YES));
-		doc.add(new TextField(FIELD_NAME_ALTERNATE_NAMES, alternatenames, Field.Store.YES));
-		doc.add(new TextField(FIELD_NAME_FEATURE_CODE, featureCode, Field.Store.YES));
-		doc.add(new TextField(FIELD_NAME_COUNTRY_CODE, countryCode, Field.Store.YES));
-		doc.add(new TextField(FIELD_NAME_ADMIN1_CODE, admin1Code, Field.Store.YES));
-		doc.add(new TextField(FIELD_NAME_ADMIN2_CODE, admin2Code, Field.Store.YES));
+		if (alternateNames == null) {
+			doc.add(new TextField(FIELD_NAME_ALTERNATE_NAMES, alternatenames, storeAll ? Field.Store.YES : Field.Store.NO));
+		} else {
+			addAlternateNames(doc, ID, alternatenames);
+		}
+		if (storeAll) {
+			doc.add(new IntField(FIELD_NAME_ID, ID, Field.Store.YES));
+			doc.add(new DoubleField(FIELD_NAME_LONGITUDE, longitude, Field.Store.YES));
+			doc.add(new DoubleField(FIELD_NAME_LATITUDE, latitude, Field.Store.YES));
+			doc.add(new TextField(FIELD_NAME_FEATURE_CODE, featureCode, Field.Store.YES));
+			doc.add(new TextField(FIELD_NAME_COUNTRY_CODE, countryCode, Field.Store.YES));
+			doc.add(new TextField(FIELD_NAME_ADMIN1_CODE, admin1Code, Field.Store.YES));
+			doc.add(new TextField(FIELD_NAME_ADMIN2_CODE, admin2Code, Field.Store.YES));
+		} else {
+			//only the country code is searched, the rest is read from doc values by readDocValues
+			doc.add(new Field(FIELD_NAME_COUNTRY_CODE, countryCode, CODE_TYPE));
+			doc.add(new NumericDocValuesField(FIELD_NAME_ID, ID));
+			doc.add(new NumericDocValuesField(FIELD_NAME_LONGITUDE, Math.round(longitude * COORDINATE_SCALE)));
+			doc.add(new NumericDocValuesField(FIELD_NAME_LATITUDE, Math.round(latitude * COORDINATE_SCALE)));
+			doc.add(new SortedDocValuesField(FIELD_NAME_FEATURE_CODE, new BytesRef(featureCode)));
+			doc.add(new SortedDocValuesField(FIELD_NAME_COUNTRY_CODE, new BytesRef(countryCode)));
+			doc.add(new SortedDocValuesField(FIELD_NAME_ADMIN1_CODE, new BytesRef(admin1Code)));
+			doc.add(new SortedDocValuesField(FIELD_NAME_ADMIN2_CODE, new BytesRef(admin2Code)));
+		}
 		doc.add(new NumericDocValuesField(FIELD_NAME_POPULATION, population));//sort enabled field
+		DistanceKernel.addUnitVector(doc, latitude, longitude);
+		doc.add(new NumericDocValuesField(FIELD_NAME_FEATURE_RANK,
+				CustomLuceneGeoGazetteerComparator.FeatureCodeComparator.rankOf(featureCode)));
+		doc.add(new NumericDocValuesField(FIELD_NAME_ALTERNATE_NAME_COUNT, alternateNames != null
+				? doc.getValues(FIELD_NAME_ALTERNATE_NAMES).length
+				: alternatenames.isEmpty() ? 0 : StringUtils.countMatches(alternatenames, ",") + 1));
+		doc.add(new SortedDocValuesField(FIELD_NAME_EXACT_NAME, new BytesRef(analyzer.normalize(name))));
+		if (analyzer.isNormalizing()) {
+			//normalized forms are only stored, ranking compares them with the normalized query
+			doc.add(new StoredField(FIELD_NAME_NORMALIZED_NAME, analyzer.normalize(name)));
+			//alternate names are only stored, and normalized, with every field
+			if (storeAll) {
+				if (alternateNames == null) {
+					doc.add(new StoredField(FIELD_NAME_NORMALIZED_ALTERNATE_NAMES, normalizeAll(alternatenames)));
+				} else {
+					for (String alternateName : doc.getValues(FIELD_NAME_ALTERNATE_NAMES)) {
+						doc.add(new StoredField(FIELD_NAME_NORMALIZED_ALTERNATE_NAMES,
+								analyzer.normalize(alternateName)));
+					}
+				}
+			}
+		}
 		
 		if (reverseGeocodingEnabled) {
-			Point point = ctx.makePoint(longitude, latitude);
-			for (IndexableField f : strategy.createIndexableFields(point)) {
+			Point point = Spatial.CTX.makePoint(longitude, latitude);
+			for (IndexableField f : Spatial.STRATEGY.createIndexableFields(point)) {
 				doc.add(f);
 			}
 		}
@@ -524,8 +2112,11 @@ public class GeoNameResolver implements Closeable {
 
 	@Override
 	public void close() throws IOException {
-		if (indexReader != null) {
-			this.indexReader.close();
+		if (searchExecutor != null) {
+			searchExecutor.shutdownNow();
+		}
+		for (GazetteerSource source : sources) {
+			source.close();
 		}
 	}
 	/**
@@ -573,7 +2164,22 @@ public class GeoNameResolver implements Closeable {
 		out.println("]");
 	}
 
+	private static String readText(String file) throws IOException {
+		if (!"-".equals(file)) {
+			return new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+		}
+		StringBuilder text = new StringBuilder();
+		Reader reader = new InputStreamReader(System.in, StandardCharsets.UTF_8);
+		char[] buffer = new char[8192];
+		int read;
+		while ((read = reader.read(buffer)) != -1) {
+			text.append(buffer, 0, read);
+		}
+		return text.toString();
+	}
+
 	public static void main(String[] args) throws Exception {
+		StartupTimer.start();
 		Option buildOpt = OptionBuilder.withArgName("gazetteer file").hasArg().withLongOpt("build")
 				.withDescription("The Path to the Geonames allCountries.txt")
 				.create('b');
@@ -612,11 +2218,244 @@ public class GeoNameResolver implements Closeable {
 				.withDescription("Add on indexing option for reverse geocoding. Defaults to false")
 				.create(REVERSE_OPT);
 
+		Option warmupOpt = OptionBuilder.withArgName("names file").hasArg()
+				.withLongOpt(WARMUP_LONG_OPT)
+				.withDescription("File with popular location names (one per line) replayed "
+						+ "to warm up the server index. Defaults to a built-in list")
+				.create();
+
+		Option directoryModeOpt = OptionBuilder.withArgName("fs|mmap|mmap-preload|nio|ram").hasArg()
+				.withLongOpt(DIRECTORY_MODE_LONG_OPT)
+				.withDescription("How the index directory is opened for search. Defaults to fs")
+				.create();
+
+		Option touchIntervalOpt = OptionBuilder.withArgName("seconds").hasArg()
+				.withLongOpt(TOUCH_INTERVAL_LONG_OPT)
+				.withDescription("Server mode, interval of the background pass keeping hot index "
+						+ "files resident in page cache. Defaults to 0 (disabled)")
+				.create();
+
+		Option sourceOpt = OptionBuilder.withArgName("name=path[@weight]").hasArgs()
+				.withLongOpt(SOURCE_LONG_OPT)
+				.withDescription("Additional gazetteer index searched along with the main index. "
+						+ "Candidates are weighted by the optional priority weight, defaults to 1.0")
+				.create();
+
+		Option shardsOpt = OptionBuilder.withArgName("number of shards").hasArg()
+				.withLongOpt(SHARDS_LONG_OPT)
+				.withDescription("Builds the index as this many shards in parallel. Defaults to 1")
+				.create();
+
+		Option shardByOpt = OptionBuilder.withArgName("hash|country").hasArg()
+				.withLongOpt(SHARD_BY_LONG_OPT)
+				.withDescription("How entries are partitioned into shards, by geoname id hash "
+						+ "or by country. Defaults to hash")
+				.create();
+
+		Option countryOpt = OptionBuilder.withArgName("country code").hasArg()
+				.withLongOpt(COUNTRY_LONG_OPT)
+				.withDescription("Restricts search results to the country with this ISO code")
+				.create();
+
+		Option tagOpt = OptionBuilder.withArgName("text files").hasArgs()
+				.withLongOpt(TAG_LONG_OPT)
+				.withDescription("Finds and resolves place names in text files, - reads stdin. "
+						+ "Prints one json line per file")
+				.create();
+
+		Option tagMinPopulationOpt = OptionBuilder.withArgName("population").hasArg()
+				.withLongOpt(TAG_MIN_POPULATION_LONG_OPT)
+				.withDescription("Only places with at least this population are tagged in text. Defaults to "
+						+ ToponymTagger.DEFAULT_MIN_POPULATION)
+				.create();
+
+		Option disambiguateOpt = OptionBuilder.withArgName("true / false").hasArg()
+				.withLongOpt(DISAMBIGUATE_LONG_OPT)
+				.withDescription("Picks geographically coherent results for names searched "
+						+ "together, e.g. Paris along with Texas. Defaults to true")
+				.create();
+
+		Option analysisOpt = OptionBuilder.withArgName("standard|folding|transliteration").hasArg()
+				.withLongOpt(ANALYSIS_LONG_OPT)
+				.withDescription("Analysis of names when building the index. folding matches names "
+						+ "regardless of accents, transliteration also matches Cyrillic and Greek names "
+						+ "written in latin letters. Defaults to standard")
+				.create();
+
+		Option alternateNamesOpt = OptionBuilder.withArgName("alternateNamesV2.txt").hasArg()
+				.withLongOpt(ALTERNATE_NAMES_LONG_OPT)
+				.withDescription("Indexes alternate names from the GeoNames alternateNamesV2.txt file, "
+						+ "each name on its own with its language and preferred / short flags. "
+						+ "The file is held in memory while building")
+				.create();
+
+		Option languageOpt = OptionBuilder.withArgName("language code").hasArg()
+				.withLongOpt(LANGUAGE_LONG_OPT)
+				.withDescription("Only matches names of this language, preferring its preferred names. "
+						+ "Requires an index built with --" + ALTERNATE_NAMES_LONG_OPT)
+				.create();
+
+		Option rankingOpt = OptionBuilder.withArgName("model files").hasArgs()
+				.withLongOpt(RANKING_LONG_OPT)
+				.withDescription("Ranks candidates inside Lucene scoring with feature weights read from "
+						+ "this properties file. With --" + EVALUATE_LONG_OPT + " every model given is compared")
+				.create();
+
+		Option evaluateOpt = OptionBuilder.withArgName("labeled sample").hasArg()
+				.withLongOpt(EVALUATE_LONG_OPT)
+				.withDescription("Compares the built-in ranking and the --" + RANKING_LONG_OPT
+						+ " models over a sample of name<TAB>geonameId[<TAB>country] lines")
+				.create();
+
+		Option boundariesOpt = OptionBuilder.withArgName("geojson file").hasArg()
+				.withLongOpt(BOUNDARIES_LONG_OPT)
+				.withDescription("Admin boundaries (GeoJSON Polygon / MultiPolygon features) reported by "
+						+ "--" + SEARCH_REVERSE_LONG_OPT + " and by the server")
+				.create();
+
+		Option profileOpt = OptionBuilder.withArgName("full / compact").hasArg()
+				.withLongOpt(PROFILE_LONG_OPT)
+				.withDescription("What the built index stores. compact only stores what results need, "
+						+ "for serving only nodes. Defaults to full")
+				.create();
+
+		Option sizeReportOpt = OptionBuilder.withLongOpt(SIZE_REPORT_LONG_OPT)
+				.withDescription("Prints the size of the index per kind of file and per field")
+				.create();
+
+		Option exportSnapshotOpt = OptionBuilder.withArgName("archive").hasArg()
+				.withLongOpt(EXPORT_SNAPSHOT_LONG_OPT)
+				.withDescription("Exports the index as a checksummed snapshot archive")
+				.create();
+
+		Option importSnapshotOpt = OptionBuilder.withArgName("archive").hasArg()
+				.withLongOpt(IMPORT_SNAPSHOT_LONG_OPT)
+				.withDescription("Validates a snapshot archive and installs it as the index, "
+						+ "keeping the current index as <index>" + IndexSnapshot.PREVIOUS_SUFFIX)
+				.create();
+
+		Option maxRadiusOpt = OptionBuilder.withArgName("miles").hasArg()
+				.withLongOpt(MAX_RADIUS_LONG_OPT)
+				.withDescription("Radius the search for locations nearest to the --" + SEARCH_REVERSE_LONG_OPT
+						+ " coordinate stops growing at. Defaults to " + DEFAULT_MAX_NEAREST_RADIUS)
+				.create();
+
+		Option loadTestOpt = OptionBuilder.withArgName("query log").hasArg()
+				.withLongOpt(LOAD_TEST_LONG_OPT)
+				.withDescription("Replays a query log against a running server at a fixed rate and prints "
+						+ "throughput, latency percentiles and errors. Lines of the log are api paths, "
+						+ "latitude,longitude coordinates or tab separated names; '" + LoadGenerator.SYNTHETIC_LOG
+						+ "' replays a built-in mix")
+				.create();
+
+		Option urlOpt = OptionBuilder.withArgName("url").hasArg()
+				.withLongOpt(URL_LONG_OPT)
+				.withDescription("Server --" + LOAD_TEST_LONG_OPT + " sends requests to. Defaults to "
+						+ DEFAULT_SERVER_URL)
+				.create();
+
+		Option rateOpt = OptionBuilder.withArgName("requests per second").hasArg()
+				.withLongOpt(RATE_LONG_OPT)
+				.withDescription("Rate --" + LOAD_TEST_LONG_OPT + " sends requests at, whatever the latency. "
+						+ "Defaults to 100")
+				.create();
+
+		Option durationOpt = OptionBuilder.withArgName("seconds").hasArg()
+				.withLongOpt(DURATION_LONG_OPT)
+				.withDescription("Length of a --" + LOAD_TEST_LONG_OPT + " run. Defaults to 60")
+				.create();
+
+		Option connectionsOpt = OptionBuilder.withArgName("connections").hasArg()
+				.withLongOpt(CONNECTIONS_LONG_OPT)
+				.withDescription("Most --" + LOAD_TEST_LONG_OPT + " requests in flight. Defaults to "
+						+ LoadGenerator.DEFAULT_CONNECTIONS)
+				.create();
+
+		Option nearOpt = OptionBuilder.withArgName("latitude,longitude").hasArg()
+				.withLongOpt(NEAR_LONG_OPT)
+				.withDescription("Ranks the locations of every searched name by their distance to this "
+						+ "coordinate, in --" + ORDER_LONG_OPT + " order, and reports the distance")
+				.create();
+
+		Option snapshotDirOpt = OptionBuilder.withArgName("directory").hasArg()
+				.withLongOpt(SNAPSHOT_DIR_LONG_OPT)
+				.withDescription("Directory the server installs snapshot archives from, "
+						+ "snapshot installs are refused without it")
+				.create();
+
+		Option reverseCacheOpt = OptionBuilder.withArgName("geohash length").hasArg()
+				.withLongOpt(REVERSE_CACHE_LONG_OPT)
+				.withDescription("Precision of the cells the results of searches near a coordinate are "
+						+ "cached by (server, --" + STREAM_LONG_OPT + " and --" + GEOCODE_LONG_OPT + "), 0 disables "
+						+ "the cache. Defaults to " + ReverseCache.DEFAULT_PRECISION)
+				.create();
+
+		Option orderOpt = OptionBuilder.withArgName("distance / population / blend").hasArg()
+				.withLongOpt(ORDER_LONG_OPT)
+				.withDescription("Order of locations found by --" + SEARCH_REVERSE_LONG_OPT
+						+ " or searched --" + NEAR_LONG_OPT + " a coordinate. Defaults to distance")
+				.create();
+
 		Option searchReverseOpt = OptionBuilder.withArgName("latitude , longitude").hasArgs()
 				.withLongOpt(SEARCH_REVERSE_LONG_OPT)
-				.withDescription("Search locations near this coordinate")
+				.withDescription("Search the --count locations nearest to this coordinate")
 				.create(SEARCH_REVERSE_OPT);
 
+		Option streamOpt = OptionBuilder.withLongOpt(STREAM_LONG_OPT)
+				.withDescription("Resolves stdin lines (names, latitude,longitude coordinates or json "
+						+ "requests) as they come, writing one json line per request to stdout")
+				.create();
+
+		Option batchSizeOpt = OptionBuilder.withArgName("lines").hasArg()
+				.withLongOpt(BATCH_SIZE_LONG_OPT)
+				.withDescription("Maximum number of --" + STREAM_LONG_OPT + " lines resolved together. Defaults to "
+						+ StreamResolver.DEFAULT_BATCH_SIZE)
+				.create();
+
+		Option workersOpt = OptionBuilder.withArgName("threads").hasArg()
+				.withLongOpt(WORKERS_LONG_OPT)
+				.withDescription("Number of --" + STREAM_LONG_OPT + " batches or --" + GEOCODE_LONG_OPT
+						+ " batches resolved in parallel. Defaults to the number of processors. In server "
+						+ "mode, number of API requests running at once, twice the processors by default")
+				.create();
+
+		Option clientLimitOpt = OptionBuilder.withArgName("requests").hasArg()
+				.withLongOpt(CLIENT_LIMIT_LONG_OPT)
+				.withDescription("Most API requests of one client, running or queued, in server mode. "
+						+ "Defaults to the number of --" + WORKERS_LONG_OPT)
+				.create();
+
+		Option flushOpt = OptionBuilder.withArgName("batch / buffer").hasArg()
+				.withLongOpt(FLUSH_LONG_OPT)
+				.withDescription("Flush --" + STREAM_LONG_OPT
+						+ " output after every batch, or only when the buffer is full. Defaults to batch")
+				.create();
+
+		Option geocodeOpt = OptionBuilder.withArgName("csv / tsv file").hasArg()
+				.withLongOpt(GEOCODE_LONG_OPT)
+				.withDescription("Geocodes every row of a delimited file with a header line into the --"
+						+ OUTPUT_LONG_OPT + " file, resuming an interrupted run from its checkpoint")
+				.create();
+
+		Option outputOpt = OptionBuilder.withArgName("file").hasArg()
+				.withLongOpt(OUTPUT_LONG_OPT)
+				.withDescription("Output of --" + GEOCODE_LONG_OPT
+						+ ", the input columns followed by the best location of the row, or json report of --"
+						+ LOAD_TEST_LONG_OPT)
+				.create();
+
+		Option columnsOpt = OptionBuilder.withArgName("name=col[,country=col] / lat=col,lon=col").hasArg()
+				.withLongOpt(COLUMNS_LONG_OPT)
+				.withDescription("Columns looked up by --" + GEOCODE_LONG_OPT
+						+ ", by header name or 1 based number")
+				.create();
+
+		Option chunkSizeOpt = OptionBuilder.withArgName("rows").hasArg()
+				.withLongOpt(CHUNK_SIZE_LONG_OPT)
+				.withDescription("Number of --" + GEOCODE_LONG_OPT + " rows resolved together. Defaults to "
+						+ BulkGeocoder.DEFAULT_CHUNK_SIZE)
+				.create();
+
 		String indexPath = null;
 		String gazetteerPath = null;
 		Options options = new Options();
@@ -629,6 +2468,45 @@ public class GeoNameResolver implements Closeable {
 		options.addOption(jsonOption);
 		options.addOption(reverseOption);
 		options.addOption(searchReverseOpt);
+		options.addOption(warmupOpt);
+		options.addOption(directoryModeOpt);
+		options.addOption(touchIntervalOpt);
+		options.addOption(sourceOpt);
+		options.addOption(shardsOpt);
+		options.addOption(shardByOpt);
+		options.addOption(countryOpt);
+		options.addOption(tagOpt);
+		options.addOption(tagMinPopulationOpt);
+		options.addOption(disambiguateOpt);
+		options.addOption(analysisOpt);
+		options.addOption(alternateNamesOpt);
+		options.addOption(languageOpt);
+		options.addOption(rankingOpt);
+		options.addOption(evaluateOpt);
+		options.addOption(boundariesOpt);
+		options.addOption(maxRadiusOpt);
+		options.addOption(orderOpt);
+		options.addOption(reverseCacheOpt);
+		options.addOption(nearOpt);
+		options.addOption(snapshotDirOpt);
+		options.addOption(loadTestOpt);
+		options.addOption(urlOpt);
+		options.addOption(rateOpt);
+		options.addOption(durationOpt);
+		options.addOption(connectionsOpt);
+		options.addOption(profileOpt);
+		options.addOption(sizeReportOpt);
+		options.addOption(exportSnapshotOpt);
+		options.addOption(importSnapshotOpt);
+		options.addOption(streamOpt);
+		options.addOption(batchSizeOpt);
+		options.addOption(workersOpt);
+		options.addOption(clientLimitOpt);
+		options.addOption(flushOpt);
+		options.addOption(geocodeOpt);
+		options.addOption(outputOpt);
+		options.addOption(columnsOpt);
+		options.addOption(chunkSizeOpt);
 
 		// create the parser
 		CommandLineParser parser = new DefaultParser();
@@ -637,6 +2515,7 @@ public class GeoNameResolver implements Closeable {
 		try {
 			// parse the command line arguments
 			CommandLine line = parser.parse(options, args);
+			StartupTimer.mark("options");
 
 			if (line.hasOption("index")) {
 				indexPath = line.getOptionValue("index");
@@ -646,6 +2525,36 @@ public class GeoNameResolver implements Closeable {
 				gazetteerPath = line.getOptionValue("build");
 			}
 
+			if (line.hasOption(DIRECTORY_MODE_LONG_OPT)) {
+				resolver.directoryMode = DirectoryMode.parse(line.getOptionValue(DIRECTORY_MODE_LONG_OPT));
+			}
+
+			resolver.contextDisambiguation = Boolean.valueOf(
+					line.getOptionValue(DISAMBIGUATE_LONG_OPT, "true"));
+
+			if (line.hasOption(ANALYSIS_LONG_OPT)) {
+				resolver.setAnalyzer(new NameAnalyzer(NameAnalyzer.Mode.valueOf(
+						line.getOptionValue(ANALYSIS_LONG_OPT).toUpperCase())));
+			}
+
+			resolver.setIndexProfile(IndexProfile.parse(line.getOptionValue(PROFILE_LONG_OPT)));
+
+			if (line.hasOption(ALTERNATE_NAMES_LONG_OPT) && gazetteerPath != null) {
+				resolver.setAlternateNames(AlternateNames.load(new File(line.getOptionValue(ALTERNATE_NAMES_LONG_OPT))));
+			}
+
+			if (line.hasOption(REVERSE_CACHE_LONG_OPT)) {
+				resolver.setReverseCachePrecision(Integer.parseInt(line.getOptionValue(REVERSE_CACHE_LONG_OPT)));
+			}
+
+			List<RankingModel> rankingModels = new ArrayList<>();
+			if (line.hasOption(RANKING_LONG_OPT)) {
+				for (String modelPath : line.getOptionValues(RANKING_LONG_OPT)) {
+					rankingModels.add(RankingModel.load(new File(modelPath)));
+				}
+				resolver.rankingModel = rankingModels.get(0);
+			}
+
 			if (line.hasOption("help")) {
 				HelpFormatter formatter = new HelpFormatter();
 				formatter.printHelp("lucene-geo-gazetteer", options);
@@ -656,17 +2565,132 @@ public class GeoNameResolver implements Closeable {
 				LOG.info("Building Lucene index at path: [" + indexPath
 						+ "] with geoNames.org file: [" + gazetteerPath + "]");
 				boolean reverseEnabled = Boolean.valueOf(line.getOptionValue(REVERSE_LONG_OPT,"false"));
+				ShardLayout layout = new ShardLayout(
+						ShardLayout.Policy.valueOf(line.getOptionValue(SHARD_BY_LONG_OPT, "hash").toUpperCase()),
+						Integer.parseInt(line.getOptionValue(SHARDS_LONG_OPT, "1")));
 				
-				resolver.buildIndex(gazetteerPath, indexPath, reverseEnabled);
+				resolver.buildIndex(gazetteerPath, indexPath, reverseEnabled, layout);
+				StartupTimer.mark("build");
+			}
+			if (line.hasOption(IMPORT_SNAPSHOT_LONG_OPT)) {
+				Properties manifest = IndexSnapshot.install(
+						new File(line.getOptionValue(IMPORT_SNAPSHOT_LONG_OPT)), indexPath);
+				System.out.println("Installed snapshot " + manifest.getProperty(IndexSnapshot.ID_PROP)
+						+ " of " + manifest.getProperty(IndexSnapshot.DOCS_PROP) + " documents at " + indexPath);
+			}
+			if (line.hasOption(EXPORT_SNAPSHOT_LONG_OPT)) {
+				Properties manifest = IndexSnapshot.export(indexPath,
+						new File(line.getOptionValue(EXPORT_SNAPSHOT_LONG_OPT)));
+				System.out.println("Exported snapshot " + manifest.getProperty(IndexSnapshot.ID_PROP)
+						+ " of " + manifest.getProperty(IndexSnapshot.DOCS_PROP) + " documents");
+			}
+			if (line.hasOption(SIZE_REPORT_LONG_OPT)) {
+				IndexSizeReport.measure(indexPath).write(System.out);
 			}
 			if (line.hasOption(SEARCH_REVERSE_LONG_OPT)) {
 				String[] latLong = line.getOptionValues(SEARCH_REVERSE_LONG_OPT);
 				int count = Integer.parseInt(line.getOptionValue("count", "1"));
 				
-				List<Location> resolved = resolver
-							.searchNearby(Double.parseDouble(latLong[0]), Double.parseDouble(latLong[1]), REVERSE_DISTANCE_LIMIT, indexPath, count);
-				
-				System.out.println(new Gson().toJson(resolved));
+				double maxRadius = Double.parseDouble(line.getOptionValue(MAX_RADIUS_LONG_OPT,
+						String.valueOf(DEFAULT_MAX_NEAREST_RADIUS)));
+				NearbyOrder order = NearbyOrder.valueOf(line.getOptionValue(ORDER_LONG_OPT, "distance").toUpperCase());
+				try (GeoNameResolver reverse = resolver.configure(
+						new GeoNameResolver(indexPath, resolver.directoryMode))) {
+					double latitude = Double.parseDouble(latLong[0]);
+					double longitude = Double.parseDouble(latLong[1]);
+					if (line.hasOption(BOUNDARIES_LONG_OPT)) {
+						reverse.setBoundaries(BoundaryIndex.load(new File(line.getOptionValue(BOUNDARIES_LONG_OPT))));
+						System.out.println(new Gson().toJson(reverse.reverseGeocode(latitude, longitude, count,
+								maxRadius, order)));
+					} else {
+						System.out.println(new Gson().toJson(reverse.searchNearest(latitude, longitude, count,
+								maxRadius, order)));
+					}
+					StartupTimer.mark("reverse search");
+				}
+			}
+
+			if (line.hasOption(EVALUATE_LONG_OPT)) {
+				try (GeoNameResolver evaluated = resolver.federateConfigured(indexPath, line)) {
+					List<RankingModel> compared = new ArrayList<>();
+					compared.add(null);
+					compared.addAll(rankingModels);
+					new RankingEvaluator(evaluated, line.getOptionValue(EVALUATE_LONG_OPT))
+							.compare(compared, Integer.parseInt(line.getOptionValue("count", "5")), System.out);
+				}
+			}
+
+			if (line.hasOption(TAG_LONG_OPT)) {
+				int count = Integer.parseInt(line.getOptionValue("count", "1"));
+				try (GeoNameResolver tagger = resolver.federateConfigured(indexPath, line)) {
+					if (line.hasOption(TAG_MIN_POPULATION_LONG_OPT)) {
+						tagger.setTaggerMinPopulation(
+								Long.parseLong(line.getOptionValue(TAG_MIN_POPULATION_LONG_OPT)));
+					}
+					Gson gson = new Gson();
+					for (String file : line.getOptionValues(TAG_LONG_OPT)) {
+						Map<String, Object> result = new LinkedHashMap<>();
+						result.put("file", file);
+						result.put("toponyms", tagger.tag(readText(file), count,
+								line.getOptionValue(COUNTRY_LONG_OPT)));
+						System.out.println(gson.toJson(result));
+					}
+				}
+			}
+
+			if (line.hasOption(STREAM_LONG_OPT)) {
+				try (GeoNameResolver streamed = resolver.federateConfigured(indexPath, line)) {
+					StreamResolver stream = new StreamResolver(streamed,
+							Integer.parseInt(line.getOptionValue("count", "1")),
+							line.getOptionValue(COUNTRY_LONG_OPT), line.getOptionValue(LANGUAGE_LONG_OPT));
+					if (line.hasOption(BATCH_SIZE_LONG_OPT)) {
+						stream.setBatchSize(Integer.parseInt(line.getOptionValue(BATCH_SIZE_LONG_OPT)));
+					}
+					if (line.hasOption(WORKERS_LONG_OPT)) {
+						stream.setWorkers(Integer.parseInt(line.getOptionValue(WORKERS_LONG_OPT)));
+					}
+					String flush = line.getOptionValue(FLUSH_LONG_OPT, "batch");
+					if (!"batch".equals(flush) && !"buffer".equals(flush)) {
+						throw new ParseException("Unknown flush mode: " + flush);
+					}
+					stream.setFlushEachBatch("batch".equals(flush));
+					PrintStream out = new PrintStream(new BufferedOutputStream(
+							new FileOutputStream(FileDescriptor.out), 1 << 16), false, StandardCharsets.UTF_8.name());
+					StartupTimer.finish("streaming");
+					stream.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), out);
+				}
+			}
+
+			if (line.hasOption(GEOCODE_LONG_OPT)) {
+				if (!line.hasOption(OUTPUT_LONG_OPT) || !line.hasOption(COLUMNS_LONG_OPT)) {
+					throw new ParseException("--" + GEOCODE_LONG_OPT + " requires --" + OUTPUT_LONG_OPT
+							+ " and --" + COLUMNS_LONG_OPT);
+				}
+				try (GeoNameResolver geocoder = resolver.federateConfigured(indexPath, line)) {
+					BulkGeocoder job = new BulkGeocoder(geocoder, line.getOptionValue(COLUMNS_LONG_OPT));
+					job.setCountryCode(line.getOptionValue(COUNTRY_LONG_OPT));
+					job.setLanguage(line.getOptionValue(LANGUAGE_LONG_OPT));
+					if (line.hasOption(CHUNK_SIZE_LONG_OPT)) {
+						job.setChunkSize(Integer.parseInt(line.getOptionValue(CHUNK_SIZE_LONG_OPT)));
+					}
+					if (line.hasOption(WORKERS_LONG_OPT)) {
+						job.setWorkers(Integer.parseInt(line.getOptionValue(WORKERS_LONG_OPT)));
+					}
+					StartupTimer.finish("geocoding");
+					job.run(new File(line.getOptionValue(GEOCODE_LONG_OPT)),
+							new File(line.getOptionValue(OUTPUT_LONG_OPT)));
+				}
+			}
+
+			if (line.hasOption(LOAD_TEST_LONG_OPT)) {
+				LoadGenerator load = new LoadGenerator(line.getOptionValue(URL_LONG_OPT, DEFAULT_SERVER_URL),
+						line.getOptionValue(LOAD_TEST_LONG_OPT));
+				if (line.hasOption(CONNECTIONS_LONG_OPT)) {
+					load.setConnections(Integer.parseInt(line.getOptionValue(CONNECTIONS_LONG_OPT)));
+				}
+				load.run(Double.parseDouble(line.getOptionValue(RATE_LONG_OPT, "100")),
+						Integer.parseInt(line.getOptionValue(DURATION_LONG_OPT, "60")), System.out,
+						line.hasOption(OUTPUT_LONG_OPT) ? new File(line.getOptionValue(OUTPUT_LONG_OPT)) : null);
 			}
 
 			if (line.hasOption("search")) {
@@ -677,13 +2701,40 @@ public class GeoNameResolver implements Closeable {
 				if (countStr.matches("\\d+"))
 					count = Integer.parseInt(countStr);
 
-				Map<String, List<Location>> resolved = resolver
-						.searchGeoName(indexPath, geoTerms, count);
+				Map<String, List<Location>> resolved;
+				if (line.hasOption(NEAR_LONG_OPT)) {
+					String[] near = line.getOptionValue(NEAR_LONG_OPT).split(",");
+					if (near.length != 2) {
+						throw new ParseException("--" + NEAR_LONG_OPT + " expects latitude,longitude");
+					}
+					try (GeoNameResolver federated = resolver.federateConfigured(indexPath, line)) {
+						resolved = federated.searchGeoNameNear(geoTerms, count,
+								line.getOptionValue(COUNTRY_LONG_OPT), line.getOptionValue(LANGUAGE_LONG_OPT),
+								Double.parseDouble(near[0].trim()), Double.parseDouble(near[1].trim()),
+								NearbyOrder.valueOf(line.getOptionValue(ORDER_LONG_OPT, "distance").toUpperCase()));
+					}
+				} else if (line.hasOption(SOURCE_LONG_OPT)) {
+					try (GeoNameResolver federated = resolver.federateConfigured(indexPath, line)) {
+						resolved = federated.searchGeoName(geoTerms, count,
+								line.getOptionValue(COUNTRY_LONG_OPT), line.getOptionValue(LANGUAGE_LONG_OPT));
+					}
+				} else if (line.hasOption(LANGUAGE_LONG_OPT)) {
+					try (GeoNameResolver single = resolver.configure(
+							new GeoNameResolver(indexPath, resolver.directoryMode))) {
+						resolved = single.searchGeoName(geoTerms, count,
+								line.getOptionValue(COUNTRY_LONG_OPT), line.getOptionValue(LANGUAGE_LONG_OPT));
+					}
+				} else {
+					resolved = resolver.searchGeoName(indexPath, geoTerms, count,
+							line.getOptionValue(COUNTRY_LONG_OPT));
+				}
+				StartupTimer.mark("search");
 				if(line.hasOption(JSON_OPT)){
 					writeResultJson(resolved, System.out);
 				}else{
 					writeResult(resolved, System.out);
 				}
+				StartupTimer.finish("results");
 			} else if (line.hasOption("server")){
 				if (indexPath == null) {
 					System.err.println("Index path is required");
@@ -692,9 +2743,41 @@ public class GeoNameResolver implements Closeable {
 
 				//TODO: get port from CLI args
 				int port = 8765;
-				Launcher.launchService(port, indexPath);
+				System.setProperty(Launcher.DIRECTORY_MODE_PROP, resolver.directoryMode.getOptionValue());
+				if (line.hasOption(BOUNDARIES_LONG_OPT)) {
+					System.setProperty(Launcher.BOUNDARIES_PROP, line.getOptionValue(BOUNDARIES_LONG_OPT));
+				}
+				if (line.hasOption(SNAPSHOT_DIR_LONG_OPT)) {
+					System.setProperty(Launcher.SNAPSHOT_DIR_PROP, line.getOptionValue(SNAPSHOT_DIR_LONG_OPT));
+				}
+				if (line.hasOption(WORKERS_LONG_OPT)) {
+					System.setProperty(Launcher.WORKERS_PROP, line.getOptionValue(WORKERS_LONG_OPT));
+				}
+				if (line.hasOption(CLIENT_LIMIT_LONG_OPT)) {
+					System.setProperty(Launcher.CLIENT_LIMIT_PROP, line.getOptionValue(CLIENT_LIMIT_LONG_OPT));
+				}
+				if (line.hasOption(REVERSE_CACHE_LONG_OPT)) {
+					System.setProperty(Launcher.REVERSE_CACHE_PROP, line.getOptionValue(REVERSE_CACHE_LONG_OPT));
+				}
+				if (line.hasOption(RANKING_LONG_OPT)) {
+					System.setProperty(Launcher.RANKING_PROP, line.getOptionValue(RANKING_LONG_OPT));
+				}
+				System.setProperty(Launcher.DISAMBIGUATE_PROP,
+						String.valueOf(resolver.contextDisambiguation));
+				System.setProperty(Launcher.TOUCH_INTERVAL_PROP,
+						line.getOptionValue(TOUCH_INTERVAL_LONG_OPT, "0"));
+				if (line.hasOption(SOURCE_LONG_OPT)) {
+					System.setProperty(Launcher.SOURCES_PROP,
+							StringUtils.join(line.getOptionValues(SOURCE_LONG_OPT), ','));
+				}
+				Launcher.launchService(port, indexPath, line.getOptionValue(WARMUP_LONG_OPT));
 			}else if (!line.hasOption("server") &&
 				!line.hasOption("search") &&
+				!line.hasOption(TAG_LONG_OPT) &&
+				!line.hasOption(EVALUATE_LONG_OPT) &&
+				!line.hasOption(STREAM_LONG_OPT) &&
+				!line.hasOption(GEOCODE_LONG_OPT) &&
+				!line.hasOption(LOAD_TEST_LONG_OPT) &&
 				!line.hasOption("build") &&
 				!line.hasOption("index") &&
 				!line.hasOption("help")) 
@@ -702,10 +2785,14 @@ public class GeoNameResolver implements Closeable {
 				System.err.println("Sub command not recognised");
 				System.exit(-1);
 			}
+			StartupTimer.finish("done");
 
 		} catch (ParseException exp) {
 			// oops, something went wrong
 			System.err.println("Parsing failed.  Reason: " + exp.getMessage());
+		} catch (IndexNotFoundException e) {
+			LOG.log(Level.SEVERE, e.getMessage());
+			System.exit(1);
 		}
 	}
 
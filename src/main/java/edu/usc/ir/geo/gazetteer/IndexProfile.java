@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.codecs.lucene50.Lucene50Codec;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+
+/**
+ * Defines what an index stores along with the searched fields, traded off
+ * against its size on disk.
+ */
+public enum IndexProfile {
+	/** Stores every field of the gazetteer line, as indexes always did */
+	FULL,
+	/**
+	 * Smallest index that answers searches, for serving only nodes. Only the
+	 * name is stored, compressed for size rather than speed. Ids, coordinates
+	 * and codes are doc values, alternate names are searched but not stored,
+	 * so ranking and text tagging only see the primary name. The index is
+	 * merged down to a single segment.
+	 */
+	COMPACT;
+
+	/**
+	 * Key of the profile in the commit user data of the index
+	 */
+	public static final String COMMIT_DATA_KEY = "index.profile";
+
+	/**
+	 * @return true if all gazetteer fields are stored
+	 */
+	public boolean storesAllFields() {
+		return this == FULL;
+	}
+
+	/**
+	 * Applies the codec settings of this profile
+	 * @param config config of the writer building the index
+	 * @return the config
+	 */
+	public IndexWriterConfig configure(IndexWriterConfig config) {
+		if (this == COMPACT) {
+			config.setCodec(new Lucene50Codec(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION));
+		}
+		return config;
+	}
+
+	/**
+	 * Finishes an index once all documents are added
+	 * @param writer writer of the index
+	 * @throws IOException
+	 */
+	public void finish(IndexWriter writer) throws IOException {
+		if (this == COMPACT) {
+			writer.forceMerge(1);
+		}
+	}
+
+	/**
+	 * @return the option value of this profile, e.g. compact
+	 */
+	public String getOptionValue() {
+		return name().toLowerCase();
+	}
+
+	/**
+	 * Parses the CLI form of a profile, e.g. compact
+	 * @param value profile name, null for {@link #FULL}
+	 * @return parsed profile
+	 * @throws IllegalArgumentException if value is not a known profile
+	 */
+	public static IndexProfile parse(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return FULL;
+		}
+		return valueOf(value.trim().toUpperCase());
+	}
+
+	/**
+	 * @param commitData commit user data of an index
+	 * @return profile the index was built with, {@link #FULL} for indexes
+	 * built before profiles
+	 */
+	public static IndexProfile fromCommitData(Map<String, String> commitData) {
+		return parse(commitData.get(COMMIT_DATA_KEY));
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Reports where the bytes of a gazetteer index go: the size of each kind of
+ * index file, and per field its terms, postings, doc values and stored bytes.
+ * Lucene does not keep per field sizes of stored fields on disk, so the stored
+ * bytes of a field are its raw bytes scaled by the compression ratio of the
+ * stored fields files. A sharded index is reported as a whole.
+ */
+public class IndexSizeReport {
+
+	private static final Map<String, String> FILE_KINDS = new HashMap<>();
+	static {
+		FILE_KINDS.put("fdt", "stored fields");
+		FILE_KINDS.put("fdx", "stored fields");
+		FILE_KINDS.put("tim", "terms");
+		FILE_KINDS.put("tip", "terms");
+		FILE_KINDS.put("doc", "postings");
+		FILE_KINDS.put("pos", "positions");
+		FILE_KINDS.put("pay", "positions");
+		FILE_KINDS.put("nvd", "norms");
+		FILE_KINDS.put("nvm", "norms");
+		FILE_KINDS.put("dvd", "doc values");
+		FILE_KINDS.put("dvm", "doc values");
+		FILE_KINDS.put("cfs", "compound files");
+		FILE_KINDS.put("cfe", "compound files");
+	}
+
+	private final Map<String, Long> fileBytes = new TreeMap<>();
+	private final Map<String, FieldSize> fields = new TreeMap<>();
+	private final List<String> profiles = new ArrayList<>();
+	private long storedRawBytes;
+	private int numDocs;
+
+	private IndexSizeReport() {
+	}
+
+	/**
+	 * Measures the index, reading every stored document once
+	 * @param indexPath path to lucene index, or root directory of a sharded index
+	 * @return the report
+	 * @throws IOException
+	 */
+	public static IndexSizeReport measure(String indexPath) throws IOException {
+		IndexSizeReport report = new IndexSizeReport();
+		ShardLayout layout = ShardLayout.load(indexPath);
+		if (layout == null) {
+			report.add(new File(indexPath));
+		} else {
+			for (int i = 0; i < layout.getShardCount(); i++) {
+				report.add(ShardLayout.shardDirectory(indexPath, i));
+			}
+		}
+		return report;
+	}
+
+	private void add(File indexDir) throws IOException {
+		try (Directory directory = FSDirectory.open(indexDir.toPath());
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			for (String file : directory.listAll()) {
+				int dot = file.lastIndexOf('.');
+				String kind = dot < 0 ? null : FILE_KINDS.get(file.substring(dot + 1));
+				increment(fileBytes, kind == null ? "other" : kind, directory.fileLength(file));
+			}
+			String profile = IndexProfile.fromCommitData(reader.getIndexCommit().getUserData()).getOptionValue();
+			if (!profiles.contains(profile)) {
+				profiles.add(profile);
+			}
+			numDocs += reader.numDocs();
+			for (LeafReaderContext leaf : reader.leaves()) {
+				addLeaf(leaf.reader());
+			}
+		}
+	}
+
+	private void addLeaf(LeafReader reader) throws IOException {
+		for (FieldInfo info : reader.getFieldInfos()) {
+			FieldSize field = field(info.name);
+			if (info.getDocValuesType() != DocValuesType.NONE) {
+				field.docValues = info.getDocValuesType().name().toLowerCase();
+			}
+			field.norms |= info.hasNorms();
+			Terms terms = reader.terms(info.name);
+			if (terms != null) {
+				field.terms += Math.max(0, terms.size());
+				field.postings += Math.max(0, terms.getSumDocFreq());
+				field.positions += Math.max(0, terms.getSumTotalTermFreq());
+			}
+		}
+		StoredFieldVisitor visitor = new StoredFieldVisitor() {
+			@Override
+			public Status needsField(FieldInfo fieldInfo) {
+				return Status.YES;
+			}
+
+			@Override
+			public void stringField(FieldInfo fieldInfo, String value) {
+				stored(fieldInfo, value.getBytes(StandardCharsets.UTF_8).length);
+			}
+
+			@Override
+			public void binaryField(FieldInfo fieldInfo, byte[] value) {
+				stored(fieldInfo, value.length);
+			}
+
+			@Override
+			public void intField(FieldInfo fieldInfo, int value) {
+				stored(fieldInfo, 4);
+			}
+
+			@Override
+			public void floatField(FieldInfo fieldInfo, float value) {
+				stored(fieldInfo, 4);
+			}
+
+			@Override
+			public void longField(FieldInfo fieldInfo, long value) {
+				stored(fieldInfo, 8);
+			}
+
+			@Override
+			public void doubleField(FieldInfo fieldInfo, double value) {
+				stored(fieldInfo, 8);
+			}
+		};
+		Bits liveDocs = reader.getLiveDocs();
+		for (int doc = 0; doc < reader.maxDoc(); doc++) {
+			if (liveDocs == null || liveDocs.get(doc)) {
+				reader.document(doc, visitor);
+			}
+		}
+	}
+
+	private void stored(FieldInfo info, int bytes) {
+		field(info.name).storedRawBytes += bytes;
+		storedRawBytes += bytes;
+	}
+
+	private FieldSize field(String name) {
+		FieldSize field = fields.get(name);
+		if (field == null) {
+			field = new FieldSize();
+			fields.put(name, field);
+		}
+		return field;
+	}
+
+	private static void increment(Map<String, Long> counts, String key, long value) {
+		Long count = counts.get(key);
+		counts.put(key, count == null ? value : count + value);
+	}
+
+	/**
+	 * @return total size of the index files in bytes
+	 */
+	public long getTotalBytes() {
+		long total = 0;
+		for (long bytes : fileBytes.values()) {
+			total += bytes;
+		}
+		return total;
+	}
+
+	/**
+	 * Prints the report as text tables
+	 * @param out the stream
+	 */
+	public void write(PrintStream out) {
+		long total = getTotalBytes();
+		out.printf("%d documents, %s, profile %s%n", numDocs, bytes(total), profiles);
+		out.printf("%n%-16s %12s %7s%n", "files", "bytes", "share");
+		for (Map.Entry<String, Long> kind : fileBytes.entrySet()) {
+			out.printf("%-16s %12s %6.1f%%%n", kind.getKey(), bytes(kind.getValue()),
+					total == 0 ? 0 : 100.0 * kind.getValue() / total);
+		}
+
+		Long storedFileBytes = fileBytes.get("stored fields");
+		//compression ratio of stored fields, compound files hide it
+		double storedRatio = storedFileBytes == null || storedRawBytes == 0 ? 1
+				: (double) storedFileBytes / storedRawBytes;
+		out.printf("%n%-28s %10s %12s %12s %-14s %5s %12s%n", "field", "terms", "postings", "positions",
+				"doc values", "norms", "stored");
+		for (Map.Entry<String, FieldSize> entry : fields.entrySet()) {
+			FieldSize field = entry.getValue();
+			out.printf("%-28s %10d %12d %12d %-14s %5s %12s%n", entry.getKey(), field.terms, field.postings,
+					field.positions, field.docValues == null ? "-" : field.docValues, field.norms ? "yes" : "-",
+					field.storedRawBytes == 0 ? "-" : "~" + bytes(Math.round(field.storedRawBytes * storedRatio)));
+		}
+	}
+
+	private static String bytes(long bytes) {
+		if (bytes < 1024) {
+			return bytes + "B";
+		}
+		if (bytes < 1024 * 1024) {
+			return String.format("%.1fKB", bytes / 1024.0);
+		}
+		return String.format("%.1fMB", bytes / (1024.0 * 1024));
+	}
+
+	private static class FieldSize {
+		private long terms;
+		private long postings;
+		private long positions;
+		private String docValues;
+		private boolean norms;
+		private long storedRawBytes;
+	}
+}
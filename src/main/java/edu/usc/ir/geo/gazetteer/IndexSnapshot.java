@@ -0,0 +1,396 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Exports a committed gazetteer index as a single zip archive, and installs
+ * such an archive in place of an index. The archive holds the files of the
+ * current commit of every shard, the files stored along with the index such
+ * as {@link AdminHierarchy#HIERARCHY_FILE}, and a {@link #MANIFEST_FILE}
+ * describing the index and listing the SHA-256 of every file.
+ * <br/>
+ * An archive is only installed once every file matches its checksum, the
+ * index opens, its codec checksums verify and its document count matches the
+ * manifest. The previous index is kept next to the new one, suffixed with
+ * {@link #PREVIOUS_SUFFIX}. The manifest is kept in the installed index, so
+ * the index status reports which snapshot is loaded.
+ */
+public class IndexSnapshot {
+
+	private static final Logger LOG = Logger.getLogger(IndexSnapshot.class.getName());
+	public static final String MANIFEST_FILE = "snapshot.properties";
+	public static final String PREVIOUS_SUFFIX = ".previous";
+	private static final String STAGING_SUFFIX = ".staging";
+	public static final int FORMAT_VERSION = 1;
+
+	public static final String FORMAT_PROP = "snapshot.format";
+	public static final String ID_PROP = "snapshot.id";
+	public static final String CREATED_PROP = "snapshot.created";
+	public static final String LUCENE_VERSION_PROP = "lucene.version";
+	public static final String DOCS_PROP = "index.docs";
+	public static final String SHARDS_PROP = "index.shards";
+	public static final String GENERATION_PROP = "index.generation";
+	//commit user data of the index, e.g. source file and build options, prefixed by this
+	public static final String BUILD_PROP_PREFIX = "build.";
+	private static final String FILE_PROP_PREFIX = "file.";
+	private static final String SHA256_SUFFIX = ".sha256";
+	private static final String LENGTH_SUFFIX = ".length";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private IndexSnapshot() {
+	}
+
+	/**
+	 * Writes the current commit of an index to an archive
+	 * @param indexPath path to lucene index, or root directory of a sharded index
+	 * @param archive the archive to create
+	 * @return the manifest written in the archive
+	 * @throws IOException
+	 */
+	public static Properties export(String indexPath, File archive) throws IOException {
+		File root = new File(indexPath);
+		ShardLayout layout = ShardLayout.load(indexPath);
+		List<File> indexDirs = ShardLayout.indexDirectories(indexPath, layout);
+		Properties manifest = new Properties();
+		manifest.setProperty(FORMAT_PROP, String.valueOf(FORMAT_VERSION));
+		manifest.setProperty(CREATED_PROP, now());
+		manifest.setProperty(LUCENE_VERSION_PROP, Version.LATEST.toString());
+		manifest.setProperty(SHARDS_PROP, String.valueOf(indexDirs.size()));
+
+		//entry name to file, entries are written in name order
+		Map<String, File> files = new TreeMap<>();
+		File[] rootFiles = root.listFiles();
+		if (rootFiles != null) {
+			for (File file : rootFiles) {
+				if (file.isFile() && !isLuceneFile(file.getName()) && !file.getName().equals(MANIFEST_FILE)) {
+					files.put(file.getName(), file);
+				}
+			}
+		}
+		List<DirectoryReader> readers = new ArrayList<>();
+		try {
+			long docs = 0;
+			long generation = 0;
+			for (File indexDir : indexDirs) {
+				DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexDir.toPath()));
+				readers.add(reader);
+				IndexCommit commit = reader.getIndexCommit();
+				docs += reader.numDocs();
+				generation = Math.max(generation, commit.getGeneration());
+				if (readers.size() == 1) {
+					for (Map.Entry<String, String> data : commit.getUserData().entrySet()) {
+						manifest.setProperty(BUILD_PROP_PREFIX + data.getKey(), data.getValue());
+					}
+				}
+				String prefix = indexDir.equals(root) ? "" : indexDir.getName() + "/";
+				for (String name : commit.getFileNames()) {
+					files.put(prefix + name, new File(indexDir, name));
+				}
+			}
+			manifest.setProperty(DOCS_PROP, String.valueOf(docs));
+			manifest.setProperty(GENERATION_PROP, String.valueOf(generation));
+
+			//readers hold the commit, its files are not deleted while copying
+			try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+				zip.setLevel(Deflater.BEST_SPEED);
+				byte[] buffer = new byte[BUFFER_SIZE];
+				for (Map.Entry<String, File> file : files.entrySet()) {
+					zip.putNextEntry(new ZipEntry(file.getKey()));
+					MessageDigest digest = sha256();
+					try (InputStream in = new FileInputStream(file.getValue())) {
+						int read;
+						while ((read = in.read(buffer)) > 0) {
+							digest.update(buffer, 0, read);
+							zip.write(buffer, 0, read);
+						}
+					}
+					zip.closeEntry();
+					manifest.setProperty(FILE_PROP_PREFIX + file.getKey() + SHA256_SUFFIX, hex(digest.digest()));
+					manifest.setProperty(FILE_PROP_PREFIX + file.getKey() + LENGTH_SUFFIX,
+							String.valueOf(file.getValue().length()));
+				}
+				manifest.setProperty(ID_PROP, snapshotId(manifest));
+				zip.putNextEntry(new ZipEntry(MANIFEST_FILE));
+				manifest.store(zip, "Gazetteer index snapshot");
+				zip.closeEntry();
+			}
+		} finally {
+			for (DirectoryReader reader : readers) {
+				Directory directory = reader.directory();
+				reader.close();
+				directory.close();
+			}
+		}
+		LOG.info("Exported " + files.size() + " files of " + indexPath + " to " + archive
+				+ ", snapshot " + manifest.getProperty(ID_PROP));
+		return manifest;
+	}
+
+	/**
+	 * Validates an archive and installs it at the index path, keeping the
+	 * current index as indexPath{@value #PREVIOUS_SUFFIX}. The archive is
+	 * unpacked and checked next to the index, then the current index is
+	 * renamed away and the new one renamed into place. Each rename is atomic
+	 * but the pair is not: the index path is briefly missing between them, and
+	 * stays missing if the process dies there, which {@link #recover(String)}
+	 * repairs. Searchers opened on the previous index keep working until they
+	 * are reloaded.
+	 * @param archive the archive
+	 * @param indexPath where the index is installed
+	 * @return manifest of the installed snapshot
+	 * @throws IOException if the archive is invalid, nothing is changed then
+	 */
+	public static Properties install(File archive, String indexPath) throws IOException {
+		File target = new File(indexPath).getAbsoluteFile();
+		File staging = new File(target.getPath() + STAGING_SUFFIX);
+		File previous = new File(target.getPath() + PREVIOUS_SUFFIX);
+		recover(indexPath);
+		delete(staging);
+		Properties manifest;
+		try {
+			manifest = unpack(archive, staging);
+			validate(staging, manifest);
+		} catch (IOException | RuntimeException e) {
+			delete(staging);
+			throw e;
+		}
+
+		delete(previous);
+		if (target.exists()) {
+			Files.move(target.toPath(), previous.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		try {
+			Files.move(staging.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (previous.exists()) {
+				Files.move(previous.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			throw e;
+		}
+		LOG.info("Installed snapshot " + manifest.getProperty(ID_PROP) + " at " + target);
+		return manifest;
+	}
+
+	/**
+	 * Restores indexPath{@value #PREVIOUS_SUFFIX} to the index path when an
+	 * install was interrupted after the current index was renamed away and
+	 * before the new one was renamed into place. Does nothing if the index
+	 * path exists.
+	 * @param indexPath path to an index
+	 * @return true if the previous index was restored
+	 * @throws IOException
+	 */
+	public static boolean recover(String indexPath) throws IOException {
+		File target = new File(indexPath).getAbsoluteFile();
+		File previous = new File(target.getPath() + PREVIOUS_SUFFIX);
+		if (target.exists() || !previous.isDirectory()) {
+			return false;
+		}
+		LOG.warning("No index at " + target + ", an install was interrupted, restoring " + previous);
+		Files.move(previous.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		delete(new File(target.getPath() + STAGING_SUFFIX));
+		return true;
+	}
+
+	/**
+	 * @param indexPath path to an index
+	 * @return id of the snapshot installed at the path, null if the index was
+	 * not installed from a snapshot
+	 * @throws IOException
+	 */
+	public static String installedId(String indexPath) throws IOException {
+		File file = new File(indexPath, MANIFEST_FILE);
+		if (!file.isFile()) {
+			return null;
+		}
+		Properties manifest = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			manifest.load(in);
+		}
+		return manifest.getProperty(ID_PROP);
+	}
+
+	private static Properties unpack(File archive, File staging) throws IOException {
+		try (ZipFile zip = new ZipFile(archive)) {
+			ZipEntry manifestEntry = zip.getEntry(MANIFEST_FILE);
+			if (manifestEntry == null) {
+				throw new IOException(archive + " is not a gazetteer snapshot, " + MANIFEST_FILE + " is missing");
+			}
+			Properties manifest = new Properties();
+			try (InputStream in = zip.getInputStream(manifestEntry)) {
+				manifest.load(in);
+			}
+			int format = Integer.parseInt(manifest.getProperty(FORMAT_PROP, "0"));
+			if (format < 1 || format > FORMAT_VERSION) {
+				throw new IOException("Unsupported snapshot format " + format + " in " + archive);
+			}
+			if (!snapshotId(manifest).equals(manifest.getProperty(ID_PROP))) {
+				throw new IOException("Manifest of " + archive + " does not match its snapshot id");
+			}
+
+			Collection<String> names = fileNames(manifest);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (String name : names) {
+				ZipEntry entry = zip.getEntry(name);
+				if (entry == null) {
+					throw new IOException("Missing " + name + " in " + archive);
+				}
+				File file = new File(staging, name);
+				if (!file.getCanonicalPath().startsWith(staging.getCanonicalPath() + File.separator)) {
+					throw new IOException("Entry " + name + " of " + archive + " is outside of the index");
+				}
+				file.getParentFile().mkdirs();
+				MessageDigest digest = sha256();
+				try (InputStream in = zip.getInputStream(entry); OutputStream out = new FileOutputStream(file)) {
+					int read;
+					while ((read = in.read(buffer)) > 0) {
+						digest.update(buffer, 0, read);
+						out.write(buffer, 0, read);
+					}
+				}
+				String expected = manifest.getProperty(FILE_PROP_PREFIX + name + SHA256_SUFFIX);
+				if (!hex(digest.digest()).equals(expected)
+						|| file.length() != Long.parseLong(manifest.getProperty(FILE_PROP_PREFIX + name + LENGTH_SUFFIX))) {
+					throw new IOException("Checksum mismatch of " + name + " in " + archive);
+				}
+			}
+			try (OutputStream out = new FileOutputStream(new File(staging, MANIFEST_FILE))) {
+				manifest.store(out, "Gazetteer index snapshot");
+			}
+			return manifest;
+		}
+	}
+
+	/**
+	 * Opens the unpacked index, verifies the codec checksums of all its files
+	 * and compares its document count to the manifest
+	 */
+	private static void validate(File staging, Properties manifest) throws IOException {
+		String path = staging.getPath();
+		long docs = 0;
+		for (File indexDir : ShardLayout.indexDirectories(path, ShardLayout.load(path))) {
+			try (Directory directory = FSDirectory.open(indexDir.toPath());
+					DirectoryReader reader = DirectoryReader.open(directory)) {
+				for (LeafReaderContext leaf : reader.leaves()) {
+					leaf.reader().checkIntegrity();
+				}
+				docs += reader.numDocs();
+			}
+		}
+		if (docs != Long.parseLong(manifest.getProperty(DOCS_PROP))) {
+			throw new IOException("Snapshot holds " + docs + " documents, its manifest "
+					+ manifest.getProperty(DOCS_PROP));
+		}
+	}
+
+	private static boolean isLuceneFile(String name) {
+		return name.startsWith(IndexFileNames.SEGMENTS) || name.equals(IndexFileNames.OLD_SEGMENTS_GEN)
+				|| name.equals("write.lock") || IndexFileNames.CODEC_FILE_PATTERN.matcher(name).matches();
+	}
+
+	private static Collection<String> fileNames(Properties manifest) {
+		List<String> names = new ArrayList<>();
+		for (String key : manifest.stringPropertyNames()) {
+			if (key.startsWith(FILE_PROP_PREFIX) && key.endsWith(SHA256_SUFFIX)) {
+				names.add(key.substring(FILE_PROP_PREFIX.length(), key.length() - SHA256_SUFFIX.length()));
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @return digest of all file names and checksums, identifying the content of a snapshot
+	 */
+	private static String snapshotId(Properties manifest) {
+		MessageDigest digest = sha256();
+		for (String name : new TreeSet<>(fileNames(manifest))) {
+			digest.update((name + "=" + manifest.getProperty(FILE_PROP_PREFIX + name + SHA256_SUFFIX) + "\n")
+					.getBytes(StandardCharsets.UTF_8));
+		}
+		return hex(digest.digest()).substring(0, 16);
+	}
+
+	private static void delete(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Unable to delete " + file);
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static String now() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date());
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+
+/**
+ * Warms up an opened index by touching the population doc values and the term
+ * dictionaries of the searchable name fields, and then replaying a list of
+ * popular names through the resolver.
+ */
+class IndexWarmer {
+
+	private static final Logger LOG = Logger.getLogger(IndexWarmer.class.getName());
+	//Replay names in small batches, resolveEntities() lowers hits per page for big ones
+	private static final int REPLAY_BATCH_SIZE = 100;
+	private static final String[] TERM_FIELDS = { GeoNameResolver.FIELD_NAME_NAME,
+			GeoNameResolver.FIELD_NAME_ALTERNATE_NAMES };
+
+	private final List<IndexReader> readers;
+
+	IndexWarmer(List<IndexReader> readers) {
+		this.readers = readers;
+	}
+
+	/**
+	 * Preloads doc values and term dictionaries and replays names
+	 * @param resolver resolver used to replay names
+	 * @param names names to replay, may be empty
+	 * @throws IOException
+	 */
+	void warm(GeoNameResolver resolver, List<String> names) throws IOException {
+		long terms = 0;
+		int segments = 0;
+		for (IndexReader reader : readers) {
+			for (LeafReaderContext context : reader.leaves()) {
+				LeafReader leaf = context.reader();
+				preloadPopulation(leaf);
+				for (String field : TERM_FIELDS) {
+					terms += preloadTerms(leaf, field);
+				}
+				segments++;
+			}
+		}
+		LOG.info("Preloaded " + terms + " terms from " + segments + " segments");
+
+		for (int i = 0; i < names.size(); i += REPLAY_BATCH_SIZE) {
+			List<String> batch = new ArrayList<>(names.subList(i,
+					Math.min(i + REPLAY_BATCH_SIZE, names.size())));
+			resolver.searchGeoName(batch, 1);
+		}
+		LOG.info("Replayed " + names.size() + " names");
+	}
+
+	private void preloadPopulation(LeafReader leaf) throws IOException {
+		SortedNumericDocValues population = DocValues.getSortedNumeric(leaf,
+				GeoNameResolver.FIELD_NAME_POPULATION);
+		for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+			population.setDocument(doc);
+			if (population.count() > 0) {
+				population.valueAt(0);
+			}
+		}
+	}
+
+	private long preloadTerms(LeafReader leaf, String field) throws IOException {
+		Terms terms = leaf.terms(field);
+		if (terms == null) {
+			return 0;
+		}
+		long count = 0;
+		TermsEnum termsEnum = terms.iterator(null);
+		while (termsEnum.next() != null) {
+			termsEnum.docFreq();
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.charfilter.MappingCharFilter;
+import org.apache.lucene.analysis.charfilter.NormalizeCharMap;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * Analyzer of the name and alternate name fields. Without folding it is the
+ * same chain as {@link StandardAnalyzer}. Folding maps accented latin letters,
+ * ligatures and the like to ASCII so that Zurich finds Z&uuml;rich, and
+ * transliteration further maps Cyrillic and Greek letters to latin ones.
+ * <br/>
+ * An index must be searched with the analysis it was built with, which is
+ * recorded in its commit data under {@link #COMMIT_DATA_KEY}.
+ */
+public class NameAnalyzer extends Analyzer {
+
+	public static final String COMMIT_DATA_KEY = "name.analysis";
+
+	/**
+	 * Analysis chains of the name fields
+	 */
+	public enum Mode {
+		/** tokenization and lower casing only, as in indexes built before analysis was configurable */
+		STANDARD,
+		/** folds latin diacritics and ligatures to ASCII */
+		FOLDING,
+		/** folding, and Cyrillic and Greek letters transliterated to latin */
+		TRANSLITERATION
+	}
+
+	//simplified BGN/PCGN romanization, upper case letters are added from these
+	private static final String CYRILLIC = "\u0430\u0431\u0432\u0433\u0434\u0435\u0451\u0436\u0437"
+			+ "\u0438\u0439\u043a\u043b\u043c\u043d\u043e\u043f\u0440\u0441\u0442\u0443\u0444\u0445"
+			+ "\u0446\u0447\u0448\u0449\u044a\u044b\u044c\u044d\u044e\u044f\u0456\u0457\u0454\u0491";
+	private static final String[] CYRILLIC_LATIN = { "a", "b", "v", "g", "d", "e", "e", "zh", "z",
+			"i", "y", "k", "l", "m", "n", "o", "p", "r", "s", "t", "u", "f", "kh",
+			"ts", "ch", "sh", "shch", "", "y", "", "e", "yu", "ya", "i", "yi", "ye", "g" };
+	private static final String GREEK = "\u03b1\u03b2\u03b3\u03b4\u03b5\u03b6\u03b7\u03b8\u03b9"
+			+ "\u03ba\u03bb\u03bc\u03bd\u03be\u03bf\u03c0\u03c1\u03c3\u03c2\u03c4\u03c5\u03c6\u03c7"
+			+ "\u03c8\u03c9\u03ac\u03ad\u03ae\u03af\u03cc\u03cd\u03ce\u03ca\u03cb\u0390\u03b0";
+	private static final String[] GREEK_LATIN = { "a", "v", "g", "d", "e", "z", "i", "th", "i",
+			"k", "l", "m", "n", "x", "o", "p", "r", "s", "s", "t", "y", "f", "ch",
+			"ps", "o", "a", "e", "i", "i", "o", "y", "o", "i", "y", "i", "y" };
+	//keeps phrase queries from matching across two values of a multi valued field
+	private static final int POSITION_INCREMENT_GAP = 100;
+
+	private final Mode mode;
+
+	public NameAnalyzer(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * @param commitData commit user data of an index
+	 * @return analyzer the index was built with
+	 */
+	public static NameAnalyzer fromCommitData(Map<String, String> commitData) {
+		String mode = commitData.get(COMMIT_DATA_KEY);
+		return new NameAnalyzer(mode == null ? Mode.STANDARD : Mode.valueOf(mode.toUpperCase()));
+	}
+
+	/**
+	 * @return commit user data recording this analysis in an index
+	 */
+	public Map<String, String> toCommitData() {
+		return Collections.singletonMap(COMMIT_DATA_KEY, mode.name().toLowerCase());
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return true if names are indexed in a form differing from how they are written
+	 */
+	public boolean isNormalizing() {
+		return mode != Mode.STANDARD;
+	}
+
+	/**
+	 * @param text a name
+	 * @return the analyzed tokens of text joined by single spaces
+	 */
+	public String normalize(String text) {
+		StringBuilder normalized = new StringBuilder(text.length());
+		try (TokenStream stream = tokenStream(GeoNameResolver.FIELD_NAME_NAME, text)) {
+			CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken()) {
+				if (normalized.length() > 0) {
+					normalized.append(' ');
+				}
+				normalized.append(termAtt.buffer(), 0, termAtt.length());
+			}
+			stream.end();
+		} catch (IOException e) {
+			//not thrown when reading from a string
+			throw new IllegalStateException(e);
+		}
+		return normalized.toString();
+	}
+
+	@Override
+	protected Reader initReader(String fieldName, Reader reader) {
+		if (mode == Mode.TRANSLITERATION) {
+			return new MappingCharFilter(Transliterations.MAP, reader);
+		}
+		return reader;
+	}
+
+	@Override
+	protected TokenStreamComponents createComponents(String fieldName) {
+		Tokenizer source = new StandardTokenizer();
+		TokenStream result = new StandardFilter(source);
+		result = new LowerCaseFilter(result);
+		result = new StopFilter(result, StandardAnalyzer.STOP_WORDS_SET);
+		if (mode != Mode.STANDARD) {
+			result = new ASCIIFoldingFilter(result);
+		}
+		return new TokenStreamComponents(source, result);
+	}
+
+	@Override
+	public int getPositionIncrementGap(String fieldName) {
+		return POSITION_INCREMENT_GAP;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof NameAnalyzer && ((NameAnalyzer) obj).mode == mode;
+	}
+
+	@Override
+	public int hashCode() {
+		return mode.hashCode();
+	}
+
+	/**
+	 * Built on first use, only transliterating indexes pay for the map
+	 */
+	private static class Transliterations {
+		private static final NormalizeCharMap MAP = buildTransliterations();
+	}
+
+	private static NormalizeCharMap buildTransliterations() {
+		NormalizeCharMap.Builder builder = new NormalizeCharMap.Builder();
+		Set<Character> added = new HashSet<>();
+		addTransliterations(builder, added, CYRILLIC, CYRILLIC_LATIN);
+		addTransliterations(builder, added, GREEK, GREEK_LATIN);
+		return builder.build();
+	}
+
+	private static void addTransliterations(NormalizeCharMap.Builder builder, Set<Character> added,
+			String letters, String[] latin) {
+		for (int i = 0; i < letters.length(); i++) {
+			char lower = letters.charAt(i);
+			//lower casing comes later in the chain
+			for (char letter : new char[] { lower, Character.toUpperCase(lower) }) {
+				if (added.add(letter)) {
+					builder.add(String.valueOf(letter), latin[i]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * Bloom filter of the terms of indexed names and alternate names, stored
+ * along with the index in {@link #FILTER_FILE}. Names are searched as
+ * phrases, so a name having an analyzed term that is not in the filter
+ * cannot match and is rejected without parsing or searching it. Other
+ * names are searched as usual, the filter answering "maybe" for about
+ * {@link #FALSE_POSITIVE_RATE} of absent terms.
+ */
+public class NameFilter {
+
+	private static final Logger LOG = Logger.getLogger(NameFilter.class.getName());
+	public static final String FILTER_FILE = "name-filter.bin";
+	public static final double FALSE_POSITIVE_RATE = 0.01;
+	private static final int FORMAT_VERSION = 1;
+	private static final int SEED = 0x9747b28c;
+
+	private final long[] bits;
+	private final long bitCount;
+	private final int hashCount;
+
+	private NameFilter(long[] bits, int hashCount) {
+		this.bits = bits;
+		this.bitCount = (long) bits.length * Long.SIZE;
+		this.hashCount = hashCount;
+	}
+
+	/**
+	 * Builds the filter from the terms of name fields of an index
+	 * @param indexPath path to index, or root directory of a sharded index
+	 * @return the filter
+	 * @throws IOException
+	 */
+	public static NameFilter build(String indexPath) throws IOException {
+		List<DirectoryReader> readers = new ArrayList<>();
+		try {
+			long termCount = 0;
+			for (File indexDir : ShardLayout.indexDirectories(indexPath, ShardLayout.load(indexPath))) {
+				Directory directory = FSDirectory.open(indexDir.toPath());
+				readers.add(DirectoryReader.open(directory));
+			}
+			for (DirectoryReader reader : readers) {
+				for (LeafReaderContext leaf : reader.leaves()) {
+					for (Terms terms : nameTerms(leaf.reader())) {
+						long size = terms.size();
+						termCount += size >= 0 ? size : count(terms);
+					}
+				}
+			}
+			//optimal size for the false positive rate, terms of several segments are counted once each
+			long bitCount = Math.max(Long.SIZE,
+					(long) Math.ceil(-termCount * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2))));
+			int hashCount = Math.max(1, (int) Math.round((double) bitCount / Math.max(1, termCount) * Math.log(2)));
+			NameFilter filter = new NameFilter(new long[(int) ((bitCount + Long.SIZE - 1) / Long.SIZE)],
+					hashCount);
+			for (DirectoryReader reader : readers) {
+				for (LeafReaderContext leaf : reader.leaves()) {
+					for (Terms terms : nameTerms(leaf.reader())) {
+						TermsEnum termsEnum = terms.iterator(null);
+						BytesRef term;
+						while ((term = termsEnum.next()) != null) {
+							filter.add(term);
+						}
+					}
+				}
+			}
+			LOG.info("Built name filter of " + termCount + " terms, " + filter.bits.length * 8L / 1024 + "KB");
+			return filter;
+		} finally {
+			for (DirectoryReader reader : readers) {
+				Directory directory = reader.directory();
+				reader.close();
+				directory.close();
+			}
+		}
+	}
+
+	/**
+	 * Terms of the fields names are searched in: names and alternate names,
+	 * of any language
+	 */
+	private static List<Terms> nameTerms(LeafReader reader) throws IOException {
+		List<Terms> nameTerms = new ArrayList<>();
+		for (FieldInfo field : reader.getFieldInfos()) {
+			if (field.name.equals(GeoNameResolver.FIELD_NAME_NAME)
+					|| field.name.startsWith(GeoNameResolver.FIELD_NAME_ALTERNATE_NAMES)) {
+				Terms terms = reader.terms(field.name);
+				if (terms != null) {
+					nameTerms.add(terms);
+				}
+			}
+		}
+		return nameTerms;
+	}
+
+	private static long count(Terms terms) throws IOException {
+		TermsEnum termsEnum = terms.iterator(null);
+		long count = 0;
+		while (termsEnum.next() != null) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the filter stored along with an index
+	 * @param indexPath path to index, or root directory of a sharded index
+	 * @return the filter, null if the index has none, e.g. it was built by an older version
+	 * @throws IOException
+	 */
+	public static NameFilter load(String indexPath) throws IOException {
+		File file = new File(indexPath, FILTER_FILE);
+		if (!file.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				LOG.warning("Ignoring " + file + " of unknown format " + version);
+				return null;
+			}
+			int hashCount = in.readInt();
+			long[] bits = new long[in.readInt()];
+			for (int i = 0; i < bits.length; i++) {
+				bits[i] = in.readLong();
+			}
+			return new NameFilter(bits, hashCount);
+		}
+	}
+
+	/**
+	 * Stores this filter along with an index
+	 * @param indexPath path to index, or root directory of a sharded index
+	 * @throws IOException
+	 */
+	public void save(String indexPath) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(indexPath, FILTER_FILE))))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(hashCount);
+			out.writeInt(bits.length);
+			for (long word : bits) {
+				out.writeLong(word);
+			}
+		}
+	}
+
+	private void add(BytesRef term) {
+		int h1 = StringHelper.murmurhash3_x86_32(term, SEED);
+		int h2 = StringHelper.murmurhash3_x86_32(term, h1);
+		for (int i = 0; i < hashCount; i++) {
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @param term an analyzed term
+	 * @return false if no indexed name has the term, true if one may have it
+	 */
+	public boolean mightContain(BytesRef term) {
+		int h1 = StringHelper.murmurhash3_x86_32(term, SEED);
+		int h2 = StringHelper.murmurhash3_x86_32(term, h1);
+		for (int i = 0; i < hashCount; i++) {
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param name a searched name
+	 * @param analyzer analyzer of the index
+	 * @return false if the name cannot match any indexed name, true if it may
+	 */
+	public boolean mightMatch(String name, Analyzer analyzer) {
+		try (TokenStream stream = analyzer.tokenStream(GeoNameResolver.FIELD_NAME_NAME, name)) {
+			TermToBytesRefAttribute termAtt = stream.addAttribute(TermToBytesRefAttribute.class);
+			BytesRef term = termAtt.getBytesRef();
+			stream.reset();
+			boolean mightMatch = true;
+			while (mightMatch && stream.incrementToken()) {
+				termAtt.fillBytesRef();
+				mightMatch = mightContain(term);
+			}
+			stream.end();
+			return mightMatch;
+		} catch (IOException e) {
+			//not thrown when reading from a string
+			throw new IllegalStateException(e);
+		}
+	}
+}
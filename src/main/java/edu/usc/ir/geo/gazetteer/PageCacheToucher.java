@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RAMDirectory;
+
+import edu.usc.ir.geo.gazetteer.domain.ResidencyStatus;
+
+/**
+ * Keeps the hot files of an index (terms, doc values, postings and compound
+ * files) resident in the page cache by reading one byte of every page. Each
+ * pass also measures how long page reads take; reads slower than
+ * {@link #FAULT_THRESHOLD_NANOS} are counted as page faults served from disk.
+ */
+class PageCacheToucher implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(PageCacheToucher.class.getName());
+	private static final int PAGE_SIZE = 4096;
+	private static final long FAULT_THRESHOLD_NANOS = 20000;
+	//tim, tip : terms; dvd, dvm : doc values; doc : postings; cfs : compound files of small segments
+	private static final Set<String> HOT_EXTENSIONS = new HashSet<>(Arrays.asList(
+			"tim", "tip", "dvd", "dvm", "doc", "cfs"));
+
+	private final Directory directory;
+	private ScheduledExecutorService scheduler;
+
+	private volatile long passes;
+	private volatile long lastPassMillis;
+	private volatile long lastPassPages;
+	private volatile long lastPassFaults;
+	private volatile long lastPassFaultNanos;
+
+	PageCacheToucher(Directory directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Starts touching hot files periodically in a background daemon thread
+	 * @param intervalSeconds delay between two passes
+	 */
+	synchronized void start(long intervalSeconds) {
+		if (scheduler != null || directory instanceof RAMDirectory) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "page-cache-toucher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					touch(false);
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Page cache touch pass failed", e);
+				}
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Reads one byte of every page of the index files
+	 * @param allFiles true to touch every file, false for hot files only
+	 * @throws IOException
+	 */
+	void touch(boolean allFiles) throws IOException {
+		long start = System.nanoTime();
+		long pages = 0;
+		long faults = 0;
+		long faultNanos = 0;
+		for (String file : directory.listAll()) {
+			if (!allFiles && !HOT_EXTENSIONS.contains(extension(file))) {
+				continue;
+			}
+			try (IndexInput in = directory.openInput(file, IOContext.READONCE)) {
+				for (long pos = 0; pos < in.length(); pos += PAGE_SIZE) {
+					long pageStart = System.nanoTime();
+					in.seek(pos);
+					in.readByte();
+					long took = System.nanoTime() - pageStart;
+					if (took > FAULT_THRESHOLD_NANOS) {
+						faults++;
+						faultNanos += took;
+					}
+					pages++;
+				}
+			} catch (java.nio.file.NoSuchFileException e) {
+				//file merged away since listing, ignore
+			}
+		}
+		lastPassMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		lastPassPages = pages;
+		lastPassFaults = faults;
+		lastPassFaultNanos = faultNanos;
+		passes++;
+		if (faults > 0) {
+			LOG.info("Touched " + pages + " pages in " + lastPassMillis + "ms, "
+					+ faults + " were not resident");
+		}
+	}
+
+	/**
+	 * @return statistics of the last touch pass
+	 */
+	ResidencyStatus getStatus() {
+		ResidencyStatus status = new ResidencyStatus();
+		status.setPasses(passes);
+		status.setLastPassMillis(lastPassMillis);
+		status.setLastPassPages(lastPassPages);
+		status.setLastPassFaults(lastPassFaults);
+		status.setLastPassFaultMillis(TimeUnit.NANOSECONDS.toMillis(lastPassFaultNanos));
+		return status;
+	}
+
+	private static String extension(String file) {
+		int dot = file.lastIndexOf('.');
+		return dot < 0 ? "" : file.substring(dot + 1);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import edu.usc.ir.geo.gazetteer.domain.Location;
+
+/**
+ * Compares ranking configurations over a labeled sample. The sample is a
+ * tab separated file of a location name and the geoname id it should resolve
+ * to, optionally followed by a country code restricting the search. Every
+ * name is resolved on its own, so names of the sample do not disambiguate
+ * each other.
+ */
+public class RankingEvaluator {
+
+	private final GeoNameResolver resolver;
+	private final List<String[]> sample;
+
+	/**
+	 * @param resolver resolver to evaluate
+	 * @param samplePath path to the labeled sample
+	 * @throws IOException
+	 */
+	public RankingEvaluator(GeoNameResolver resolver, String samplePath) throws IOException {
+		this.resolver = resolver;
+		this.sample = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(samplePath), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] columns = line.split("\t");
+				if (columns.length < 2) {
+					throw new IOException("Expected name<TAB>geonameId[<TAB>country] but found " + line);
+				}
+				sample.add(columns);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the built-in ranking and every given model, printing one line each
+	 * @param models ranking models to compare, null entry for the built-in ranking
+	 * @param depth number of results considered for the mean reciprocal rank
+	 * @param out stream to print results to
+	 * @throws IOException
+	 */
+	public void compare(List<RankingModel> models, int depth, PrintStream out) throws IOException {
+		out.println(String.format("%-30s %8s %10s %8s %10s", "ranking", "names", "accuracy@1", "mrr",
+				"ms/name"));
+		//an untimed pass so that the first configuration does not pay for the cold index
+		for (String[] labeled : sample) {
+			resolver.searchGeoName(Collections.singletonList(labeled[0]), depth);
+		}
+		for (RankingModel model : models) {
+			resolver.setRankingModel(model);
+			int correct = 0;
+			double reciprocalRanks = 0;
+			long start = System.nanoTime();
+			for (String[] labeled : sample) {
+				int expected = Integer.parseInt(labeled[1].trim());
+				Map<String, List<Location>> resolved = resolver.searchGeoName(
+						Collections.singletonList(labeled[0]), depth, labeled.length > 2 ? labeled[2] : null);
+				List<Location> results = resolved.get(labeled[0]);
+				if (results == null) {
+					continue;
+				}
+				for (int rank = 0; rank < results.size(); rank++) {
+					if (results.get(rank).getGeonameId() == expected) {
+						correct += rank == 0 ? 1 : 0;
+						reciprocalRanks += 1.0 / (rank + 1);
+						break;
+					}
+				}
+			}
+			double millis = (System.nanoTime() - start) / 1e6;
+			int names = Math.max(sample.size(), 1);
+			out.println(String.format("%-30s %8d %10.3f %8.3f %10.3f",
+					model == null ? "built-in" : model.getName(), sample.size(),
+					(double) correct / names, reciprocalRanks / names, millis / names));
+		}
+		resolver.setRankingModel(null);
+	}
+}
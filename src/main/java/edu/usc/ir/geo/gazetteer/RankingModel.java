@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.queries.CustomScoreProvider;
+import org.apache.lucene.queries.CustomScoreQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A linear ranking function evaluated while Lucene scores the hits, so the
+ * top candidates are selected inside the index. Features are read from doc
+ * values:
+ * <ul>
+ * <li>{@value #TEXT_SCORE}: relevance score of the name query</li>
+ * <li>{@value #EXACT_NAME_MATCH}: 1 when the normalized name equals the searched name</li>
+ * <li>{@value #POPULATION}: log10(1 + population)</li>
+ * <li>{@value #FEATURE_RANK}: 1 / (1 + rank of the feature code), see
+ * {@link CustomLuceneGeoGazetteerComparator}</li>
+ * <li>{@value #ALTERNATE_NAME_COUNT}: ln(1 + number of alternate names)</li>
+ * </ul>
+ * Weights are read from a properties file having one weight per feature name,
+ * missing features weigh 0. Scores are in the same units as the built-in
+ * ranking weights, e.g. an exact name match weighing 20000.
+ */
+public class RankingModel {
+
+	public static final String TEXT_SCORE = "textScore";
+	public static final String EXACT_NAME_MATCH = "exactNameMatch";
+	public static final String POPULATION = "population";
+	public static final String FEATURE_RANK = "featureRank";
+	public static final String ALTERNATE_NAME_COUNT = "alternateNameCount";
+
+	private final String name;
+	private final float textScoreWeight;
+	private final float exactNameMatchWeight;
+	private final float populationWeight;
+	private final float featureRankWeight;
+	private final float alternateNameCountWeight;
+
+	public RankingModel(String name, float textScoreWeight, float exactNameMatchWeight,
+			float populationWeight, float featureRankWeight, float alternateNameCountWeight) {
+		this.name = name;
+		this.textScoreWeight = textScoreWeight;
+		this.exactNameMatchWeight = exactNameMatchWeight;
+		this.populationWeight = populationWeight;
+		this.featureRankWeight = featureRankWeight;
+		this.alternateNameCountWeight = alternateNameCountWeight;
+	}
+
+	/**
+	 * Reads feature weights from a properties file
+	 * @param file the model file
+	 * @return the model, named after the file
+	 * @throws IOException
+	 * @throws NumberFormatException if a weight is not a number
+	 */
+	public static RankingModel load(File file) throws IOException {
+		Properties weights = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			weights.load(in);
+		}
+		return new RankingModel(file.getName(), weight(weights, TEXT_SCORE),
+				weight(weights, EXACT_NAME_MATCH), weight(weights, POPULATION),
+				weight(weights, FEATURE_RANK), weight(weights, ALTERNATE_NAME_COUNT));
+	}
+
+	private static float weight(Properties weights, String feature) {
+		return Float.parseFloat(weights.getProperty(feature, "0").trim());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param textScore relevance score of the name query
+	 * @param exactNameMatch true if the normalized name equals the searched name
+	 * @param population population of the place
+	 * @param featureRank rank of the feature code
+	 * @param alternateNameCount number of alternate names
+	 * @return the ranking score
+	 */
+	public float score(float textScore, boolean exactNameMatch, long population, long featureRank,
+			long alternateNameCount) {
+		return textScoreWeight * textScore
+				+ (exactNameMatch ? exactNameMatchWeight : 0)
+				+ populationWeight * (float) Math.log10(1 + Math.max(population, 0))
+				+ featureRankWeight / (1f + featureRank)
+				+ alternateNameCountWeight * (float) Math.log1p(alternateNameCount);
+	}
+
+	/**
+	 * @param nameQuery query matching the searched name
+	 * @param normalizedName searched name as normalized by the analyzer of the index
+	 * @return query scoring the hits of nameQuery with this model
+	 */
+	public Query rank(Query nameQuery, String normalizedName) {
+		return new RankingQuery(nameQuery, this, normalizedName);
+	}
+
+	@Override
+	public String toString() {
+		return name + "(" + TEXT_SCORE + "=" + textScoreWeight + ", " + EXACT_NAME_MATCH + "="
+				+ exactNameMatchWeight + ", " + POPULATION + "=" + populationWeight + ", "
+				+ FEATURE_RANK + "=" + featureRankWeight + ", " + ALTERNATE_NAME_COUNT + "="
+				+ alternateNameCountWeight + ")";
+	}
+
+	private static class RankingQuery extends CustomScoreQuery {
+
+		private final RankingModel model;
+		private final BytesRef normalizedName;
+
+		RankingQuery(Query nameQuery, RankingModel model, String normalizedName) {
+			super(nameQuery);
+			this.model = model;
+			this.normalizedName = new BytesRef(normalizedName);
+		}
+
+		@Override
+		protected CustomScoreProvider getCustomScoreProvider(LeafReaderContext context) throws IOException {
+			LeafReader reader = context.reader();
+			final SortedNumericDocValues population = DocValues.getSortedNumeric(reader,
+					GeoNameResolver.FIELD_NAME_POPULATION);
+			final NumericDocValues featureRank = DocValues.getNumeric(reader,
+					GeoNameResolver.FIELD_NAME_FEATURE_RANK);
+			final NumericDocValues alternateNameCount = DocValues.getNumeric(reader,
+					GeoNameResolver.FIELD_NAME_ALTERNATE_NAME_COUNT);
+			final SortedDocValues exactNames = DocValues.getSorted(reader,
+					GeoNameResolver.FIELD_NAME_EXACT_NAME);
+			//ordinal of searched name in this segment, negative if no place has that name
+			final int exactOrd = exactNames.lookupTerm(normalizedName);
+			return new CustomScoreProvider(context) {
+				@Override
+				public float customScore(int doc, float subQueryScore, float[] valSrcScores) {
+					population.setDocument(doc);
+					return model.score(subQueryScore, exactOrd >= 0 && exactNames.getOrd(doc) == exactOrd,
+							population.count() == 0 ? 0 : population.valueAt(0), featureRank.get(doc),
+							alternateNameCount.get(doc));
+				}
+			};
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!super.equals(obj)) {
+				return false;
+			}
+			RankingQuery other = (RankingQuery) obj;
+			return model == other.model && normalizedName.equals(other.normalizedName);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * super.hashCode() + normalizedName.hashCode();
+		}
+
+		@Override
+		public String name() {
+			return "rank";
+		}
+	}
+}
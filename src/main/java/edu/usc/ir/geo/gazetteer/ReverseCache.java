@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.spatial4j.core.context.SpatialContext;
+import com.spatial4j.core.distance.DistanceUtils;
+import com.spatial4j.core.io.GeohashUtils;
+import com.spatial4j.core.shape.Rectangle;
+
+import edu.usc.ir.geo.gazetteer.domain.CacheStatus;
+import edu.usc.ir.geo.gazetteer.domain.Location;
+
+/**
+ * Cache of locations around geohash cells, for searches near coordinates
+ * that are close to each other, e.g. points of a GPS trace. An entry holds
+ * the locations a search from the center of a cell, widened by the half
+ * diagonal of the cell, finds. Answers for any coordinate of the cell are
+ * picked from the entry by their exact distance to that coordinate, and are
+ * only served when the entry provably holds every location of the answer.
+ */
+class ReverseCache {
+
+	public static final int DEFAULT_PRECISION = 7;
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final int precision;
+	private final int capacity;
+	private final LruCache<String, Entry> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong bypasses = new AtomicLong();
+
+	/**
+	 * @param precision geohash length of cells, 7 makes cells of about 150 meters
+	 * @param capacity most cells held
+	 */
+	ReverseCache(int precision, int capacity) {
+		this.precision = Math.max(1, Math.min(precision, GeohashUtils.MAX_PRECISION));
+		this.capacity = capacity;
+		this.entries = new LruCache<>(capacity);
+	}
+
+	/**
+	 * @return the cell holding a coordinate
+	 */
+	Cell cell(double latitude, double longitude) {
+		String geohash = GeohashUtils.encodeLatLon(latitude, longitude, precision);
+		Rectangle bounds = GeohashUtils.decodeBoundary(geohash, SpatialContext.GEO);
+		double centerLatitude = (bounds.getMinY() + bounds.getMaxY()) / 2;
+		double centerLongitude = (bounds.getMinX() + bounds.getMaxX()) / 2;
+		//corners are farther from the center on the side closer to the equator
+		double edgeLatitude = Math.abs(bounds.getMinY()) < Math.abs(bounds.getMaxY())
+				? bounds.getMinY() : bounds.getMaxY();
+		double halfDiagonal = DistanceUtils.distHaversineRAD(Math.toRadians(centerLatitude),
+				Math.toRadians(centerLongitude), Math.toRadians(edgeLatitude), Math.toRadians(bounds.getMinX()))
+				* DistanceUtils.EARTH_EQUATORIAL_RADIUS_MI;
+		return new Cell(geohash, centerLatitude, centerLongitude, halfDiagonal);
+	}
+
+	/**
+	 * @param generation generation of the sources the caller searches
+	 * @return entry of a cell, null if not cached or cached for another generation
+	 */
+	Entry get(String key, long generation) {
+		Entry entry = entries.get(key);
+		return entry == null || entry.generation != generation ? null : entry;
+	}
+
+	void put(String key, Entry entry) {
+		entries.put(key, entry);
+	}
+
+	/**
+	 * Counts a search answered from an entry
+	 */
+	void hit() {
+		hits.incrementAndGet();
+	}
+
+	/**
+	 * Counts a search of a cell not cached yet
+	 */
+	void miss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Counts a search of a cached cell whose entry can not hold its whole answer
+	 */
+	void bypass() {
+		bypasses.incrementAndGet();
+	}
+
+	/**
+	 * Drops every entry, e.g. when an index is reopened
+	 */
+	void clear() {
+		entries.clear();
+	}
+
+	CacheStatus getStatus() {
+		CacheStatus status = new CacheStatus();
+		status.setPrecision(precision);
+		status.setCapacity(capacity);
+		status.setSize(entries.size());
+		long hitCount = hits.get();
+		long lookups = hitCount + misses.get() + bypasses.get();
+		status.setHits(hitCount);
+		status.setMisses(misses.get());
+		status.setBypasses(bypasses.get());
+		status.setHitRatio(lookups == 0 ? 0 : (double) hitCount / lookups);
+		return status;
+	}
+
+	/**
+	 * A geohash cell
+	 */
+	static class Cell {
+		final String geohash;
+		final double latitude;
+		final double longitude;
+		//miles from the center to the farthest corner
+		final double halfDiagonal;
+
+		private Cell(String geohash, double latitude, double longitude, double halfDiagonal) {
+			this.geohash = geohash;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.halfDiagonal = halfDiagonal;
+		}
+	}
+
+	/**
+	 * Locations found around the center of a cell, shared by searches so never
+	 * modified
+	 */
+	static class Entry {
+		final List<Location> locations;
+		//false when the search was cut at its result size
+		final boolean complete;
+		//miles around the center the search covered
+		final double radius;
+		//generation of the sources searched
+		final long generation;
+
+		Entry(List<Location> locations, boolean complete, double radius, long generation) {
+			this.locations = locations;
+			this.complete = complete;
+			this.radius = radius;
+			this.generation = generation;
+		}
+	}
+}
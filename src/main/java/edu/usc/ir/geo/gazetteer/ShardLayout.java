@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Describes how a gazetteer index is partitioned into shards. A sharded index
+ * is a directory holding one lucene index per shard, named shard-0 .. shard-N-1,
+ * and a {@link #LAYOUT_FILE} describing the layout.
+ */
+public class ShardLayout {
+
+	public static final String LAYOUT_FILE = "shards.properties";
+	private static final String SHARD_COUNT_PROP = "shard.count";
+	private static final String POLICY_PROP = "shard.policy";
+	private static final String SHARD_DIR_PREFIX = "shard-";
+
+	/**
+	 * Decides which shard a gazetteer entry goes to
+	 */
+	public enum Policy {
+		/** Spreads entries evenly by geoname id */
+		HASH,
+		/** Keeps all entries of a country in the same shard */
+		COUNTRY
+	}
+
+	private final Policy policy;
+	private final int shardCount;
+
+	public ShardLayout(Policy policy, int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Shard count must be positive, found " + shardCount);
+		}
+		this.policy = policy;
+		this.shardCount = shardCount;
+	}
+
+	/**
+	 * @param geonameId id of the entry
+	 * @param countryCode ISO country code of the entry
+	 * @return index of the shard the entry belongs to
+	 */
+	public int shardFor(int geonameId, String countryCode) {
+		if (policy == Policy.COUNTRY) {
+			return shardForCountry(countryCode);
+		}
+		return (geonameId & Integer.MAX_VALUE) % shardCount;
+	}
+
+	/**
+	 * @param countryCode ISO country code
+	 * @return index of the shard holding all entries of the country
+	 */
+	public int shardForCountry(String countryCode) {
+		return (countryCode.trim().toUpperCase().hashCode() & Integer.MAX_VALUE) % shardCount;
+	}
+
+	/**
+	 * @return true if queries filtered by country only need to search one shard
+	 */
+	public boolean isCountryRouted() {
+		return policy == Policy.COUNTRY;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * @param indexPath root directory of the sharded index
+	 * @param shard index of the shard
+	 * @return lucene index directory of the shard
+	 */
+	public static File shardDirectory(String indexPath, int shard) {
+		return new File(indexPath, SHARD_DIR_PREFIX + shard);
+	}
+
+	/**
+	 * @param indexPath path to index, or root directory of a sharded index
+	 * @param layout layout of the index, null if it is not sharded
+	 * @return lucene index directories of the index, one per shard
+	 */
+	public static List<File> indexDirectories(String indexPath, ShardLayout layout) {
+		List<File> dirs = new ArrayList<>();
+		if (layout == null) {
+			dirs.add(new File(indexPath));
+		} else {
+			for (int i = 0; i < layout.getShardCount(); i++) {
+				dirs.add(shardDirectory(indexPath, i));
+			}
+		}
+		return dirs;
+	}
+
+	/**
+	 * Writes this layout to the root directory of a sharded index
+	 * @param indexPath root directory of the sharded index
+	 * @throws IOException
+	 */
+	public void save(String indexPath) throws IOException {
+		Properties props = new Properties();
+		props.setProperty(SHARD_COUNT_PROP, String.valueOf(shardCount));
+		props.setProperty(POLICY_PROP, policy.name().toLowerCase());
+		try (OutputStream out = new FileOutputStream(new File(indexPath, LAYOUT_FILE))) {
+			props.store(out, "Gazetteer shard layout");
+		}
+	}
+
+	/**
+	 * Reads the layout of a sharded index
+	 * @param indexPath root directory of an index
+	 * @return the layout, or null if index at path is not sharded
+	 * @throws IOException
+	 */
+	public static ShardLayout load(String indexPath) throws IOException {
+		File file = new File(indexPath, LAYOUT_FILE);
+		if (!file.isFile()) {
+			return null;
+		}
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			props.load(in);
+		}
+		return new ShardLayout(Policy.valueOf(props.getProperty(POLICY_PROP, "hash").toUpperCase()),
+				Integer.parseInt(props.getProperty(SHARD_COUNT_PROP)));
+	}
+}
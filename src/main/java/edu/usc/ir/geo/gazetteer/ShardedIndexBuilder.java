@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Builds a sharded gazetteer index. The gazetteer file is read once and its
+ * lines are handed to one writer thread per shard, so all shards are built
+ * in parallel.
+ */
+class ShardedIndexBuilder {
+
+	private static final Logger LOG = Logger.getLogger(ShardedIndexBuilder.class.getName());
+	private static final int QUEUE_SIZE = 10000;
+	//marks the end of input for writer threads
+	private static final String END_OF_INPUT = new String();
+
+	private final GeoNameResolver resolver;
+
+	/**
+	 * @param resolver resolver adding documents, with the analyzer and profile of the index
+	 */
+	ShardedIndexBuilder(GeoNameResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	/**
+	 * Builds the shards, unless the index at indexerPath exists already. Shards
+	 * left by a failed build are overwritten, and nothing is committed when a
+	 * build fails.
+	 * @param gazetteerPath path of the gazetteer file
+	 * @param indexerPath root directory of the sharded index
+	 * @param reverseGeocodingEnabled true to index locations for reverse geocoding
+	 * @param layout how entries are partitioned
+	 * @return false if the index existed already and nothing was built
+	 * @throws IOException
+	 */
+	boolean build(String gazetteerPath, String indexerPath, final boolean reverseGeocodingEnabled,
+			ShardLayout layout) throws IOException {
+		if (ShardLayout.load(indexerPath) != null) {
+			LOG.warning("Sharded index exists already at " + indexerPath);
+			return false;
+		}
+		LOG.warning("Start Building " + layout.getShardCount() + " shards for Gazatteer, by "
+				+ layout.getPolicy().name().toLowerCase());
+
+		int shardCount = layout.getShardCount();
+		List<BlockingQueue<String>> queues = new ArrayList<>();
+		List<Directory> directories = new ArrayList<>();
+		List<IndexWriter> writers = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(shardCount);
+		List<Future<Integer>> futures = new ArrayList<>();
+		boolean built = false;
+		try {
+			for (int i = 0; i < shardCount; i++) {
+				File shardDir = ShardLayout.shardDirectory(indexerPath, i);
+				Directory directory = FSDirectory.open(shardDir.toPath());
+				directories.add(directory);
+				final IndexWriter writer = new IndexWriter(directory,
+						resolver.newIndexWriterConfig().setOpenMode(OpenMode.CREATE));
+				writer.setCommitData(resolver.commitData(gazetteerPath, reverseGeocodingEnabled));
+				final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+				writers.add(writer);
+				queues.add(queue);
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws InterruptedException {
+						int count = 0;
+						String line;
+						while ((line = queue.take()) != END_OF_INPUT) {
+							try {
+								resolver.addDoc(writer, line, reverseGeocodingEnabled);
+								count++;
+							} catch (RuntimeException re) {
+								LOG.log(Level.WARNING, "Skipping... Error on line: {0}", line);
+							}
+						}
+						return count;
+					}
+				}));
+			}
+
+			dispatch(gazetteerPath, layout, queues, futures);
+			for (BlockingQueue<String> queue : queues) {
+				queue.put(END_OF_INPUT);
+			}
+			for (int i = 0; i < shardCount; i++) {
+				LOG.info("Shard " + i + " indexed " + futures.get(i).get() + " rows");
+			}
+			for (IndexWriter writer : writers) {
+				resolver.getIndexProfile().finish(writer);
+			}
+			built = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while building shards", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to build shard", e.getCause());
+		} finally {
+			executor.shutdownNow();
+			//every shard is closed even if another fails to, writers before their directories
+			List<Closeable> closeables = new ArrayList<>();
+			for (final IndexWriter writer : writers) {
+				closeables.add(built ? writer : new Closeable() {
+					@Override
+					public void close() throws IOException {
+						//partial shards are discarded rather than committed
+						writer.rollback();
+					}
+				});
+			}
+			closeables.addAll(directories);
+			if (built) {
+				IOUtils.close(closeables);
+			} else {
+				//the failure of the build is reported, not the failures of closing
+				IOUtils.closeWhileHandlingException(closeables);
+			}
+		}
+		//layout is written last, an index without it is incomplete
+		layout.save(indexerPath);
+		LOG.warning("Building Finished");
+		return true;
+	}
+
+	private void dispatch(String gazetteerPath, ShardLayout layout,
+			List<BlockingQueue<String>> queues, List<Future<Integer>> futures)
+			throws IOException, InterruptedException, ExecutionException {
+		try (BufferedReader filereader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(gazetteerPath), "UTF-8"))) {
+			String line;
+			int count = 0;
+			while ((line = filereader.readLine()) != null) {
+				count += 1;
+				if (count % 100000 == 0) {
+					LOG.log(Level.INFO, "Dispatched Row Count: " + count);
+					//surface failures of writer threads early
+					for (Future<Integer> future : futures) {
+						if (future.isDone()) {
+							future.get();
+						}
+					}
+				}
+				String[] tokens = line.split("\t", 10);
+				int shard;
+				try {
+					shard = layout.shardFor(Integer.parseInt(tokens[0]), tokens.length > 8 ? tokens[8] : "");
+				} catch (RuntimeException re) {
+					LOG.log(Level.WARNING, "Skipping... Error on line: {0}", line);
+					continue;
+				}
+				queues.get(shard).put(line);
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+/**
+ * Breakdown of the startup time of the process, e.g.
+ * <code>jvm 90ms, options 20ms, open geonames 150ms, search 210ms</code>.
+ * Each mark ends a phase that started at the previous mark, the first phase
+ * being the JVM startup until {@link #start()}. {@link #finish(String)} logs
+ * the phases, later marks are ignored, so code also run after startup, e.g.
+ * opening a source, marks its phase unconditionally.
+ */
+public final class StartupTimer {
+
+	private static final Logger LOG = Logger.getLogger(StartupTimer.class.getName());
+	private static StringBuilder phases;
+	private static long jvmStart;
+	private static long last;
+
+	private StartupTimer() {
+	}
+
+	/**
+	 * Starts the breakdown, the JVM startup being its first phase
+	 */
+	public static synchronized void start() {
+		long now = System.currentTimeMillis();
+		jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		last = now;
+		phases = new StringBuilder();
+		phases.append("jvm ").append(now - jvmStart).append("ms");
+	}
+
+	/**
+	 * Ends a phase, ignored when the breakdown is not started or finished
+	 * @param phase what was done since the previous mark
+	 */
+	public static synchronized void mark(String phase) {
+		if (phases == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		phases.append(", ").append(phase).append(' ').append(now - last).append("ms");
+		last = now;
+	}
+
+	/**
+	 * Logs the breakdown, ignored when already finished
+	 * @param ready what the process is ready for, e.g. first results or serving
+	 */
+	public static synchronized void finish(String ready) {
+		if (phases == null) {
+			return;
+		}
+		LOG.info("Startup: " + phases + ", " + ready + " after "
+				+ (System.currentTimeMillis() - jvmStart) + "ms");
+		phases = null;
+	}
+}
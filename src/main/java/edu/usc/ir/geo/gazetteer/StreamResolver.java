@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import edu.usc.ir.geo.gazetteer.domain.Location;
+
+/**
+ * Resolves a stream of requests, one per line, through one open resolver, so
+ * a pipeline pays the JVM startup and index opening once. A line is either
+ * <ul>
+ * <li>a place name, e.g. Pasadena</li>
+ * <li>a coordinate as latitude,longitude, e.g. 34.05,-118.24, answered with
+ * the nearest places</li>
+ * <li>a json object with name, names (resolved together), or lat and lon, and
+ * optionally id, count, country and lang, e.g.
+ * {"id":7,"names":["Paris","Texas"],"count":2}</li>
+ * </ul>
+ * Every non blank line gets one json line of output, in input order, echoing
+ * the request with its locations, or an error.
+ * <br/>
+ * Lines are grouped in micro-batches, a batch being sent as soon as it is full
+ * or the input pauses. Batches are resolved by worker threads and written in
+ * order by a writer thread. Single names of a batch sharing their options are
+ * searched in one call, without disambiguating them together.
+ */
+public class StreamResolver {
+
+	private static final Logger LOG = Logger.getLogger(StreamResolver.class.getName());
+	public static final int DEFAULT_BATCH_SIZE = 64;
+	private static final long ENQUEUE_POLL_MILLIS = 100;
+	//batches written between checks of buffered output for write failures
+	private static final int BUFFERED_CHECK_BATCHES = 16;
+	private static final Pattern COORDINATE = Pattern.compile(
+			"\\s*(-?\\d+(?:\\.\\d+)?)\\s*[,\\s]\\s*(-?\\d+(?:\\.\\d+)?)\\s*");
+	//marks the end of output for the writer thread
+	private static final Future<List<String>> END_OF_OUTPUT = new FutureTask<List<String>>(
+			new Callable<List<String>>() {
+				@Override
+				public List<String> call() {
+					return null;
+				}
+			});
+
+	private final GeoNameResolver resolver;
+	private final int count;
+	private final String countryCode;
+	private final String language;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private boolean flushEachBatch = true;
+	private final Gson gson = new Gson();
+
+	/**
+	 * @param resolver the open resolver
+	 * @param count default number of locations per name
+	 * @param countryCode default ISO country code results are restricted to, may be null
+	 * @param language default ISO 639 code of names, may be null
+	 */
+	public StreamResolver(GeoNameResolver resolver, int count, String countryCode, String language) {
+		this.resolver = resolver;
+		this.count = count;
+		this.countryCode = countryCode;
+		this.language = language;
+	}
+
+	/**
+	 * @param batchSize maximum number of lines resolved in one batch
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * @param workers number of batches resolved concurrently
+	 */
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+	/**
+	 * @param flushEachBatch true to flush output after every batch, so a
+	 * caller waiting for an answer gets it, false to only flush when the
+	 * output buffer is full, for throughput
+	 */
+	public void setFlushEachBatch(boolean flushEachBatch) {
+		this.flushEachBatch = flushEachBatch;
+	}
+
+	/**
+	 * Resolves lines until the end of input
+	 * @param in the requests
+	 * @param out where json lines are written
+	 * @return number of requests answered
+	 * @throws IOException
+	 */
+	public long run(BufferedReader in, final PrintStream out) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "gazetteer-stream-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		//bounded, so reading waits for the writer when output is slow
+		final BlockingQueue<Future<List<String>>> pending = new ArrayBlockingQueue<>(workers * 2);
+		final AtomicInteger written = new AtomicInteger();
+		final AtomicReference<IOException> writeError = new AtomicReference<>();
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Future<List<String>> batch;
+					long batches = 0;
+					while ((batch = pending.take()) != END_OF_OUTPUT) {
+						for (String line : batch.get()) {
+							out.println(line);
+							written.incrementAndGet();
+						}
+						//PrintStream swallows write failures, e.g. of a pipe closed by the reader;
+						//checking flushes, so buffered output is only checked now and then
+						if ((flushEachBatch || ++batches % BUFFERED_CHECK_BATCHES == 0) && out.checkError()) {
+							writeError.set(new IOException("Failed to write output, it was closed"));
+							return;
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					writeError.set(new IOException("Failed to resolve a batch", e.getCause()));
+				}
+				//flushes what is left
+				if (out.checkError()) {
+					writeError.compareAndSet(null, new IOException("Failed to write output, it was closed"));
+				}
+			}
+		}, "gazetteer-stream-writer");
+		writer.start();
+
+		long start = System.currentTimeMillis();
+		try {
+			List<String> batch = new ArrayList<>(batchSize);
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					batch.add(line);
+				}
+				//a pause of the input sends what is read, an interactive caller gets its answer
+				if (batch.size() >= batchSize || !batch.isEmpty() && !in.ready()) {
+					enqueue(pending, executor.submit(resolveTask(batch)), writeError);
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+			if (!batch.isEmpty()) {
+				enqueue(pending, executor.submit(resolveTask(batch)), writeError);
+			}
+			enqueue(pending, END_OF_OUTPUT, writeError);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			writer.interrupt();
+			throw new InterruptedIOException("Interrupted while streaming");
+		} finally {
+			executor.shutdownNow();
+		}
+		if (writeError.get() != null) {
+			throw writeError.get();
+		}
+		LOG.info("Answered " + written.get() + " requests in " + (System.currentTimeMillis() - start) + "ms");
+		return written.get();
+	}
+
+	/**
+	 * Waits for room in the queue of the writer, and gives up once the writer
+	 * stopped on a failed batch or output, as it then no longer takes from the
+	 * queue
+	 * @throws IOException the failure of the writer
+	 */
+	private static void enqueue(BlockingQueue<Future<List<String>>> pending, Future<List<String>> batch,
+			AtomicReference<IOException> writeError) throws IOException, InterruptedException {
+		if (writeError.get() != null) {
+			throw writeError.get();
+		}
+		while (!pending.offer(batch, ENQUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (writeError.get() != null) {
+				//batches in flight are cancelled when the executor is shut down
+				throw writeError.get();
+			}
+		}
+	}
+
+	private Callable<List<String>> resolveTask(final List<String> lines) {
+		return new Callable<List<String>>() {
+			@Override
+			public List<String> call() {
+				return resolve(lines);
+			}
+		};
+	}
+
+	/**
+	 * Resolves a batch of lines
+	 * @return one json line per input line, in order
+	 */
+	List<String> resolve(List<String> lines) {
+		List<Request> requests = new ArrayList<>(lines.size());
+		//single names of the batch, by count, country and language
+		Map<List<Object>, List<Request>> singleNames = new LinkedHashMap<>();
+		for (String line : lines) {
+			Request request;
+			try {
+				request = parse(line);
+			} catch (RuntimeException e) {
+				request = new Request();
+				request.output.put("line", line);
+				request.output.put("error", "Unable to parse request: " + e.getMessage());
+			}
+			requests.add(request);
+			if (request.names != null && request.names.size() == 1) {
+				List<Object> options = Arrays.<Object>asList(request.count, request.countryCode, request.language);
+				List<Request> group = singleNames.get(options);
+				if (group == null) {
+					group = new ArrayList<>();
+					singleNames.put(options, group);
+				}
+				group.add(request);
+			}
+		}
+
+		for (List<Request> group : singleNames.values()) {
+			Request first = group.get(0);
+			List<String> names = new ArrayList<>();
+			for (Request request : group) {
+				names.add(request.names.get(0));
+			}
+			try {
+				Map<String, List<Location>> resolved = resolver.searchGeoName(names, first.count,
+						first.countryCode, first.language, false);
+				for (Request request : group) {
+					List<Location> locations = resolved.get(request.names.get(0));
+					request.output.put("locations", locations == null ? new ArrayList<Location>() : locations);
+				}
+			} catch (IOException | RuntimeException e) {
+				for (Request request : group) {
+					request.output.put("error", String.valueOf(e.getMessage()));
+				}
+			}
+		}
+
+		List<String> output = new ArrayList<>(requests.size());
+		for (Request request : requests) {
+			try {
+				if (request.names != null && request.names.size() > 1) {
+					request.output.put("locations", resolver.searchGeoName(request.names, request.count,
+							request.countryCode, request.language));
+				} else if (request.latitude != null) {
+					request.output.put("locations", resolver.searchNearest(request.latitude, request.longitude,
+							request.count, GeoNameResolver.DEFAULT_MAX_NEAREST_RADIUS,
+							GeoNameResolver.NearbyOrder.DISTANCE));
+				}
+			} catch (IOException | RuntimeException e) {
+				request.output.put("error", String.valueOf(e.getMessage()));
+			}
+			output.add(gson.toJson(request.output));
+		}
+		return output;
+	}
+
+	private Request parse(String line) {
+		Request request = new Request();
+		String trimmed = line.trim();
+		if (trimmed.startsWith("{")) {
+			JsonObject json = new JsonParser().parse(trimmed).getAsJsonObject();
+			if (json.has("id")) {
+				request.output.put("id", json.get("id"));
+			}
+			request.count = json.has("count") ? json.get("count").getAsInt() : count;
+			request.countryCode = json.has("country") ? json.get("country").getAsString() : countryCode;
+			request.language = json.has("lang") ? json.get("lang").getAsString() : language;
+			if (json.has("lat") && json.has("lon")) {
+				coordinate(request, json.get("lat").getAsDouble(), json.get("lon").getAsDouble());
+			} else if (json.has("names")) {
+				request.names = new ArrayList<>();
+				for (JsonElement name : json.getAsJsonArray("names")) {
+					request.names.add(name.getAsString());
+				}
+				request.output.put("names", request.names);
+			} else if (json.has("name")) {
+				name(request, json.get("name").getAsString());
+			} else {
+				throw new IllegalArgumentException("expected name, names or lat and lon");
+			}
+			return request;
+		}
+		request.count = count;
+		request.countryCode = countryCode;
+		request.language = language;
+		Matcher coordinate = COORDINATE.matcher(trimmed);
+		if (coordinate.matches()) {
+			coordinate(request, Double.parseDouble(coordinate.group(1)), Double.parseDouble(coordinate.group(2)));
+		} else {
+			name(request, trimmed);
+		}
+		return request;
+	}
+
+	private static void name(Request request, String name) {
+		request.names = new ArrayList<>();
+		request.names.add(name);
+		request.output.put("name", name);
+	}
+
+	private static void coordinate(Request request, double latitude, double longitude) {
+		if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+			throw new IllegalArgumentException("coordinate out of range");
+		}
+		request.latitude = latitude;
+		request.longitude = longitude;
+		request.output.put("lat", latitude);
+		request.output.put("lon", longitude);
+	}
+
+	private static class Request {
+		private final Map<String, Object> output = new LinkedHashMap<>();
+		private List<String> names;
+		private Double latitude;
+		private Double longitude;
+		private int count;
+		private String countryCode;
+		private String language;
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.NoOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import edu.usc.ir.geo.gazetteer.domain.Toponym;
+
+/**
+ * Finds place names in raw text with a dictionary automaton. The dictionary is
+ * an FST over the analyzed token sequences of the names and alternate names in
+ * the index, so text is matched exactly the way the name fields are searched.
+ * Tagging walks the FST from every token and keeps the leftmost longest match.
+ */
+public class ToponymTagger {
+
+	private static final Logger LOG = Logger.getLogger(ToponymTagger.class.getName());
+	public static final long DEFAULT_MIN_POPULATION = 1000;
+	//separates tokens of a name
+	private static final int SEPARATOR = 0x1F;
+	//marks a position left by a removed stop word
+	private static final int GAP = 0x1E;
+	//shorter names are mostly abbreviations matching ordinary words
+	private static final int MIN_NAME_LENGTH = 3;
+	private static final Set<String> NAME_FIELDS = new HashSet<>(Arrays.asList(
+			GeoNameResolver.FIELD_NAME_NAME, GeoNameResolver.FIELD_NAME_ALTERNATE_NAMES));
+
+	private final FST<Object> fst;
+	private final Analyzer analyzer;
+	private final boolean requireCapitalized;
+
+	private ToponymTagger(FST<Object> fst, Analyzer analyzer, boolean requireCapitalized) {
+		this.fst = fst;
+		this.analyzer = analyzer;
+		this.requireCapitalized = requireCapitalized;
+	}
+
+	/**
+	 * Builds the dictionary from names and alternate names of indexed places
+	 * @param readers readers of the gazetteer indexes
+	 * @param analyzer analyzer used for the name fields
+	 * @param minPopulation places having smaller population are left out
+	 * @param requireCapitalized true to only tag names starting with a capital letter in text
+	 * @return the tagger
+	 * @throws IOException
+	 */
+	public static ToponymTagger build(List<IndexReader> readers, Analyzer analyzer,
+			long minPopulation, boolean requireCapitalized) throws IOException {
+		long start = System.currentTimeMillis();
+		List<BytesRef> keys = new ArrayList<>();
+		BytesRefBuilder key = new BytesRefBuilder();
+		for (IndexReader reader : readers) {
+			for (LeafReaderContext context : reader.leaves()) {
+				LeafReader leaf = context.reader();
+				Bits liveDocs = leaf.getLiveDocs();
+				SortedNumericDocValues population = DocValues.getSortedNumeric(leaf,
+						GeoNameResolver.FIELD_NAME_POPULATION);
+				for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+					if (liveDocs != null && !liveDocs.get(doc)) {
+						continue;
+					}
+					population.setDocument(doc);
+					if (population.count() == 0 || population.valueAt(0) < minPopulation) {
+						continue;
+					}
+					Document document = leaf.document(doc, NAME_FIELDS);
+					addKey(keys, key, analyzer, document.get(GeoNameResolver.FIELD_NAME_NAME));
+					String[] alternateNames = document.getValues(GeoNameResolver.FIELD_NAME_ALTERNATE_NAMES);
+					if (alternateNames.length == 1) {
+						//comma joined names of the gazetteer file
+						alternateNames = alternateNames[0].split(",");
+					}
+					for (String alternateName : alternateNames) {
+						addKey(keys, key, analyzer, alternateName);
+					}
+				}
+			}
+		}
+
+		//FST inputs must be added in sorted order
+		Collections.sort(keys);
+		Builder<Object> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, NoOutputs.getSingleton());
+		IntsRefBuilder scratch = new IntsRefBuilder();
+		BytesRef previous = null;
+		int names = 0;
+		for (BytesRef name : keys) {
+			if (!name.equals(previous)) {
+				builder.add(Util.toIntsRef(name, scratch), NoOutputs.getSingleton().getNoOutput());
+				previous = name;
+				names++;
+			}
+		}
+		FST<Object> fst = builder.finish();
+		LOG.info("Built toponym dictionary of " + names + " names, "
+				+ (fst == null ? 0 : fst.ramBytesUsed()) + " bytes in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		return new ToponymTagger(fst, analyzer, requireCapitalized);
+	}
+
+	private static void addKey(List<BytesRef> keys, BytesRefBuilder key, Analyzer analyzer,
+			String name) throws IOException {
+		if (name == null || name.trim().length() < MIN_NAME_LENGTH) {
+			return;
+		}
+		List<Token> tokens = analyze(analyzer, name);
+		if (tokens.isEmpty()) {
+			return;
+		}
+		key.clear();
+		for (int i = 0; i < tokens.size(); i++) {
+			if (i > 0) {
+				appendSeparator(key, tokens.get(i).positionIncrement);
+			}
+			key.append(tokens.get(i).term);
+		}
+		keys.add(key.toBytesRef());
+	}
+
+	private static void appendSeparator(BytesRefBuilder key, int positionIncrement) {
+		for (int gap = 1; gap < positionIncrement; gap++) {
+			key.append((byte) GAP);
+		}
+		key.append((byte) SEPARATOR);
+	}
+
+	/**
+	 * Finds place names in text
+	 * @param text the text
+	 * @return non overlapping place names, in order of appearance
+	 * @throws IOException
+	 */
+	public List<Toponym> tag(String text) throws IOException {
+		List<Toponym> toponyms = new ArrayList<>();
+		if (fst == null) {
+			return toponyms;
+		}
+		List<Token> tokens = analyze(analyzer, text);
+		FST.BytesReader fstReader = fst.getBytesReader();
+		FST.Arc<Object> arc = new FST.Arc<>();
+		int i = 0;
+		while (i < tokens.size()) {
+			int longest = -1;
+			fst.getFirstArc(arc);
+			for (int j = i; j < tokens.size(); j++) {
+				Token token = tokens.get(j);
+				if (j > i && (!follow(GAP, token.positionIncrement - 1, arc, fstReader)
+						|| !follow(SEPARATOR, 1, arc, fstReader))) {
+					break;
+				}
+				if (!follow(token.term, arc, fstReader)) {
+					break;
+				}
+				if (arc.isFinal()) {
+					longest = j;
+				}
+			}
+			int start = tokens.get(i).startOffset;
+			if (longest >= 0 && (!requireCapitalized || !Character.isLowerCase(text.charAt(start)))) {
+				int end = tokens.get(longest).endOffset;
+				toponyms.add(new Toponym(text.substring(start, end), start, end));
+				i = longest + 1;
+			} else {
+				i++;
+			}
+		}
+		return toponyms;
+	}
+
+	private boolean follow(int label, int times, FST.Arc<Object> arc, FST.BytesReader fstReader)
+			throws IOException {
+		for (int n = 0; n < times; n++) {
+			if (fst.findTargetArc(label, arc, arc, fstReader) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean follow(BytesRef term, FST.Arc<Object> arc, FST.BytesReader fstReader)
+			throws IOException {
+		for (int b = term.offset; b < term.offset + term.length; b++) {
+			if (fst.findTargetArc(term.bytes[b] & 0xFF, arc, arc, fstReader) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<Token> analyze(Analyzer analyzer, String text) throws IOException {
+		List<Token> tokens = new ArrayList<>();
+		try (TokenStream stream = analyzer.tokenStream(GeoNameResolver.FIELD_NAME_NAME, text)) {
+			TermToBytesRefAttribute termAtt = stream.addAttribute(TermToBytesRefAttribute.class);
+			OffsetAttribute offsetAtt = stream.addAttribute(OffsetAttribute.class);
+			PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+			BytesRef term = termAtt.getBytesRef();
+			stream.reset();
+			while (stream.incrementToken()) {
+				termAtt.fillBytesRef();
+				tokens.add(new Token(BytesRef.deepCopyOf(term), offsetAtt.startOffset(),
+						offsetAtt.endOffset(), posIncAtt.getPositionIncrement()));
+			}
+			stream.end();
+		}
+		return tokens;
+	}
+
+	private static class Token {
+		private final BytesRef term;
+		private final int startOffset;
+		private final int endOffset;
+		private final int positionIncrement;
+
+		Token(BytesRef term, int startOffset, int endOffset, int positionIncrement) {
+			this.term = term;
+			this.startOffset = startOffset;
+			this.endOffset = endOffset;
+			this.positionIncrement = positionIncrement;
+		}
+	}
+}
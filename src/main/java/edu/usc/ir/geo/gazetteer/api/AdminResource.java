@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.api;
+
+import edu.usc.ir.geo.gazetteer.GazetteerSource;
+import edu.usc.ir.geo.gazetteer.GeoNameResolver;
+import edu.usc.ir.geo.gazetteer.service.Launcher;
+import edu.usc.ir.geo.gazetteer.service.ResolverProvider;
+
+import com.google.gson.Gson;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * AdminResource offers maintenance operations on the gazetteer sources
+ * of a running service. Every operation requires the {@link #TOKEN_HEADER}
+ * header to hold the token configured by {@link Launcher#ADMIN_TOKEN_PROP} or
+ * the {@link Launcher#ADMIN_TOKEN_ENV} environment variable, and is refused
+ * when none is configured. Snapshots are only installed from the directory
+ * set by {@link Launcher#SNAPSHOT_DIR_PROP}.
+ */
+@Path("/admin")
+public class AdminResource {
+
+    public static final String SOURCE = "source";
+    public static final String ARCHIVE = "archive";
+    public static final String TOKEN_HEADER = "X-Admin-Token";
+
+    /**
+     * Re-opens one gazetteer source, or all of them if no source is given
+     * @param source name of the source
+     * @return status of the index after reload
+     */
+    @POST
+    @Path("/reload")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response reload(@QueryParam(SOURCE) String source,
+                           @HeaderParam(TOKEN_HEADER) String token) throws IOException {
+        if (!authorized(token)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        GeoNameResolver resolver = ResolverProvider.getResolver();
+        if (source == null || source.isEmpty()) {
+            for (GazetteerSource gazetteerSource : resolver.getSources()) {
+                resolver.reload(gazetteerSource.getName());
+            }
+        } else {
+            try {
+                resolver.reload(source);
+            } catch (IllegalArgumentException e) {
+                return Response.status(Response.Status.NOT_FOUND).entity(e.getMessage()).build();
+            }
+        }
+        return Response.status(Response.Status.OK)
+                .entity(new Gson().toJson(resolver.getIndexStatus()))
+                .build();
+    }
+
+    /**
+     * Validates a snapshot archive found on the local disk, installs it in
+     * place of a gazetteer source and re-opens the source from it
+     * @param source name of the source, the main source if not given
+     * @param archive file name of the archive in the snapshot directory
+     * @return status of the index after install
+     */
+    @POST
+    @Path("/snapshot")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response installSnapshot(@QueryParam(SOURCE) String source,
+                                    @QueryParam(ARCHIVE) String archive,
+                                    @HeaderParam(TOKEN_HEADER) String token) throws IOException {
+        if (!authorized(token)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        if (archive == null || archive.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        String snapshotDir = System.getProperty(Launcher.SNAPSHOT_DIR_PROP);
+        if (snapshotDir == null || snapshotDir.isEmpty()) {
+            return Response.status(Response.Status.FORBIDDEN)
+                    .entity("No snapshot directory is configured").build();
+        }
+        File directory = new File(snapshotDir).getCanonicalFile();
+        File archiveFile = new File(directory, archive).getCanonicalFile();
+        if (!directory.equals(archiveFile.getParentFile())) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Archives are only read from the snapshot directory").build();
+        }
+        GeoNameResolver resolver = ResolverProvider.getResolver();
+        try {
+            resolver.installSnapshot(source == null || source.isEmpty() ? null : source, archiveFile);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.NOT_FOUND).entity(e.getMessage()).build();
+        } catch (IOException e) {
+            return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
+        }
+        return Response.status(Response.Status.OK)
+                .entity(new Gson().toJson(resolver.getIndexStatus()))
+                .build();
+    }
+
+    /**
+     * @return true if a token is configured and the given one equals it
+     */
+    private static boolean authorized(String token) {
+        String expected = System.getProperty(Launcher.ADMIN_TOKEN_PROP, System.getenv(Launcher.ADMIN_TOKEN_ENV));
+        if (expected == null || expected.isEmpty() || token == null) {
+            return false;
+        }
+        //compared in constant time, so the token can not be guessed byte by byte
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
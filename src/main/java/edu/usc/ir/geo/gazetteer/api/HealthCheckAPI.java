@@ -19,6 +19,17 @@ package edu.usc.ir.geo.gazetteer.api;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.google.gson.Gson;
+
+import edu.usc.ir.geo.gazetteer.GeoNameResolver;
+import edu.usc.ir.geo.gazetteer.domain.AdmissionStatus;
+import edu.usc.ir.geo.gazetteer.domain.IndexStatus;
+import edu.usc.ir.geo.gazetteer.service.AdmissionController;
+import edu.usc.ir.geo.gazetteer.service.ResolverProvider;
 
 /**
  * API to check if service status
@@ -34,4 +45,35 @@ public class HealthCheckAPI {
     	return "pong";
     }
 
+	/**
+	 * API to check if service is ready to take traffic. Responds with
+	 * 503 until the index is opened and warmed up.
+	 */
+    @GET
+    @Path("/ready")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response ready(){
+    	GeoNameResolver resolver = ResolverProvider.peekResolver();
+    	IndexStatus status = resolver == null ? new IndexStatus() : resolver.getIndexStatus();
+    	Response.Status code = status.isWarm() ? Response.Status.OK
+    			: Response.Status.SERVICE_UNAVAILABLE;
+    	return Response.status(code).entity(new Gson().toJson(status)).build();
+    }
+
+	/**
+	 * API reporting running, queued and rejected requests of every priority
+	 * lane. Responds with 404 when the server has no admission control.
+	 */
+    @GET
+    @Path("/admission")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response admission(){
+    	AdmissionController controller = AdmissionController.peek();
+    	if (controller == null) {
+    		return Response.status(Response.Status.NOT_FOUND).build();
+    	}
+    	AdmissionStatus status = controller.getStatus();
+    	return Response.ok(new Gson().toJson(status)).build();
+    }
+
 }
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.api;
+
+import edu.usc.ir.geo.gazetteer.GeoNameResolver;
+import edu.usc.ir.geo.gazetteer.domain.ReverseGeocode;
+import edu.usc.ir.geo.gazetteer.service.ResolverProvider;
+
+import com.google.gson.Gson;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+
+/**
+ * ReverseResource is a Rest Resource which reverse geocodes a coordinate to
+ * the admin areas containing it and the populated places nearby.
+ */
+@Path("/reverse")
+public class ReverseResource {
+
+    public static final String LATITUDE = "lat";
+    public static final String LONGITUDE = "lon";
+    public static final String MAX_RADIUS = "radius";
+    public static final String ORDER = "order";
+
+    private final GeoNameResolver resolver;
+
+    public ReverseResource(){
+        this.resolver = ResolverProvider.getResolver();
+    }
+
+    /**
+     * @param latitude latitude of the coordinate
+     * @param longitude longitude of the coordinate
+     * @param count number of nearby places
+     * @param maxRadius radius in miles the search for nearby places stops growing at
+     * @param order distance, population or blend
+     * @return admin areas, smallest first, and nearby places
+     */
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response reverse(@QueryParam(LATITUDE) Double latitude,
+                            @QueryParam(LONGITUDE) Double longitude,
+                            @DefaultValue("1") @QueryParam(SearchResource.COUNT) int count,
+                            @QueryParam(MAX_RADIUS) Double maxRadius,
+                            @DefaultValue("distance") @QueryParam(ORDER) String order)
+            throws IOException {
+
+        if (latitude == null || longitude == null || Math.abs(latitude) > 90
+                || Math.abs(longitude) > 180 || count < 1 || maxRadius != null && maxRadius <= 0) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        GeoNameResolver.NearbyOrder nearbyOrder;
+        try {
+            nearbyOrder = GeoNameResolver.NearbyOrder.valueOf(order.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        ReverseGeocode result = resolver.reverseGeocode(latitude, longitude, count,
+                maxRadius == null ? GeoNameResolver.DEFAULT_MAX_NEAREST_RADIUS : maxRadius, nearbyOrder);
+        return Response
+                .status(Response.Status.OK)
+                .entity(new Gson().toJson(result))
+                .build();
+    }
+
+}
@@ -19,7 +19,7 @@ package edu.usc.ir.geo.gazetteer.api;
 
 import edu.usc.ir.geo.gazetteer.GeoNameResolver;
 import edu.usc.ir.geo.gazetteer.domain.Location;
-import edu.usc.ir.geo.gazetteer.service.Launcher;
+import edu.usc.ir.geo.gazetteer.service.ResolverProvider;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
@@ -28,7 +28,6 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * SearchResource is a Rest Resource which offers search on geo location name.
@@ -39,36 +38,50 @@ public class SearchResource {
 
     public static final String SEARCH = "s";
     public static final String COUNT = "c";
-    private static final Logger LOG = Logger.getLogger(SearchResource.class.getName());
+    public static final String COUNTRY = "country";
+    public static final String LANGUAGE = "lang";
+    public static final String LATITUDE = "lat";
+    public static final String LONGITUDE = "lon";
+    public static final String ORDER = "order";
+    public static final String DISAMBIGUATE = "disambiguate";
 
     private final GeoNameResolver resolver;
 
     public SearchResource(){
-
-        String indexPath = System.getProperty(Launcher.INDEX_PATH_PROP);
-        if (indexPath == null || indexPath.isEmpty()) {
-            throw new IllegalStateException("Set Index Path with system property "
-                    + Launcher.INDEX_PATH_PROP);
-        }
-        try {
-            LOG.info("Initialising searcher from index " + indexPath);
-            this.resolver = new GeoNameResolver(indexPath);
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
+        this.resolver = ResolverProvider.getResolver();
     }
 
     @GET
     @Produces({MediaType.APPLICATION_JSON})
     public Response getSearchResults(@QueryParam(SEARCH)List<String> search,
-                                     @DefaultValue("1") @QueryParam(COUNT) int count)
+                                     @DefaultValue("1") @QueryParam(COUNT) int count,
+                                     @QueryParam(COUNTRY) String country,
+                                     @QueryParam(LANGUAGE) String language,
+                                     @QueryParam(LATITUDE) Double latitude,
+                                     @QueryParam(LONGITUDE) Double longitude,
+                                     @DefaultValue("distance") @QueryParam(ORDER) String order,
+                                     @DefaultValue("true") @QueryParam(DISAMBIGUATE) boolean disambiguate)
             throws IOException {
 
-        if (search == null || search.isEmpty()|| count < 1){
+        if (search == null || search.isEmpty()|| count < 1 || (latitude == null) != (longitude == null)){
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
         //TODO: configure JSON mapping
-        HashMap<String, List<Location>> result = resolver.searchGeoName(search, count);
+        HashMap<String, List<Location>> result;
+        if (latitude != null) {
+            //ranked by distance to the coordinate, results carry their distance
+            GeoNameResolver.NearbyOrder nearbyOrder;
+            try {
+                nearbyOrder = GeoNameResolver.NearbyOrder.valueOf(order.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+            result = resolver.searchGeoNameNear(search, count, country, language, latitude, longitude,
+                    nearbyOrder);
+        } else {
+            //names of one request are related unless the caller says otherwise
+            result = resolver.searchGeoName(search, count, country, language, disambiguate);
+        }
         
         try(ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream()) {
             try (PrintStream stream = new PrintStream(arrayOutputStream)) {
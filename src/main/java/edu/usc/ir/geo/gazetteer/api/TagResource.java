@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.api;
+
+import edu.usc.ir.geo.gazetteer.GeoNameResolver;
+import edu.usc.ir.geo.gazetteer.domain.Toponym;
+import edu.usc.ir.geo.gazetteer.service.ResolverProvider;
+
+import com.google.gson.Gson;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * TagResource is a Rest Resource which finds and resolves place names in
+ * the posted text.
+ */
+@Path("/tag")
+public class TagResource {
+
+    private final GeoNameResolver resolver;
+
+    public TagResource(){
+        this.resolver = ResolverProvider.getResolver();
+    }
+
+    /**
+     * @param text plain text body
+     * @param count number of locations per place name
+     * @param country ISO country code restricting results
+     * @return place names with their offsets in text and locations
+     */
+    @POST
+    @Consumes({MediaType.TEXT_PLAIN})
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response tag(String text,
+                        @DefaultValue("1") @QueryParam(SearchResource.COUNT) int count,
+                        @QueryParam(SearchResource.COUNTRY) String country)
+            throws IOException {
+
+        if (text == null || count < 1) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        List<Toponym> toponyms = resolver.tag(text, count, country);
+        return Response
+                .status(Response.Status.OK)
+                .entity(new Gson().toJson(toponyms))
+                .build();
+    }
+
+}
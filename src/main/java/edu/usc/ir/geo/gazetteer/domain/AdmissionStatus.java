@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.domain;
+
+import java.util.List;
+
+/**
+ * Admission control of the server: worker slots shared by the priority
+ * lanes and the state of every lane
+ */
+public class AdmissionStatus {
+
+	private int workers;
+	private int running;
+	//most requests of one client in flight, running or queued
+	private int clientLimit;
+	private List<LaneStatus> lanes;
+
+	public int getWorkers() {
+		return workers;
+	}
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+	public int getRunning() {
+		return running;
+	}
+	public void setRunning(int running) {
+		this.running = running;
+	}
+	public int getClientLimit() {
+		return clientLimit;
+	}
+	public void setClientLimit(int clientLimit) {
+		this.clientLimit = clientLimit;
+	}
+	public List<LaneStatus> getLanes() {
+		return lanes;
+	}
+	public void setLanes(List<LaneStatus> lanes) {
+		this.lanes = lanes;
+	}
+}
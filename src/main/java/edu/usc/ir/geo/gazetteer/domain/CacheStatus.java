@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.domain;
+
+/**
+ * Usage of the cache of searches near a coordinate
+ */
+public class CacheStatus {
+
+	//geohash length of cached cells
+	private int precision;
+	private int capacity;
+	private int size;
+	private long hits;
+	private long misses;
+	//lookups of cells too dense to be answered from the cache
+	private long bypasses;
+	private double hitRatio;
+
+	public int getPrecision() {
+		return precision;
+	}
+	public void setPrecision(int precision) {
+		this.precision = precision;
+	}
+	public int getCapacity() {
+		return capacity;
+	}
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+	public int getSize() {
+		return size;
+	}
+	public void setSize(int size) {
+		this.size = size;
+	}
+	public long getHits() {
+		return hits;
+	}
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+	public long getMisses() {
+		return misses;
+	}
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+	public long getBypasses() {
+		return bypasses;
+	}
+	public void setBypasses(long bypasses) {
+		this.bypasses = bypasses;
+	}
+	/**
+	 * @return share of lookups answered from the cache
+	 */
+	public double getHitRatio() {
+		return hitRatio;
+	}
+	public void setHitRatio(double hitRatio) {
+		this.hitRatio = hitRatio;
+	}
+}
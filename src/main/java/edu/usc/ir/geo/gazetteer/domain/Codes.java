@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.domain;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the short, highly repetitive code values of gazetteer entries
+ * (feature, country and admin codes), so that all locations share one
+ * instance per distinct code instead of one copy per stored document.
+ */
+public class Codes {
+
+	//the set of distinct codes in GeoNames is small, a few tens of thousands
+	private static final ConcurrentMap<String, String> CODES = new ConcurrentHashMap<>();
+
+	private Codes() {
+	}
+
+	/**
+	 * @param code a code value, may be null
+	 * @return shared instance equal to code
+	 */
+	public static String intern(String code) {
+		if (code == null) {
+			return null;
+		}
+		String shared = CODES.putIfAbsent(code, code);
+		return shared == null ? code : shared;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.domain;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Readiness information about an opened gazetteer index
+ */
+public class IndexStatus {
+
+	private String name;
+	private boolean warm;
+	private long warmupMillis;
+	private long generation;
+	private long version;
+	private int numDocs;
+	private int segmentCount;
+	private int shardCount;
+	private String directoryMode;
+	private ResidencyStatus residency;
+	private List<IndexStatus> sources;
+	//commit user data: analysis, profile, source file and build options
+	private Map<String, String> build;
+	//id of the snapshot the index was installed from, null if built in place
+	private String snapshot;
+	//searches served by an identical search already in flight
+	private long coalescedSearches;
+	//names not searched as no source can match them
+	private long filteredNames;
+	//names not searched as they matched nothing before
+	private long missedNameHits;
+	//null when searches near a coordinate are not cached
+	private CacheStatus reverseCache;
+
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public boolean isWarm() {
+		return warm;
+	}
+	public void setWarm(boolean warm) {
+		this.warm = warm;
+	}
+	public long getWarmupMillis() {
+		return warmupMillis;
+	}
+	public void setWarmupMillis(long warmupMillis) {
+		this.warmupMillis = warmupMillis;
+	}
+	public long getGeneration() {
+		return generation;
+	}
+	public void setGeneration(long generation) {
+		this.generation = generation;
+	}
+	public long getVersion() {
+		return version;
+	}
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	public int getNumDocs() {
+		return numDocs;
+	}
+	public void setNumDocs(int numDocs) {
+		this.numDocs = numDocs;
+	}
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+	public void setSegmentCount(int segmentCount) {
+		this.segmentCount = segmentCount;
+	}
+	public int getShardCount() {
+		return shardCount;
+	}
+	public void setShardCount(int shardCount) {
+		this.shardCount = shardCount;
+	}
+	public String getDirectoryMode() {
+		return directoryMode;
+	}
+	public void setDirectoryMode(String directoryMode) {
+		this.directoryMode = directoryMode;
+	}
+	public ResidencyStatus getResidency() {
+		return residency;
+	}
+	public void setResidency(ResidencyStatus residency) {
+		this.residency = residency;
+	}
+	public List<IndexStatus> getSources() {
+		return sources;
+	}
+	public void setSources(List<IndexStatus> sources) {
+		this.sources = sources;
+	}
+	/**
+	 * @return how the index was built, as recorded in its commit
+	 */
+	public Map<String, String> getBuild() {
+		return build;
+	}
+	public void setBuild(Map<String, String> build) {
+		this.build = build;
+	}
+	/**
+	 * @return id of the snapshot the index was installed from, null if it was built in place
+	 */
+	public String getSnapshot() {
+		return snapshot;
+	}
+	public void setSnapshot(String snapshot) {
+		this.snapshot = snapshot;
+	}
+	/**
+	 * @return number of searches that waited for an identical concurrent search
+	 * instead of running their own
+	 */
+	public long getCoalescedSearches() {
+		return coalescedSearches;
+	}
+	public void setCoalescedSearches(long coalescedSearches) {
+		this.coalescedSearches = coalescedSearches;
+	}
+	/**
+	 * @return number of names rejected by the name filter of every source
+	 */
+	public long getFilteredNames() {
+		return filteredNames;
+	}
+	public void setFilteredNames(long filteredNames) {
+		this.filteredNames = filteredNames;
+	}
+	/**
+	 * @return number of names answered from the cache of names which matched nothing
+	 */
+	public long getMissedNameHits() {
+		return missedNameHits;
+	}
+	public void setMissedNameHits(long missedNameHits) {
+		this.missedNameHits = missedNameHits;
+	}
+	/**
+	 * @return usage of the cache of searches near a coordinate, null when disabled
+	 */
+	public CacheStatus getReverseCache() {
+		return reverseCache;
+	}
+	public void setReverseCache(CacheStatus reverseCache) {
+		this.reverseCache = reverseCache;
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.domain;
+
+/**
+ * Load and rejections of one priority lane of the server
+ */
+public class LaneStatus {
+
+	private String name;
+	private int weight;
+	//most requests of the lane running at once
+	private int maxRunning;
+	private int queueCapacity;
+	private int running;
+	private int queued;
+	private long admitted;
+	//requests refused as the lane queue was full
+	private long rejectedQueueFull;
+	//requests refused as their client had too many requests in flight
+	private long rejectedClientLimit;
+	//requests refused after waiting too long in the queue
+	private long timedOut;
+	private double meanServiceMillis;
+
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public int getWeight() {
+		return weight;
+	}
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+	public int getMaxRunning() {
+		return maxRunning;
+	}
+	public void setMaxRunning(int maxRunning) {
+		this.maxRunning = maxRunning;
+	}
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+	public int getRunning() {
+		return running;
+	}
+	public void setRunning(int running) {
+		this.running = running;
+	}
+	public int getQueued() {
+		return queued;
+	}
+	public void setQueued(int queued) {
+		this.queued = queued;
+	}
+	public long getAdmitted() {
+		return admitted;
+	}
+	public void setAdmitted(long admitted) {
+		this.admitted = admitted;
+	}
+	public long getRejectedQueueFull() {
+		return rejectedQueueFull;
+	}
+	public void setRejectedQueueFull(long rejectedQueueFull) {
+		this.rejectedQueueFull = rejectedQueueFull;
+	}
+	public long getRejectedClientLimit() {
+		return rejectedClientLimit;
+	}
+	public void setRejectedClientLimit(long rejectedClientLimit) {
+		this.rejectedClientLimit = rejectedClientLimit;
+	}
+	public long getTimedOut() {
+		return timedOut;
+	}
+	public void setTimedOut(long timedOut) {
+		this.timedOut = timedOut;
+	}
+	/**
+	 * @return moving average of the time requests of the lane run
+	 */
+	public double getMeanServiceMillis() {
+		return meanServiceMillis;
+	}
+	public void setMeanServiceMillis(double meanServiceMillis) {
+		this.meanServiceMillis = meanServiceMillis;
+	}
+}
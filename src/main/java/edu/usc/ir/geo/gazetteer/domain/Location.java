@@ -17,61 +17,218 @@
 
 package edu.usc.ir.geo.gazetteer.domain;
 
+/**
+ * A resolved gazetteer entry. Code values are interned through {@link Codes}
+ * and alternate names are only split when ranking asks for them, and are
+ * released once ranking is done.
+ */
 public class Location {
 
+	private static final String[] NO_NAMES = new String[0];
+
+	private int geonameId;
 	private String name;
 	
 	private transient String alternateNames;
+	private transient String[] alternateNameList;
+	//language and flags of each alternate name, null unless indexed from alternateNamesV2.txt
+	private transient String[] alternateNameTags;
+	//name as analyzed by a normalizing index, null otherwise
+	private transient String normalizedName;
 	private transient String featureCode;
+	//rank of feature code in FeatureCodeComparator order, -1 when not computed
+	private transient int featureRank = -1;
 	private String countryCode;
 	private String admin1Code;
 	private String admin2Code;
+	private String countryName;
+	private String admin1Name;
+	private String admin2Name;
 	private double latitude;
 	private double longitude;
+	private long population;
+	//miles to the searched coordinate, null unless found by a search near a coordinate
+	private Double distance;
+	private String source;
 	private transient int weight;
+
+	public Location() {
+	}
+
+	/**
+	 * Copies a location, e.g. one shared by a cache before setting the
+	 * distance to another coordinate. Alternate names are shared.
+	 * @param other the location to copy
+	 */
+	public Location(Location other) {
+		this.geonameId = other.geonameId;
+		this.name = other.name;
+		this.alternateNames = other.alternateNames;
+		this.alternateNameList = other.alternateNameList;
+		this.alternateNameTags = other.alternateNameTags;
+		this.normalizedName = other.normalizedName;
+		this.featureCode = other.featureCode;
+		this.featureRank = other.featureRank;
+		this.countryCode = other.countryCode;
+		this.admin1Code = other.admin1Code;
+		this.admin2Code = other.admin2Code;
+		this.countryName = other.countryName;
+		this.admin1Name = other.admin1Name;
+		this.admin2Name = other.admin2Name;
+		this.latitude = other.latitude;
+		this.longitude = other.longitude;
+		this.population = other.population;
+		this.distance = other.distance;
+		this.source = other.source;
+		this.weight = other.weight;
+	}
 	
+	public int getGeonameId() {
+		return geonameId;
+	}
+	public void setGeonameId(int geonameId) {
+		this.geonameId = geonameId;
+	}
 	public String getName() {
 		return name;
 	}
 	public void setName(String name) {
 		this.name = name;
 	}
+	/**
+	 * @return comma separated alternate names, null once released
+	 */
 	public String getAlternateNames() {
 		return alternateNames;
 	}
 	public void setAlternateNames(String alternateNames) {
 		this.alternateNames = alternateNames;
+		this.alternateNameList = null;
+		this.alternateNameTags = null;
+	}
+	/**
+	 * Sets alternate names indexed as separate values, which need no split
+	 * @param alternateNameList the names
+	 * @param alternateNameTags language and flags of each name, may be null
+	 */
+	public void setAlternateNameList(String[] alternateNameList, String[] alternateNameTags) {
+		this.alternateNames = null;
+		this.alternateNameList = alternateNameList;
+		this.alternateNameTags = alternateNameTags != null
+				&& alternateNameTags.length == alternateNameList.length ? alternateNameTags : null;
+	}
+	/**
+	 * @return language and flags of each alternate name, null when unknown
+	 */
+	public String[] getAlternateNameTags() {
+		return alternateNameTags;
+	}
+	/**
+	 * @return alternate names, split on first call
+	 */
+	public String[] getAlternateNameList() {
+		if (alternateNameList == null) {
+			alternateNameList = alternateNames == null ? NO_NAMES : alternateNames.split(",");
+		}
+		return alternateNameList;
+	}
+	/**
+	 * Drops alternate names, which are only needed for ranking
+	 */
+	public void releaseAlternateNames() {
+		this.alternateNames = null;
+		this.alternateNameList = null;
+		this.alternateNameTags = null;
 	}
 	public String getCountryCode() {
 		return countryCode;
 	}
 	public void setCountryCode(String countryCode) {
-		this.countryCode = countryCode;
+		this.countryCode = Codes.intern(countryCode);
 	}
 	public String getAdmin1Code() {
 		return admin1Code;
 	}
 	public void setAdmin1Code(String admin1Code) {
-		this.admin1Code = admin1Code;
+		this.admin1Code = Codes.intern(admin1Code);
 	}
 	public String getAdmin2Code() {
 		return admin2Code;
 	}
 	public void setAdmin2Code(String admin2Code) {
-		this.admin2Code = admin2Code;
+		this.admin2Code = Codes.intern(admin2Code);
 	}
 	public double getLatitude() {
 		return latitude;
 	}
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
 	public void setLatitude(String latitude) {
 		this.latitude = Double.parseDouble(latitude);
 	}
 	public double getLongitude() {
 		return longitude;
 	}
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
 	public void setLongitude(String longitude) {
 		this.longitude = Double.parseDouble(longitude);
 	}
+	/**
+	 * @return name of the country, null when the index has no admin hierarchy
+	 */
+	public String getCountryName() {
+		return countryName;
+	}
+	public void setCountryName(String countryName) {
+		this.countryName = countryName;
+	}
+	/**
+	 * @return name of the first level administrative division, e.g. California
+	 */
+	public String getAdmin1Name() {
+		return admin1Name;
+	}
+	public void setAdmin1Name(String admin1Name) {
+		this.admin1Name = admin1Name;
+	}
+	/**
+	 * @return name of the second level administrative division, e.g. Los Angeles County
+	 */
+	public String getAdmin2Name() {
+		return admin2Name;
+	}
+	public void setAdmin2Name(String admin2Name) {
+		this.admin2Name = admin2Name;
+	}
+	/**
+	 * @return name folded the way the index normalizes names, null when
+	 * the index does not normalize names
+	 */
+	public String getNormalizedName() {
+		return normalizedName;
+	}
+	public void setNormalizedName(String normalizedName) {
+		this.normalizedName = normalizedName;
+	}
+	public long getPopulation() {
+		return population;
+	}
+	public void setPopulation(long population) {
+		this.population = population;
+	}
+	/**
+	 * @return distance in miles to the coordinate searched near, null when
+	 * found by name
+	 */
+	public Double getDistance() {
+		return distance;
+	}
+	public void setDistance(Double distance) {
+		this.distance = distance;
+	}
 	public int getWeight() {
 		return weight;
 	}
@@ -82,7 +239,27 @@ public class Location {
 		return featureCode;
 	}
 	public void setFeatureCode(String featureCode) {
-		this.featureCode = featureCode;
+		this.featureCode = Codes.intern(featureCode);
+		this.featureRank = -1;
+	}
+	/**
+	 * @return cached rank of the feature code, -1 when not computed yet
+	 */
+	public int getFeatureRank() {
+		return featureRank;
+	}
+	public void setFeatureRank(int featureRank) {
+		this.featureRank = featureRank;
+	}
+	
+	/**
+	 * @return name of the gazetteer source this location was found in
+	 */
+	public String getSource() {
+		return source;
+	}
+	public void setSource(String source) {
+		this.source = source;
 	}
 	
 	@Override
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.domain;
+
+/**
+ * Page cache residency statistics of the last background touch pass. Faults
+ * are page reads slow enough to have been served from disk, their total time
+ * is the latency queries would otherwise have paid.
+ */
+public class ResidencyStatus {
+
+	private long passes;
+	private long lastPassMillis;
+	private long lastPassPages;
+	private long lastPassFaults;
+	private long lastPassFaultMillis;
+
+	public long getPasses() {
+		return passes;
+	}
+	public void setPasses(long passes) {
+		this.passes = passes;
+	}
+	public long getLastPassMillis() {
+		return lastPassMillis;
+	}
+	public void setLastPassMillis(long lastPassMillis) {
+		this.lastPassMillis = lastPassMillis;
+	}
+	public long getLastPassPages() {
+		return lastPassPages;
+	}
+	public void setLastPassPages(long lastPassPages) {
+		this.lastPassPages = lastPassPages;
+	}
+	public long getLastPassFaults() {
+		return lastPassFaults;
+	}
+	public void setLastPassFaults(long lastPassFaults) {
+		this.lastPassFaults = lastPassFaults;
+	}
+	public long getLastPassFaultMillis() {
+		return lastPassFaultMillis;
+	}
+	public void setLastPassFaultMillis(long lastPassFaultMillis) {
+		this.lastPassFaultMillis = lastPassFaultMillis;
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.domain;
+
+import java.util.List;
+
+/**
+ * What a coordinate is in: the administrative areas containing it, smallest
+ * first, and the populated places nearby
+ */
+public class ReverseGeocode {
+
+	private double latitude;
+	private double longitude;
+	private List<AdminArea> areas;
+	private List<Location> nearby;
+
+	public ReverseGeocode() {
+	}
+
+	public ReverseGeocode(double latitude, double longitude, List<AdminArea> areas, List<Location> nearby) {
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.areas = areas;
+		this.nearby = nearby;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+	public double getLongitude() {
+		return longitude;
+	}
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+	/**
+	 * @return areas containing the coordinate, smallest first
+	 */
+	public List<AdminArea> getAreas() {
+		return areas;
+	}
+	public void setAreas(List<AdminArea> areas) {
+		this.areas = areas;
+	}
+	public List<Location> getNearby() {
+		return nearby;
+	}
+	public void setNearby(List<Location> nearby) {
+		this.nearby = nearby;
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.domain;
+
+import java.util.List;
+
+/**
+ * A place name found in a text, along with the locations it resolves to
+ */
+public class Toponym {
+
+	private String text;
+	private int start;
+	private int end;
+	private List<Location> locations;
+
+	public Toponym() {
+	}
+
+	public Toponym(String text, int start, int end) {
+		this.text = text;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return the place name as it appears in the text
+	 */
+	public String getText() {
+		return text;
+	}
+	public void setText(String text) {
+		this.text = text;
+	}
+	/**
+	 * @return offset of first character of the name in the text
+	 */
+	public int getStart() {
+		return start;
+	}
+	public void setStart(int start) {
+		this.start = start;
+	}
+	/**
+	 * @return offset after last character of the name in the text
+	 */
+	public int getEnd() {
+		return end;
+	}
+	public void setEnd(int end) {
+		this.end = end;
+	}
+	public List<Location> getLocations() {
+		return locations;
+	}
+	public void setLocations(List<Location> locations) {
+		this.locations = locations;
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.usc.ir.geo.gazetteer.domain.AdmissionStatus;
+import edu.usc.ir.geo.gazetteer.domain.LaneStatus;
+
+/**
+ * Shares the worker slots of the server between priority lanes, so that bulk
+ * requests can not delay interactive lookups. Every lane has a bounded queue
+ * and a cap on the slots it may hold; a freed slot goes to the lane picked by
+ * smooth weighted round robin among lanes having queued requests. A client
+ * can only have a bounded number of requests in flight over all lanes.
+ * Requests run on the container thread which was admitted.
+ */
+public class AdmissionController {
+
+    /**
+     * Priority lane of a request
+     */
+    public enum Priority {
+        /** single lookups a user waits for */
+        INTERACTIVE,
+        /** batches and text tagging */
+        BULK
+    }
+
+    /**
+     * Thrown when a request is refused, carrying the HTTP status to answer and
+     * the seconds after which the client should retry
+     */
+    public static class RejectedException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+        private final int retryAfterSeconds;
+
+        RejectedException(String message, int status, int retryAfterSeconds) {
+            super(message);
+            this.status = status;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    public static final int TOO_MANY_REQUESTS = 429;
+    public static final int SERVICE_UNAVAILABLE = 503;
+    public static final int DEFAULT_WORKERS = Math.max(2, 2 * Runtime.getRuntime().availableProcessors());
+
+    //weight of the service time of the last request in the moving average
+    private static final double SERVICE_TIME_DECAY = 0.1;
+
+    private static volatile AdmissionController installed;
+
+    private final int workers;
+    private final int clientLimit;
+    private final Map<Priority, Lane> lanes = new EnumMap<>(Priority.class);
+    private final Map<String, Integer> clientRequests = new HashMap<>();
+    private int running;
+
+    /**
+     * @param workers requests running at once over all lanes
+     * @param clientLimit requests of one client in flight, running or queued
+     */
+    public AdmissionController(int workers, int clientLimit) {
+        this.workers = Math.max(1, workers);
+        this.clientLimit = Math.max(1, clientLimit);
+        lanes.put(Priority.INTERACTIVE, new Lane(Priority.INTERACTIVE, 4, this.workers,
+                8 * this.workers, 1000));
+        lanes.put(Priority.BULK, new Lane(Priority.BULK, 1, Math.max(1, this.workers / 4),
+                2 * this.workers, 30000));
+    }
+
+    /**
+     * Makes a controller the one reported by the admission status API
+     */
+    public static void install(AdmissionController controller) {
+        installed = controller;
+    }
+
+    /**
+     * @return the installed controller, null when the server has none
+     */
+    public static AdmissionController peek() {
+        return installed;
+    }
+
+    /**
+     * @return most requests running or queued at once, the container needs a
+     * thread for each
+     */
+    public int getMaxRequests() {
+        int requests = workers;
+        for (Lane lane : lanes.values()) {
+            requests += lane.queueCapacity;
+        }
+        return requests;
+    }
+
+    /**
+     * Waits for a worker slot of a lane. Every admission must be followed by a
+     * {@link #release} of the same lane and client.
+     * @param priority lane of the request
+     * @param client client the request is counted against
+     * @throws RejectedException 429 when the client has too many requests in
+     * flight, 503 when the lane queue is full or the wait timed out
+     * @throws InterruptedException
+     */
+    public synchronized void admit(Priority priority, String client)
+            throws RejectedException, InterruptedException {
+        Lane lane = lanes.get(priority);
+        Integer inFlight = clientRequests.get(client);
+        if (inFlight != null && inFlight >= clientLimit) {
+            lane.rejectedClientLimit++;
+            throw new RejectedException("Too many requests of client " + client, TOO_MANY_REQUESTS, 1);
+        }
+        if (lane.queue.isEmpty() && canRun(lane)) {
+            start(lane, client);
+            return;
+        }
+        if (lane.queue.size() >= lane.queueCapacity) {
+            lane.rejectedQueueFull++;
+            throw new RejectedException("The " + lane.name() + " queue is full", SERVICE_UNAVAILABLE,
+                    lane.retryAfterSeconds());
+        }
+        clientRequests.put(client, inFlight == null ? 1 : inFlight + 1);
+        Waiter waiter = new Waiter();
+        lane.queue.addLast(waiter);
+        long deadline = System.currentTimeMillis() + lane.maxWaitMillis;
+        try {
+            long remaining = lane.maxWaitMillis;
+            while (!waiter.admitted && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            if (waiter.admitted) {
+                releaseSlot(lane, client);
+            } else {
+                lane.queue.remove(waiter);
+                releaseClient(client);
+            }
+            throw e;
+        }
+        if (!waiter.admitted) {
+            lane.queue.remove(waiter);
+            releaseClient(client);
+            lane.timedOut++;
+            throw new RejectedException("Timed out in the " + lane.name() + " queue", SERVICE_UNAVAILABLE,
+                    lane.retryAfterSeconds());
+        }
+    }
+
+    /**
+     * Frees the worker slot of an admitted request and hands it to the next
+     * queued request
+     * @param priority lane the request was admitted in
+     * @param client client of the request
+     * @param serviceMillis time the request ran
+     */
+    public synchronized void release(Priority priority, String client, long serviceMillis) {
+        Lane lane = lanes.get(priority);
+        lane.meanServiceMillis += SERVICE_TIME_DECAY * (serviceMillis - lane.meanServiceMillis);
+        releaseSlot(lane, client);
+    }
+
+    public synchronized AdmissionStatus getStatus() {
+        AdmissionStatus status = new AdmissionStatus();
+        status.setWorkers(workers);
+        status.setRunning(running);
+        status.setClientLimit(clientLimit);
+        List<LaneStatus> laneStatuses = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            laneStatuses.add(lane.getStatus());
+        }
+        status.setLanes(laneStatuses);
+        return status;
+    }
+
+    private boolean canRun(Lane lane) {
+        return running < workers && lane.running < lane.maxRunning;
+    }
+
+    private void start(Lane lane, String client) {
+        Integer inFlight = clientRequests.get(client);
+        clientRequests.put(client, inFlight == null ? 1 : inFlight + 1);
+        lane.running++;
+        lane.admitted++;
+        running++;
+    }
+
+    private void releaseSlot(Lane lane, String client) {
+        lane.running--;
+        running--;
+        releaseClient(client);
+        boolean dispatched = false;
+        Lane next;
+        while ((next = pickQueuedLane()) != null) {
+            Waiter waiter = next.queue.removeFirst();
+            waiter.admitted = true;
+            next.running++;
+            next.admitted++;
+            running++;
+            dispatched = true;
+        }
+        if (dispatched) {
+            notifyAll();
+        }
+    }
+
+    private void releaseClient(String client) {
+        Integer inFlight = clientRequests.get(client);
+        if (inFlight == null || inFlight <= 1) {
+            clientRequests.remove(client);
+        } else {
+            clientRequests.put(client, inFlight - 1);
+        }
+    }
+
+    /**
+     * @return lane to hand a free slot to, by smooth weighted round robin over
+     * the lanes having queued requests and slots left, null if none
+     */
+    private Lane pickQueuedLane() {
+        Lane picked = null;
+        int totalWeight = 0;
+        for (Lane lane : lanes.values()) {
+            if (!lane.queue.isEmpty() && canRun(lane)) {
+                lane.credit += lane.weight;
+                totalWeight += lane.weight;
+                if (picked == null || lane.credit > picked.credit) {
+                    picked = lane;
+                }
+            }
+        }
+        if (picked != null) {
+            picked.credit -= totalWeight;
+        }
+        return picked;
+    }
+
+    private static class Waiter {
+        private boolean admitted;
+    }
+
+    private class Lane {
+        private final Priority priority;
+        private final int weight;
+        private final int maxRunning;
+        private final int queueCapacity;
+        private final long maxWaitMillis;
+        private final Deque<Waiter> queue = new ArrayDeque<>();
+        private int running;
+        private int credit;
+        private long admitted;
+        private long rejectedQueueFull;
+        private long rejectedClientLimit;
+        private long timedOut;
+        private double meanServiceMillis;
+
+        Lane(Priority priority, int weight, int maxRunning, int queueCapacity, long maxWaitMillis) {
+            this.priority = priority;
+            this.weight = weight;
+            this.maxRunning = maxRunning;
+            this.queueCapacity = queueCapacity;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        String name() {
+            return priority.name().toLowerCase();
+        }
+
+        /**
+         * @return seconds the queue of the lane takes to drain at the current service time
+         */
+        int retryAfterSeconds() {
+            double drainMillis = (queue.size() + 1) * meanServiceMillis / maxRunning;
+            return (int) Math.max(1, Math.ceil(drainMillis / 1000));
+        }
+
+        LaneStatus getStatus() {
+            LaneStatus status = new LaneStatus();
+            status.setName(name());
+            status.setWeight(weight);
+            status.setMaxRunning(maxRunning);
+            status.setQueueCapacity(queueCapacity);
+            status.setRunning(running);
+            status.setQueued(queue.size());
+            status.setAdmitted(admitted);
+            status.setRejectedQueueFull(rejectedQueueFull);
+            status.setRejectedClientLimit(rejectedClientLimit);
+            status.setTimedOut(timedOut);
+            status.setMeanServiceMillis(meanServiceMillis);
+            return status;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+
+import edu.usc.ir.geo.gazetteer.api.SearchResource;
+import edu.usc.ir.geo.gazetteer.service.AdmissionController.Priority;
+import edu.usc.ir.geo.gazetteer.service.AdmissionController.RejectedException;
+
+/**
+ * Classifies API requests into priority lanes and runs them once admitted by
+ * an {@link AdmissionController}. Text tagging and searches of more than
+ * {@link #BULK_NAMES} names are bulk, other searches and reverse geocoding are
+ * interactive; the {@link #PRIORITY_HEADER} header may only move a request
+ * to the bulk lane. Clients are told apart by their remote address, which
+ * callers can not choose the way they choose headers. Health and admin
+ * requests are never queued.
+ */
+public class AdmissionFilter implements Filter {
+
+    public static final String PRIORITY_HEADER = "X-Priority";
+    public static final int BULK_NAMES = 16;
+
+    private final AdmissionController controller;
+
+    public AdmissionFilter(AdmissionController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        Priority priority = classify(httpRequest);
+        if (priority == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String client = request.getRemoteAddr();
+        try {
+            controller.admit(priority, client);
+        } catch (RejectedException e) {
+            reject((HttpServletResponse) response, e);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            controller.release(priority, client, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * @return lane of a request, null for requests which are never queued
+     */
+    static Priority classify(HttpServletRequest request) {
+        String path = request.getPathInfo();
+        if (path == null || path.startsWith("/admin") || path.equals("/ready") || path.equals("/ping")
+                || path.equals("/admission")) {
+            return null;
+        }
+        String header = request.getHeader(PRIORITY_HEADER);
+        //a client may yield to others, but never promote itself
+        if (header != null && header.trim().equalsIgnoreCase(Priority.BULK.name())) {
+            return Priority.BULK;
+        }
+        if (path.startsWith("/tag")) {
+            return Priority.BULK;
+        }
+        if (path.startsWith("/search")) {
+            String[] names = request.getParameterValues(SearchResource.SEARCH);
+            if (names != null && names.length > BULK_NAMES) {
+                return Priority.BULK;
+            }
+        }
+        return Priority.INTERACTIVE;
+    }
+
+    private static void reject(HttpServletResponse response, RejectedException e) throws IOException {
+        response.setStatus(e.getStatus());
+        response.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+        response.setContentType("application/json");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(new Gson().toJson(Collections.singletonMap("error", e.getMessage())));
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
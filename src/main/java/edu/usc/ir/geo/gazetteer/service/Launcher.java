@@ -18,26 +18,63 @@
 package edu.usc.ir.geo.gazetteer.service;
 
 import edu.usc.ir.geo.gazetteer.GeoNameResolver;
+import edu.usc.ir.geo.gazetteer.StartupTimer;
+import edu.usc.ir.geo.gazetteer.api.AdminResource;
+import edu.usc.ir.geo.gazetteer.api.ReverseResource;
 import edu.usc.ir.geo.gazetteer.api.SearchResource;
+import edu.usc.ir.geo.gazetteer.api.TagResource;
 import edu.usc.ir.geo.gazetteer.api.HealthCheckAPI;
 import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
 import org.apache.cxf.jaxrs.servlet.CXFNonSpringJaxrsServlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 /**
  * This is a launcher for starting Embedded tomcat.
  */
 public class Launcher {
 
     public static final String INDEX_PATH_PROP = "index.path";
+    public static final String DIRECTORY_MODE_PROP = "index.directory.mode";
+    public static final String TOUCH_INTERVAL_PROP = "index.touch.interval";
+    public static final String SOURCES_PROP = "index.sources";
+    public static final String DISAMBIGUATE_PROP = "search.disambiguate";
+    public static final String RANKING_PROP = "search.ranking";
+    public static final String BOUNDARIES_PROP = "reverse.boundaries";
+    public static final String REVERSE_CACHE_PROP = "reverse.cache.precision";
+    public static final String WORKERS_PROP = "admission.workers";
+    public static final String CLIENT_LIMIT_PROP = "admission.client.limit";
+    public static final String ADMIN_TOKEN_PROP = "admin.token";
+    public static final String ADMIN_TOKEN_ENV = "GAZETTEER_ADMIN_TOKEN";
+    public static final String SNAPSHOT_DIR_PROP = "admin.snapshot.dir";
 
     public static void launchService(int port, String indexPath)
             throws IOException, LifecycleException {
+        launchService(port, indexPath, null);
+    }
+
+    /**
+     * Opens the index and reads the warm up names, starts the server and then
+     * warms up the index. Until warm up completes /api/ready responds with 503,
+     * a failed warm up is logged and the server keeps running. API requests are
+     * admitted into priority lanes sharing {@link #WORKERS_PROP} worker slots,
+     * at most {@link #CLIENT_LIMIT_PROP} of them per client.
+     * @param port port to listen on
+     * @param indexPath path to lucene index
+     * @param warmupPath file of names replayed for warm up, null for built-in list
+     */
+    public static void launchService(int port, String indexPath, String warmupPath)
+            throws IOException, LifecycleException {
 
+        //fail fast on a bad index path, before accepting any traffic
+        ResolverProvider.init(indexPath);
+        List<String> warmupNames = ResolverProvider.readWarmupNames(warmupPath);
         Tomcat server = new Tomcat();
         Context context = server.addContext("/", new File(".").getAbsolutePath());
         System.setProperty(INDEX_PATH_PROP, indexPath);
@@ -45,15 +82,35 @@ public class Launcher {
         Wrapper servlet = context.createWrapper();
         servlet.setName("CXFNonSpringJaxrs");
         servlet.setServletClass(CXFNonSpringJaxrsServlet.class.getName());
-        servlet.addInitParameter("jaxrs.serviceClasses", SearchResource.class.getName() + " " + HealthCheckAPI.class.getName());
+        servlet.addInitParameter("jaxrs.serviceClasses", SearchResource.class.getName() + " " + HealthCheckAPI.class.getName()
+                + " " + AdminResource.class.getName() + " " + TagResource.class.getName()
+                + " " + ReverseResource.class.getName());
 
         servlet.setLoadOnStartup(1);
         context.addChild(servlet);
         context.addServletMapping("/api/*", "CXFNonSpringJaxrs");
 
+        int workers = Integer.getInteger(WORKERS_PROP, AdmissionController.DEFAULT_WORKERS);
+        AdmissionController admission = new AdmissionController(workers,
+                Integer.getInteger(CLIENT_LIMIT_PROP, workers));
+        AdmissionController.install(admission);
+        FilterDef admissionFilter = new FilterDef();
+        admissionFilter.setFilterName("admission");
+        admissionFilter.setFilter(new AdmissionFilter(admission));
+        context.addFilterDef(admissionFilter);
+        FilterMap admissionMapping = new FilterMap();
+        admissionMapping.setFilterName("admission");
+        admissionMapping.addServletName("CXFNonSpringJaxrs");
+        context.addFilterMap(admissionMapping);
+
         System.out.println("Starting Embedded Tomcat on port : " + port );
         server.setPort(port);
+        //requests wait for admission on their own thread, queued ones included
+        server.getConnector().setAttribute("maxThreads", Math.max(200, admission.getMaxRequests() + 16));
         server.start();
+        StartupTimer.mark("server");
+        StartupTimer.finish("serving");
+        ResolverProvider.warmUp(warmupNames);
         server.getServer().await();
     }
 
@@ -62,6 +119,7 @@ public class Launcher {
             System.err.println("Usage:\n<port> <geo/index/path>");
             return;
         }
+        StartupTimer.start();
         System.out.println("WARN: This is experimental. User  '" + GeoNameResolver.class.getName() + " -server'");
         launchService(Integer.parseInt(args[0]), args[1]);
     }
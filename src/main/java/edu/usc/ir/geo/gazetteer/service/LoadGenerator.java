@@ -0,0 +1,434 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import edu.usc.ir.geo.gazetteer.api.SearchResource;
+import edu.usc.ir.geo.gazetteer.domain.AdmissionStatus;
+
+/**
+ * Replays a query log against a running server at a fixed open-loop rate:
+ * requests are sent at their scheduled time whether or not earlier ones have
+ * completed, and latency is measured from that scheduled time, so a stalled
+ * server is charged for the requests it delayed (no coordinated omission).
+ * Every line of a query log is one request:
+ * <ul>
+ * <li>a path and query sent with GET, e.g. <code>/api/search?s=Paris&amp;c=2</code> from an access log</li>
+ * <li><code>latitude,longitude</code>, a reverse geocoding request</li>
+ * <li>tab separated names, one search of all of them</li>
+ * </ul>
+ * The log is replayed in a loop until the run ends. {@link #SYNTHETIC_LOG}
+ * generates a seeded mix of single names, batches and coordinates instead, so
+ * runs against different builds send the same requests.
+ * <br/>
+ * All requests come from one address, which the admission control of the
+ * server limits to its client limit of requests in flight. A run warns when
+ * that limit is below the connections, and reports requests rejected for it
+ * apart from errors.
+ */
+public class LoadGenerator {
+
+    public static final String SYNTHETIC_LOG = "synthetic";
+    public static final int DEFAULT_CONNECTIONS = 64;
+
+    private static final Logger LOG = Logger.getLogger(LoadGenerator.class.getName());
+    private static final int SYNTHETIC_REQUESTS = 10000;
+    private static final long SYNTHETIC_SEED = 42;
+    private static final long READY_TIMEOUT_MILLIS = 120000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    //requests over the client limit, not failures of the server
+    private static final String REJECTED = "http " + AdmissionController.TOO_MANY_REQUESTS;
+
+    private final String baseUrl;
+    private final String logName;
+    private final List<Request> requests;
+    private int connections = DEFAULT_CONNECTIONS;
+
+    /**
+     * @param baseUrl url of the server, e.g. http://localhost:8765
+     * @param logPath query log, or {@link #SYNTHETIC_LOG}
+     * @throws IOException when the log can not be read or holds no request
+     */
+    public LoadGenerator(String baseUrl, String logPath) throws IOException {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.logName = logPath;
+        this.requests = SYNTHETIC_LOG.equals(logPath) ? synthetic() : read(new File(logPath));
+        if (requests.isEmpty()) {
+            throw new IOException("No request in " + logPath);
+        }
+    }
+
+    /**
+     * @param connections requests in flight at most, later ones wait for a
+     * connection and their wait counts in their latency
+     */
+    public void setConnections(int connections) {
+        this.connections = Math.max(1, connections);
+    }
+
+    /**
+     * Waits for the server to be ready, sends requests for a duration and
+     * prints a report
+     * @param rate requests per second
+     * @param durationSeconds length of the run
+     * @param out stream to print the report to
+     * @param reportFile json report written there too, may be null
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run(double rate, int durationSeconds, PrintStream out, File reportFile)
+            throws IOException, InterruptedException {
+        //idle connections kept alive, 5 by default
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(connections));
+        }
+        awaitReady();
+        int clientLimit = readClientLimit();
+        if (clientLimit > 0 && clientLimit < connections) {
+            LOG.warning("The server admits " + clientLimit + " requests in flight per client but "
+                    + connections + " connections are used, requests over the limit are rejected with "
+                    + AdmissionController.TOO_MANY_REQUESTS + ". Start the server with --client-limit "
+                    + connections + " or use --connections " + clientLimit + " to measure its capacity.");
+        }
+        final Map<String, LatencyHistogram> histograms = new TreeMap<>();
+        histograms.put("all", new LatencyHistogram());
+        for (Request request : requests) {
+            if (!histograms.containsKey(request.kind)) {
+                histograms.put(request.kind, new LatencyHistogram());
+            }
+        }
+        final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+        ExecutorService senders = Executors.newFixedThreadPool(connections);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long sent = 0;
+        try {
+            for (long scheduled = start; scheduled < end; scheduled = start + ++sent * intervalNanos) {
+                long wait;
+                while ((wait = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                final Request request = requests.get((int) (sent % requests.size()));
+                final long scheduledAt = scheduled;
+                senders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        String error = send(request);
+                        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledAt);
+                        histograms.get("all").record(micros);
+                        histograms.get(request.kind).record(micros);
+                        if (error != null) {
+                            AtomicLong count = errors.get(error);
+                            if (count == null) {
+                                AtomicLong created = new AtomicLong();
+                                count = errors.putIfAbsent(error, created);
+                                count = count == null ? created : count;
+                            }
+                            count.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        } finally {
+            senders.shutdown();
+        }
+        senders.awaitTermination(1, TimeUnit.HOURS);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        report(rate, durationSeconds, sent, elapsedSeconds, histograms, errors, clientLimit, out, reportFile);
+    }
+
+    private void report(double rate, int durationSeconds, long sent, double elapsedSeconds,
+            Map<String, LatencyHistogram> histograms, Map<String, AtomicLong> errors, int clientLimit,
+            PrintStream out, File reportFile) throws IOException {
+        long errorCount = 0;
+        long rejected = 0;
+        Map<String, Long> errorCounts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> error : errors.entrySet()) {
+            if (REJECTED.equals(error.getKey())) {
+                rejected = error.getValue().get();
+            } else {
+                errorCount += error.getValue().get();
+                errorCounts.put(error.getKey(), error.getValue().get());
+            }
+        }
+        out.println(String.format(Locale.ROOT, "%s at %.1f requests/s for %ds: %d requests, %.1f requests/s,"
+                + " %.2f%% errors, %.2f%% rejected over the client limit", logName, rate, durationSeconds, sent,
+                sent / elapsedSeconds, sent == 0 ? 0 : 100.0 * errorCount / sent,
+                sent == 0 ? 0 : 100.0 * rejected / sent));
+        out.println(String.format("%-10s %8s %10s %10s %10s %10s %10s %10s", "requests", "count", "mean ms",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        Map<String, Object> latencies = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-10s %8d %10.2f",
+                    entry.getKey(), histogram.getCount(), histogram.getMeanMillis()));
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("count", histogram.getCount());
+            latency.put("meanMillis", histogram.getMeanMillis());
+            for (double percentile : PERCENTILES) {
+                double millis = histogram.getPercentileMillis(percentile);
+                line.append(String.format(Locale.ROOT, " %10.2f", millis));
+                latency.put("p" + String.valueOf(percentile).replace(".0", "").replace('.', '_') + "Millis",
+                        millis);
+            }
+            line.append(String.format(Locale.ROOT, " %10.2f", histogram.getMaxMillis()));
+            latency.put("maxMillis", histogram.getMaxMillis());
+            latencies.put(entry.getKey(), latency);
+            out.println(line);
+        }
+        for (Map.Entry<String, Long> error : errorCounts.entrySet()) {
+            out.println("error " + error.getKey() + ": " + error.getValue());
+        }
+        if (reportFile != null) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("log", logName);
+            report.put("url", baseUrl);
+            report.put("targetRate", rate);
+            report.put("durationSeconds", durationSeconds);
+            report.put("connections", connections);
+            report.put("clientLimit", clientLimit);
+            report.put("requests", sent);
+            report.put("throughput", sent / elapsedSeconds);
+            report.put("errors", errorCount);
+            report.put("errorRate", sent == 0 ? 0 : (double) errorCount / sent);
+            report.put("errorsByType", errorCounts);
+            report.put("rejected", rejected);
+            report.put("rejectedRate", sent == 0 ? 0 : (double) rejected / sent);
+            report.put("latency", latencies);
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile),
+                    StandardCharsets.UTF_8)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+            }
+        }
+    }
+
+    /**
+     * @return null on success, else the HTTP status or exception class
+     */
+    private String send(Request request) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(baseUrl + request.path).openConnection();
+            int status = connection.getResponseCode();
+            InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                //drained so that the connection is kept alive
+                byte[] buffer = new byte[8192];
+                try {
+                    while (body.read(buffer) >= 0) {
+                        //discard
+                    }
+                } finally {
+                    body.close();
+                }
+            }
+            return status == HttpURLConnection.HTTP_OK ? null : "http " + status;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private void awaitReady() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/api/ready").openConnection();
+                int status = connection.getResponseCode();
+                connection.disconnect();
+                if (status == HttpURLConnection.HTTP_OK) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(baseUrl + " is not ready after " + READY_TIMEOUT_MILLIS + "ms");
+            }
+            LOG.info("Waiting for " + baseUrl + " to be ready");
+            Thread.sleep(1000);
+        }
+    }
+
+    /**
+     * @return requests the server admits in flight per client, 0 if unknown
+     */
+    private int readClientLimit() {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(baseUrl + "/api/admission").openConnection();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                LOG.warning("No admission status at " + baseUrl + ", the client limit is not checked");
+                return 0;
+            }
+            try (InputStreamReader reader = new InputStreamReader(connection.getInputStream(),
+                    StandardCharsets.UTF_8)) {
+                AdmissionStatus status = new Gson().fromJson(reader, AdmissionStatus.class);
+                return status == null ? 0 : status.getClientLimit();
+            }
+        } catch (IOException | JsonParseException e) {
+            LOG.warning("Unable to read the admission status of " + baseUrl + ": " + e);
+            return 0;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static List<Request> read(File log) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(log), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                requests.add(parse(line));
+            }
+        }
+        return requests;
+    }
+
+    static Request parse(String line) {
+        String trimmed = line.trim();
+        if (trimmed.startsWith("/")) {
+            return new Request(trimmed.startsWith("/api/reverse") ? "reverse"
+                    : trimmed.startsWith("/api/search") ? "search" : "other", trimmed);
+        }
+        String[] coordinate = trimmed.split("\\s*,\\s*");
+        if (coordinate.length == 2) {
+            try {
+                return reverse(Double.parseDouble(coordinate[0]), Double.parseDouble(coordinate[1]));
+            } catch (NumberFormatException e) {
+                //a name holding a comma
+            }
+        }
+        List<String> names = new ArrayList<>();
+        for (String name : line.split("\t")) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+        return search(names);
+    }
+
+    private static Request reverse(double latitude, double longitude) {
+        return new Request("reverse", "/api/reverse?lat=" + latitude + "&lon=" + longitude);
+    }
+
+    private static Request search(List<String> names) {
+        StringBuilder path = new StringBuilder("/api/search?");
+        try {
+            for (String name : names) {
+                path.append(SearchResource.SEARCH).append('=')
+                        .append(URLEncoder.encode(name, StandardCharsets.UTF_8.name())).append('&');
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        path.setLength(path.length() - 1);
+        return new Request(names.size() > 1 ? "batch" : "search", path.toString());
+    }
+
+    /**
+     * @return a seeded mix of 80% single names, 10% batches of 10 to 100 names
+     * and 10% coordinates
+     */
+    private static List<Request> synthetic() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                LoadGenerator.class.getResourceAsStream(ResolverProvider.DEFAULT_WARMUP_NAMES),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    names.add(line.trim());
+                }
+            }
+        }
+        Random random = new Random(SYNTHETIC_SEED);
+        List<Request> requests = new ArrayList<>();
+        for (int i = 0; i < SYNTHETIC_REQUESTS; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 8) {
+                requests.add(search(Collections.singletonList(names.get(random.nextInt(names.size())))));
+            } else if (kind == 8) {
+                List<String> batch = new ArrayList<>();
+                for (int size = 10 + random.nextInt(91); batch.size() < size; ) {
+                    batch.add(names.get(random.nextInt(names.size())));
+                }
+                requests.add(search(batch));
+            } else {
+                requests.add(reverse(random.nextDouble() * 130 - 60, random.nextDouble() * 360 - 180));
+            }
+        }
+        return requests;
+    }
+
+    static class Request {
+        //search, batch, reverse or other, latencies are reported by kind
+        final String kind;
+        final String path;
+
+        Request(String kind, String path) {
+            this.kind = kind;
+            this.path = path;
+        }
+    }
+}
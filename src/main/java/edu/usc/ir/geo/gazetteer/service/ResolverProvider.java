@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir.geo.gazetteer.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.usc.ir.geo.gazetteer.BoundaryIndex;
+import edu.usc.ir.geo.gazetteer.DirectoryMode;
+import edu.usc.ir.geo.gazetteer.GeoNameResolver;
+import edu.usc.ir.geo.gazetteer.RankingModel;
+
+/**
+ * Holds the single {@link GeoNameResolver} shared by all REST resources of the
+ * service, so that the index is opened and warmed up once per JVM.
+ */
+public class ResolverProvider {
+
+    public static final String DEFAULT_WARMUP_NAMES = "/edu/usc/ir/geo/gazetteer/warmup-names.txt";
+    private static final Logger LOG = Logger.getLogger(ResolverProvider.class.getName());
+
+    private static GeoNameResolver resolver;
+
+    private ResolverProvider() {
+    }
+
+    /**
+     * Opens the index, unless it is already open. Directory mode, residency
+     * touch interval, federated sources and context disambiguation are read from
+     * {@link Launcher#DIRECTORY_MODE_PROP}, {@link Launcher#TOUCH_INTERVAL_PROP},
+     * {@link Launcher#SOURCES_PROP} and {@link Launcher#DISAMBIGUATE_PROP}. A
+     * ranking model is loaded from {@link Launcher#RANKING_PROP} and admin
+     * boundaries from {@link Launcher#BOUNDARIES_PROP} if set, and
+     * {@link Launcher#REVERSE_CACHE_PROP} sets the reverse cache precision
+     * @param indexPath path to lucene index
+     * @return the shared resolver
+     * @throws IOException when the index can not be opened
+     */
+    public static synchronized GeoNameResolver init(String indexPath) throws IOException {
+        if (resolver == null) {
+            LOG.info("Initialising searcher from index " + indexPath);
+            DirectoryMode mode = DirectoryMode.parse(System.getProperty(Launcher.DIRECTORY_MODE_PROP));
+            String sources = System.getProperty(Launcher.SOURCES_PROP);
+            List<String> sourceSpecs = sources == null || sources.isEmpty()
+                    ? Collections.<String>emptyList() : Arrays.asList(sources.split(","));
+            resolver = GeoNameResolver.federate(indexPath, sourceSpecs, mode);
+            resolver.setContextDisambiguation(Boolean.parseBoolean(
+                    System.getProperty(Launcher.DISAMBIGUATE_PROP, "true")));
+            String rankingModel = System.getProperty(Launcher.RANKING_PROP);
+            if (rankingModel != null && !rankingModel.isEmpty()) {
+                resolver.setRankingModel(RankingModel.load(new File(rankingModel)));
+            }
+            String boundaries = System.getProperty(Launcher.BOUNDARIES_PROP);
+            if (boundaries != null && !boundaries.isEmpty()) {
+                resolver.setBoundaries(BoundaryIndex.load(new File(boundaries)));
+            }
+            String reverseCache = System.getProperty(Launcher.REVERSE_CACHE_PROP);
+            if (reverseCache != null && !reverseCache.isEmpty()) {
+                resolver.setReverseCachePrecision(Integer.parseInt(reverseCache));
+            }
+            resolver.startResidencyToucher(Long.getLong(Launcher.TOUCH_INTERVAL_PROP, 0));
+        }
+        return resolver;
+    }
+
+    /**
+     * @return the shared resolver, opened from index path system property if required
+     */
+    public static synchronized GeoNameResolver getResolver() {
+        if (resolver == null) {
+            String indexPath = System.getProperty(Launcher.INDEX_PATH_PROP);
+            if (indexPath == null || indexPath.isEmpty()) {
+                throw new IllegalStateException("Set Index Path with system property "
+                        + Launcher.INDEX_PATH_PROP);
+            }
+            try {
+                init(indexPath);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return resolver;
+    }
+
+    /**
+     * @return the shared resolver or null if the index is not opened yet
+     */
+    public static synchronized GeoNameResolver peekResolver() {
+        return resolver;
+    }
+
+    /**
+     * Warms up the shared resolver by replaying names. A failed warm up is
+     * logged and leaves the index cold, the node is reported ready anyway.
+     * @param names location names read by {@link #readWarmupNames(String)}
+     */
+    public static void warmUp(List<String> names) {
+        try {
+            getResolver().warmUp(names);
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.SEVERE, "Warm up failed, serving with a cold index", e);
+        }
+    }
+
+    /**
+     * @param namesPath file having one location name per line, null for built-in list
+     * @return names to warm up with
+     * @throws IOException when the file can not be read
+     */
+    public static List<String> readWarmupNames(String namesPath) throws IOException {
+        InputStream stream = namesPath == null
+                ? ResolverProvider.class.getResourceAsStream(DEFAULT_WARMUP_NAMES)
+                : new FileInputStream(namesPath);
+        List<String> names = new ArrayList<>();
+        if (stream == null) {
+            return names;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    names.add(line);
+                }
+            }
+        }
+        return names;
+    }
+}